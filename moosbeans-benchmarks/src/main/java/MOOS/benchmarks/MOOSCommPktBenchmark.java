@@ -0,0 +1,167 @@
+package MOOS.benchmarks;
+
+import MOOS.MOOSBufferPool;
+import MOOS.MOOSCommPkt;
+import MOOS.MOOSMsg;
+import MOOS.MOOSMsgCursor;
+import MOOS.MOOSPktDecoder;
+import MOOS.NoJavaZipCompressionSupportYetException;
+import MOOS.Utils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding and decoding whole packets, the old way with serialize() and
+ * fill() and the newer ways with gather(), MOOSPktDecoder and
+ * MOOSMsgCursor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MOOSCommPktBenchmark {
+
+    @Param({"realistic", "double", "string", "binary"})
+    public String mix;
+
+    /**
+     * Messages per packet.
+     */
+    @Param({"1", "20", "200"})
+    public int batch;
+
+    /**
+     * Length of string and binary values.
+     */
+    @Param({"1024"})
+    public int size;
+
+    /**
+     * A channel that has one packet to read, over and over.
+     */
+    private static final class WireChannel implements ReadableByteChannel {
+
+        private final ByteBuffer wire;
+
+        WireChannel(ByteBuffer wire) {
+            this.wire = wire;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!wire.hasRemaining()) {
+                wire.rewind();
+            }
+            int n = Math.min(dst.remaining(), wire.remaining());
+            ByteBuffer chunk = wire.duplicate();
+            chunk.limit(chunk.position() + n);
+            dst.put(chunk);
+            wire.position(wire.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private ArrayList<MOOSMsg> messages;
+    private MOOSCommPkt tx;
+    private MOOSCommPkt pooledTx;
+    private ByteBuffer wire; // messages as one encoded packet
+    private MOOSCommPkt rx;
+    private final ArrayList<MOOSMsg> received = new ArrayList<>();
+    private final MOOSMsgCursor cursor = new MOOSMsgCursor();
+    private MOOSPktDecoder decoder;
+    private WireChannel channel;
+
+    @Setup
+    public void setUp() {
+        messages = Messages.mix(mix, batch, size);
+        tx = new MOOSCommPkt();
+        pooledTx = new MOOSCommPkt(new MOOSBufferPool());
+        tx.serialize(messages, true);
+        ByteBuffer encoded = tx.getBytes();
+        wire = Utils.allocate(encoded.remaining());
+        wire.put(encoded).flip();
+        rx = new MOOSCommPkt();
+        decoder = new MOOSPktDecoder(new MOOSBufferPool());
+        channel = new WireChannel(wire.duplicate());
+    }
+
+    @Benchmark
+    public ByteBuffer serialize() {
+        tx.serialize(messages, true);
+        return tx.getBytes();
+    }
+
+    @Benchmark
+    public void serializePooled(Blackhole bh) {
+        pooledTx.serialize(messages, true);
+        bh.consume(pooledTx.getBytes());
+        pooledTx.recycle();
+    }
+
+    @Benchmark
+    public void gather(Blackhole bh) {
+        bh.consume(pooledTx.gather(messages));
+        pooledTx.recycle();
+    }
+
+    @Benchmark
+    public ArrayList<MOOSMsg> fill() throws NoJavaZipCompressionSupportYetException {
+        wire.clear();
+        rx.setBytes(wire);
+        rx.fill();
+        received.clear();
+        rx.serialize(received, false);
+        return received;
+    }
+
+    @Benchmark
+    public ArrayList<MOOSMsg> decode() throws IOException, NoJavaZipCompressionSupportYetException {
+        received.clear();
+        while (!decoder.next(rx)) {
+            decoder.read(channel);
+        }
+        rx.serialize(received, false);
+        rx.recycle();
+        return received;
+    }
+
+    @Benchmark
+    public double cursor() {
+        double sum = 0;
+        cursor.reset(wire, 0);
+        while (cursor.next()) {
+            if (cursor.isDouble()) {
+                sum += cursor.getDoubleData();
+            } else {
+                sum += cursor.getBinaryLength();
+            }
+        }
+        return sum;
+    }
+}
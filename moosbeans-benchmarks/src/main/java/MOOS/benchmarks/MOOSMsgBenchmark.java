@@ -0,0 +1,71 @@
+package MOOS.benchmarks;
+
+import MOOS.MOOSMsg;
+import MOOS.Utils;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding a single MOOSMsg.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MOOSMsgBenchmark {
+
+    @Param({"double", "string", "binary"})
+    public String type;
+
+    /**
+     * Length of a string or binary value.
+     */
+    @Param({"64", "4096"})
+    public int size;
+
+    private MOOSMsg msg;
+    private ByteBuffer buffer;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setUp() {
+        msg = Messages.create(type, 0, size);
+        buffer = Utils.allocate(msg.getSizeInBytesWhenSerialised());
+        encoded = Utils.allocate(msg.getSizeInBytesWhenSerialised());
+        msg.serialize(encoded, true);
+        encoded.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer serialize() {
+        buffer.clear();
+        msg.serialize(buffer, true);
+        return buffer;
+    }
+
+    @Benchmark
+    public MOOSMsg deserialize() {
+        encoded.rewind();
+        MOOSMsg decoded = new MOOSMsg();
+        decoded.serialize(encoded, false);
+        return decoded;
+    }
+
+    @Benchmark
+    public int sizeInBytes() {
+        return msg.getSizeInBytesWhenSerialised();
+    }
+}
@@ -0,0 +1,88 @@
+package MOOS.benchmarks;
+
+import MOOS.MOOSCommClient;
+import MOOS.db.MOOSDB;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time from posting a notification to getting it back from a MOOSDB with
+ * one worker, started in the same JVM, over loopback, through a client in
+ * low latency mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MOOSRoundTripBenchmark {
+
+    private static final String VAR = "BENCH_RTT";
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * Whether the client runs its I/O on a Selector rather than polling.
+     */
+    @Param({"true", "false"})
+    public boolean selector;
+
+    private MOOSDB db;
+    private MOOSCommClient client;
+    private final AtomicLong received = new AtomicLong();
+    private long sent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        db = new MOOSDB(MOOSDB.DEFAULT_COMMUNITY, 0, 1);
+        db.setSummaryPeriod(0); // nothing else on the wire
+        db.start();
+        client = new MOOSCommClient("bench", "localhost", db.getPort());
+        client.setUseSelector(selector);
+        client.setLowLatency(true);
+        client.setEnable(true);
+        long deadline = System.nanoTime() + TIMEOUT;
+        while (client.getStats().getConnections() == 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Not welcomed by the MOOSDB");
+            }
+            Thread.sleep(10);
+        }
+        client.register(VAR, 0, msg -> received.set((long) msg.getDoubleData()));
+        roundTrip(); // once the registration has got there, this comes back
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.setEnable(false);
+        db.close();
+    }
+
+    @Benchmark
+    public long roundTrip() {
+        long target = ++sent;
+        client.notify(VAR, (double) target, -1);
+        long deadline = System.nanoTime() + TIMEOUT;
+        while (received.get() < target) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Notification " + target + " never came back");
+            }
+            Thread.yield();
+        }
+        return target;
+    }
+}
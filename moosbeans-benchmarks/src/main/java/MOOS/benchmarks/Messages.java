@@ -0,0 +1,89 @@
+package MOOS.benchmarks;
+
+import MOOS.MOOSMsg;
+import MOOS.comms.MessageType;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The messages the benchmarks encode and decode, roughly what a vehicle's
+ * community carries: mostly doubles from navigation and control, some
+ * strings such as node reports, and the odd binary blob.
+ */
+final class Messages {
+
+    private static final String[] DOUBLE_VARS = {"NAV_X", "NAV_Y", "NAV_DEPTH", "NAV_HEADING", "NAV_SPEED",
+        "DESIRED_HEADING", "DESIRED_SPEED", "DESIRED_DEPTH"};
+    private static final String[] STRING_VARS = {"NODE_REPORT_LOCAL", "IVPHELM_SUMMARY", "APPCAST"};
+    private static final String[] BINARY_VARS = {"SONAR_PING", "CAMERA_FRAME"};
+
+    private Messages() {
+    }
+
+    static MOOSMsg doubleMsg(int i) {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, DOUBLE_VARS[i % DOUBLE_VARS.length], 1234.5678 + i, 1.6e9 + i);
+        msg.setSource("pNav");
+        return msg;
+    }
+
+    static MOOSMsg stringMsg(int i, int size) {
+        StringBuilder value = new StringBuilder("NAME=alpha,X=123.45,Y=-678.9,SPD=1.5,HDG=271.3,DEP=10.2,MODE=SURVEYING");
+        value.setLength(size);
+        for (int c = 0; c < size; c++) {
+            if (value.charAt(c) == 0) {
+                value.setCharAt(c, (char) ('a' + c % 26));
+            }
+        }
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, STRING_VARS[i % STRING_VARS.length], value.toString(), 1.6e9 + i);
+        msg.setSource("pNodeReporter");
+        return msg;
+    }
+
+    static MOOSMsg binaryMsg(int i, int size) {
+        byte[] value = new byte[size];
+        new Random(i).nextBytes(value);
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, BINARY_VARS[i % BINARY_VARS.length], value, 1.6e9 + i);
+        msg.setSource("iSensor");
+        return msg;
+    }
+
+    /**
+     * @param type double, string or binary
+     * @param i which one, to vary the variable names
+     * @param size length of a string or binary value
+     */
+    static MOOSMsg create(String type, int i, int size) {
+        switch (type) {
+            case "double":
+                return doubleMsg(i);
+            case "string":
+                return stringMsg(i, size);
+            case "binary":
+                return binaryMsg(i, size);
+            default:
+                throw new IllegalArgumentException("Unknown message type " + type);
+        }
+    }
+
+    /**
+     * @param mix double, string or binary for all of one type, or realistic
+     * for 16 doubles to 3 strings to 1 binary
+     * @param count how many messages
+     * @param size length of string and binary values
+     */
+    static ArrayList<MOOSMsg> mix(String mix, int count, int size) {
+        ArrayList<MOOSMsg> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (!"realistic".equals(mix)) {
+                messages.add(create(mix, i, size));
+            } else if (i % 20 == 19) {
+                messages.add(binaryMsg(i, size));
+            } else if (i % 20 >= 16) {
+                messages.add(stringMsg(i, Math.min(size, 256)));
+            } else {
+                messages.add(doubleMsg(i));
+            }
+        }
+        return messages;
+    }
+}
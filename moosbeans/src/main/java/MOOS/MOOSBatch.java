@@ -0,0 +1,71 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.util.ArrayList;
+
+/**
+ * Builds up a batch of notifications to send together in one packet, e.g.
+ * all the fields of a sensor scan:
+ *
+ * <pre>
+ * client.batch()
+ *         .notify("GPS_LAT", lat, time)
+ *         .notify("GPS_LON", lon, time)
+ *         .notify("GPS_FIX", fix, time)
+ *         .post();
+ * </pre>
+ *
+ * A batch can be reused once it has been posted. It isn't safe to use from
+ * more than one thread at a time.
+ */
+public class MOOSBatch {
+
+    private final MOOSCommClient client;
+    private final ArrayList<MOOSMsg> messages = new ArrayList<>();
+
+    MOOSBatch(MOOSCommClient client) {
+        this.client = client;
+    }
+
+    public MOOSBatch notify(String var, double dfVal, double dfTime) {
+        return add(new MOOSMsg(MessageType.Notify, var, dfVal, dfTime));
+    }
+
+    public MOOSBatch notify(String var, String sVal, double dfTime) {
+        return add(new MOOSMsg(MessageType.Notify, var, sVal, dfTime));
+    }
+
+    public MOOSBatch notify(String var, byte[] binary, double dfTime) {
+        return add(new MOOSMsg(MessageType.Notify, var, binary, dfTime));
+    }
+
+    /**
+     * @param msg any message, it is added to the publishing list if it is a
+     * Notify
+     * @return this batch
+     */
+    public MOOSBatch add(MOOSMsg msg) {
+        if (msg.isType(MessageType.Notify)) {
+            client.addPublishing(msg.getKey());
+        }
+        messages.add(msg);
+        return this;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    /**
+     * Send everything added since the last post() in one packet.
+     *
+     * @return whether the batch was queued, see MOOSCommClient.postAll()
+     */
+    public boolean post() {
+        try {
+            return client.postAll(messages);
+        } finally {
+            messages.clear();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package MOOS;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * A pool of little endian ByteBuffers for MOOS packets, so sending and
+ * receiving doesn't allocate a new buffer for every packet. Buffers come in
+ * power of two sizes from SMALLEST_BUFFER to LARGEST_POOLED_BUFFER, and
+ * acquire() hands out the smallest one that is big enough. Anything bigger is
+ * allocated as needed and left to the garbage collector.
+ *
+ * The pool can be shared between threads. A buffer must not be used after it
+ * has been released.
+ */
+public class MOOSBufferPool {
+
+    public static final int SMALLEST_BUFFER = 256;
+    public static final int LARGEST_POOLED_BUFFER = 16 * 1024 * 1024;
+    private static final int SMALLEST_SHIFT = Integer.numberOfTrailingZeros(SMALLEST_BUFFER);
+
+    private final boolean direct;
+    private final int buffersPerSize;
+    private final ArrayList<ArrayDeque<ByteBuffer>> sizes = new ArrayList<>();
+
+    /**
+     * A heap backed pool keeping up to 16 spare buffers of each size.
+     */
+    public MOOSBufferPool() {
+        this(false, 16);
+    }
+
+    /**
+     * @param direct whether to allocate direct buffers, which saves a copy
+     * when reading from and writing to sockets
+     * @param buffersPerSize how many spare buffers of each size to keep
+     */
+    public MOOSBufferPool(boolean direct, int buffersPerSize) {
+        this.direct = direct;
+        this.buffersPerSize = buffersPerSize;
+        for (int size = SMALLEST_BUFFER; size <= LARGEST_POOLED_BUFFER; size <<= 1) {
+            sizes.add(new ArrayDeque<>(buffersPerSize));
+        }
+    }
+
+    private static int sizeIndex(int size) {
+        if (size <= SMALLEST_BUFFER) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - SMALLEST_SHIFT;
+    }
+
+    /**
+     * @param size the number of bytes needed
+     * @return a buffer with position 0 and limit size. Its capacity may be
+     * larger and its contents are whatever was left in it last time.
+     */
+    public ByteBuffer acquire(int size) {
+        int index = sizeIndex(size);
+        ByteBuffer buffer = null;
+        if (index < sizes.size()) {
+            ArrayDeque<ByteBuffer> spares = sizes.get(index);
+            synchronized (spares) {
+                buffer = spares.pollFirst();
+            }
+            if (buffer == null) {
+                buffer = allocate(SMALLEST_BUFFER << index);
+            }
+        } else {
+            buffer = allocate(size);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Give a buffer from acquire() back to the pool. Buffers the pool doesn't
+     * keep are ignored.
+     *
+     * @param buffer the buffer, which mustn't be used again by the caller
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (buffer.isDirect() != direct || buffer.isReadOnly() || Integer.bitCount(capacity) != 1
+                || capacity < SMALLEST_BUFFER || capacity > LARGEST_POOLED_BUFFER) {
+            return;
+        }
+        ArrayDeque<ByteBuffer> spares = sizes.get(sizeIndex(capacity));
+        synchronized (spares) {
+            if (spares.size() < buffersPerSize) {
+                spares.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return whether this pool hands out direct buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        if (direct) {
+            return ByteBuffer.allocateDirect(capacity).order(Utils.BYTE_ORDER);
+        }
+        return Utils.allocate(capacity);
+    }
+}
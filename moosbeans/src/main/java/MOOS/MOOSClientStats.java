@@ -0,0 +1,253 @@
+package MOOS;
+
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters and gauges for one MOOSCommClient: traffic in each direction,
+ * inbox and outbox depth and drops, connections, and how long handlers and
+ * the I/O loop take. Every client has one, see MOOSCommClient.getStats(),
+ * and it can be shown over JMX with MOOSCommClient.registerMBean().
+ *
+ * Counting is a few LongAdder increments, so it is always on. Anything
+ * added with addListener() hears about each event as well.
+ */
+public class MOOSClientStats implements MOOSClientStatsMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSClientStats.class);
+
+    private final MOOSCommClient client;
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder handlerCalls = new LongAdder();
+    private final LongAdder handlerNanos = new LongAdder();
+    private final LongAccumulator handlerMaxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder iterateNanos = new LongAdder();
+    private final LongAccumulator iterateMaxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder iteratePackets = new LongAdder();
+    private int packetsSinceIterate; // only touched by the I/O thread
+    private final CopyOnWriteArrayList<MOOSMetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param client the client to count for, which the gauges are read from
+     */
+    public MOOSClientStats(MOOSCommClient client) {
+        this.client = client;
+        try {
+            for (MOOSMetricsListener listener : ServiceLoader.load(MOOSMetricsListener.class)) {
+                listeners.add(listener);
+            }
+        } catch (ServiceConfigurationError ex) {
+            LOG.warn("Couldn't load a MOOSMetricsListener", ex);
+        }
+    }
+
+    /**
+     * @param listener to hear about every event from now on
+     */
+    public void addListener(MOOSMetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MOOSMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    void packetSent(int messages, int bytes) {
+        packetsSent.increment();
+        messagesSent.add(messages);
+        bytesSent.add(bytes);
+        for (MOOSMetricsListener listener : listeners) {
+            listener.packetSent(this, messages, bytes);
+        }
+    }
+
+    void packetReceived(int messages, int bytes) {
+        packetsReceived.increment();
+        packetsSinceIterate++;
+        messagesReceived.add(messages);
+        bytesReceived.add(bytes);
+        for (MOOSMetricsListener listener : listeners) {
+            listener.packetReceived(this, messages, bytes);
+        }
+    }
+
+    void handled(long nanos) {
+        handlerCalls.increment();
+        handlerNanos.add(nanos);
+        handlerMaxNanos.accumulate(nanos);
+        for (MOOSMetricsListener listener : listeners) {
+            listener.handled(this, nanos);
+        }
+    }
+
+    /**
+     * Called by the I/O thread at the end of each pass of its loop.
+     */
+    void iterated(long nanos) {
+        int received = packetsSinceIterate;
+        packetsSinceIterate = 0;
+        iterations.increment();
+        iterateNanos.add(nanos);
+        iterateMaxNanos.accumulate(nanos);
+        iteratePackets.add(received);
+        for (MOOSMetricsListener listener : listeners) {
+            listener.iterated(this, nanos, received);
+        }
+    }
+
+    void connected() {
+        boolean reconnect = connections.sum() > 0;
+        connections.increment();
+        for (MOOSMetricsListener listener : listeners) {
+            listener.connected(this, reconnect);
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static double mean(long total, long count) {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    @Override
+    public String getClientName() {
+        return client.getName();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return packetsReceived.sum();
+    }
+
+    @Override
+    public int getInboxSize() {
+        return client.getInbox().size();
+    }
+
+    @Override
+    public int getOutboxSize() {
+        return client.getOutbox().size();
+    }
+
+    @Override
+    public long getInboxDropped() {
+        return client.getInbox().getDroppedCount();
+    }
+
+    @Override
+    public long getOutboxDropped() {
+        return client.getOutbox().getDroppedCount();
+    }
+
+    @Override
+    public long getDoublesDropped() {
+        return client.getDoubleRing().getDroppedCount();
+    }
+
+    @Override
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    @Override
+    public long getReconnects() {
+        return Math.max(0, connections.sum() - 1);
+    }
+
+    @Override
+    public long getHandlerCalls() {
+        return handlerCalls.sum();
+    }
+
+    @Override
+    public double getHandlerTimeMean() {
+        return mean(handlerNanos.sum(), handlerCalls.sum()) / 1000.0;
+    }
+
+    @Override
+    public double getHandlerTimeMax() {
+        return micros(handlerMaxNanos.get());
+    }
+
+    @Override
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    @Override
+    public double getIterateTimeMean() {
+        return mean(iterateNanos.sum(), iterations.sum()) / 1000.0;
+    }
+
+    @Override
+    public double getIterateTimeMax() {
+        return micros(iterateMaxNanos.get());
+    }
+
+    @Override
+    public double getPacketsPerIterate() {
+        return mean(iteratePackets.sum(), iterations.sum());
+    }
+
+    @Override
+    public String getLatencyReport() {
+        MOOSLatencyMonitor latency = client.getLatency();
+        return latency == null ? "" : latency.report();
+    }
+
+    @Override
+    public void reset() {
+        messagesSent.reset();
+        bytesSent.reset();
+        packetsSent.reset();
+        messagesReceived.reset();
+        bytesReceived.reset();
+        packetsReceived.reset();
+        handlerCalls.reset();
+        handlerNanos.reset();
+        handlerMaxNanos.reset();
+        iterations.reset();
+        iterateNanos.reset();
+        iterateMaxNanos.reset();
+        iteratePackets.reset();
+    }
+}
@@ -0,0 +1,62 @@
+package MOOS;
+
+/**
+ * What a MOOSCommClient shows over JMX, see MOOSCommClient.registerMBean().
+ * Times are in microseconds.
+ */
+public interface MOOSClientStatsMBean {
+
+    public String getClientName();
+
+    public long getMessagesSent();
+
+    public long getBytesSent();
+
+    public long getPacketsSent();
+
+    public long getMessagesReceived();
+
+    public long getBytesReceived();
+
+    public long getPacketsReceived();
+
+    public int getInboxSize();
+
+    public int getOutboxSize();
+
+    public long getInboxDropped();
+
+    public long getOutboxDropped();
+
+    public long getDoublesDropped();
+
+    public long getConnections();
+
+    public long getReconnects();
+
+    public long getHandlerCalls();
+
+    public double getHandlerTimeMean();
+
+    public double getHandlerTimeMax();
+
+    public long getIterations();
+
+    public double getIterateTimeMean();
+
+    public double getIterateTimeMax();
+
+    public double getPacketsPerIterate();
+
+    /**
+     * @return the latency percentiles of each variable, empty unless the
+     * client is recording latency
+     */
+    public String getLatencyReport();
+
+    /**
+     * Start the counters and times again from zero. The drop counts belong
+     * to the inbox and outbox and carry on.
+     */
+    public void reset();
+}
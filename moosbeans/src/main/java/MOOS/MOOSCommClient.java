@@ -35,13 +35,27 @@ package MOOS;
 
 import MOOS.comms.MessageType;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Stack;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,14 +64,19 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(MOOSCommClient.class);
 
     public static final int MOOS_SERVER_REQUEST_ID = -2;
-    protected SocketChannel socket;
+    protected volatile SocketChannel socket;
     protected int port;
     protected String hostname;
     protected String name; /// Application Name
-    protected Stack<MOOSMsg> outboxList;
-    protected ArrayList<MOOSMsg> inboxList;
-    protected ArrayList<String> publishingList;
+    protected final MOOSOutbox outbox;
+    protected final MOOSInbox inbox;
+    protected ArrayList<String> publishingList; // guarded by itself
+    private final Set<String> published = ConcurrentHashMap.newKeySet(); // what is in publishingList, to check without searching it
+    protected final ConcurrentHashMap<String, MOOSPublisher> publishers = new ConcurrentHashMap<>();
+    private String encodedName; // the name nameBytes were encoded from
+    private byte[] nameBytes;
     protected TreeMap<String, Double> subscribingList;
+    protected final ConcurrentHashMap<String, Double> wildcardList = new ConcurrentHashMap<>(); // "varPattern,appPattern" to interval
     protected Thread theThread;
     protected boolean enable; // whether this thread is running or not.
     protected int MAX_INBOX_MESSAGES = 1000;
@@ -68,12 +87,81 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
     protected double startTime;
     protected boolean doLocalTimeCorrection = false;
     protected boolean useNameAsSrc = true;
-    protected int nextMsgID = 0; // start IDs at zero.
+    protected final AtomicInteger nextMsgID = new AtomicInteger(); // start IDs at zero.
     protected MoosMessageHandler messageHandler = null;
+    protected final MOOSClientStats stats = new MOOSClientStats(this);
+    protected final MOOSDispatcher dispatcher = new MOOSDispatcher(stats);
+    /**
+     * Use a Selector to wake up on socket readiness instead of sleeping
+     * between iterations. See setUseSelector().
+     */
+    protected boolean useSelector = false;
+    protected SelectionKey selectionKey; // only set while the selector loop is running
+    protected MOOSBufferPool bufferPool = new MOOSBufferPool();
+    protected MOOSPktDecoder rxDecoder = new MOOSPktDecoder(bufferPool); // what has been read, kept across select wake ups
+    protected MOOSCommPkt pktRx = new MOOSCommPkt(bufferPool); // the packet rxDecoder is handing out
+    protected MOOSCommPkt pktTx = new MOOSCommPkt(bufferPool); // reused for every packet sent
+    protected final ArrayList<MOOSMsg> txList = new ArrayList<>(); // messages going into pktTx
+    protected final ArrayList<MOOSMsg> rxList = new ArrayList<>(); // messages decoded from pktRx
+    protected final MOOSMsg keepAliveMsg = new MOOSMsg();
+    protected ByteBuffer[] pendingTx; // what is left of a packet the socket couldn't take in one go
+    protected MoosCursorHandler cursorHandler = null;
+    protected final MOOSMsgCursor rxCursor = new MOOSMsgCursor();
+    protected volatile MOOSLatestValues latestValues = null; // see setCacheLatestValues()
+    protected volatile MOOSLatencyMonitor latency = null; // see setRecordLatency()
+    /**
+     * Ids for the primitive double path, see publishDouble() and
+     * registerDouble().
+     */
+    protected final MOOSVariableTable variables = new MOOSVariableTable();
+    protected final MOOSDoubleRing doubleRing = new MOOSDoubleRing(4096); // doubles waiting to be sent
+    protected volatile MoosDoubleHandler doubleHandler = null;
+    private final MoosDoubleHandler doubleEncoder = this::encodeDouble; // drains doubleRing into pktTx
+    protected boolean welcomed = false; // whether the MOOSDB has accepted the handshake on this connection
+    /**
+     * When set the group's thread drives this client instead of theThread.
+     */
+    protected MOOSCommClientGroup clientGroup;
+    /**
+     * When set post() wakes the I/O loop to send straight away instead of
+     * waiting for the next iteration. See setLowLatency().
+     */
+    protected volatile boolean lowLatency = false;
+    protected volatile long lowLatencyWindowNanos = 200000; // how long to wait for more messages before flushing
+    protected final AtomicBoolean flushRequested = new AtomicBoolean(); // something was posted in low latency mode
+    private volatile Selector activeSelector; // the selector loop's, while it is running
+    /**
+     * When set notifications are shared with the other clients on it
+     * directly, see setLocalBus().
+     */
+    protected volatile MOOSLocalBus localBus;
+    protected final AtomicBoolean dispatchRequested = new AtomicBoolean(); // the local bus has put something in the inbox
+    private final AtomicInteger handling = new AtomicInteger(); // BLOCK only, messages taken from the inbox that handlers haven't finished with
+    private final Runnable handledOne = () -> handled(1);
+    private boolean readPaused; // readNewMessages() stopped because the inbox was full
+    /**
+     * When set notifications also go through a memory mapped ring to clients
+     * in other JVMs on this host, see setSharedRing().
+     */
+    protected volatile MOOSSharedRing sharedRing;
+    protected final Set<String> sharedRingOnly = ConcurrentHashMap.newKeySet(); // variables not sent to the MOOSDB
+    protected final MOOSCommPkt ringPkt = new MOOSCommPkt(); // what goes into the ring, built alongside pktTx
+    private boolean ringGathering; // encodeDouble() is to add to ringPkt too
 
-    private static final String PROTOCOL_STRING = "ELKS CAN'T DANCE 2/8/10";
+    /**
+     * Where a client driven by a MOOSCommClientGroup is in connecting to the
+     * MOOSDB.
+     */
+    protected enum ConnectionState {
+        Disconnected, Connecting, Handshaking, Connected
+    }
+    private ConnectionState groupState = ConnectionState.Disconnected;
+    private long groupDeadline = 0; // next time groupIterate() has something to do
+    private static final long HANDSHAKE_TIMEOUT = 15000; // same as the 50 x 300ms handshake() waits
+
+    static final String PROTOCOL_STRING = "ELKS CAN'T DANCE 2/8/10";
     private final static ByteBuffer HANDSHAKE_BUFFER;
-    private final static int HANDSHAKE_BUFFER_SIZE = 32;
+    static final int HANDSHAKE_BUFFER_SIZE = 32;
 
     static {
         HANDSHAKE_BUFFER = Utils.allocate(HANDSHAKE_BUFFER_SIZE);
@@ -96,8 +184,8 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
         this.port = port;
 
         // Initialise message boxes
-        outboxList = new Stack<>();
-        inboxList = new ArrayList<>();
+        outbox = new MOOSOutbox(MAX_OUTBOX_MESSAGES);
+        inbox = new MOOSInbox(MAX_INBOX_MESSAGES);
 
         // current not editing the publishingList.
         publishingList = new ArrayList<>();
@@ -160,21 +248,33 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
                     //  return;
                     if (manualConnect || handshake()) {
                         sendRegistrationPackets();
-                        while (enable && socket.isConnected()) {
-                            try {
-                                Thread.sleep((int) Math.floor((1000.0 / fundamentalFrequency)));
-                                if (enable && socket.isConnected()) {
-                                    iterate();
-                                } else {
-                                    if (enable) {
-                                        LOG.info("MOOSDB disconnected us :-( \n");
+                        if (useSelector) {
+                            runSelectorLoop();
+                        } else {
+                            while (enable && socket.isConnected()) {
+                                try {
+                                    if (lowLatency) {
+                                        // post() unparks us rather than waiting for the next iteration
+                                        LockSupport.parkNanos(this, (long) (1e9 / fundamentalFrequency));
+                                        if (flushRequested.get() && !dispatchRequested.get()) {
+                                            waitForMoreMessages();
+                                        }
+                                    } else {
+                                        Thread.sleep((int) Math.floor((1000.0 / fundamentalFrequency)));
+                                    }
+                                    if (enable && socket.isConnected()) {
+                                        iterate();
+                                    } else {
+                                        if (enable) {
+                                            LOG.info("MOOSDB disconnected us :-( \n");
+                                        }
+                                        LOG.info("Requesting Disconnect from the MOOSDB... \n");
+                                        break;
                                     }
-                                    LOG.info("Requesting Disconnect from the MOOSDB... \n");
-                                    break;
-                                }
 
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
+                                } catch (InterruptedException e) {
+                                    e.printStackTrace();
+                                }
                             }
                         }
                     }
@@ -198,12 +298,185 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
 
     }
 
-    public synchronized ArrayList<MOOSMsg> getNewMsgs() {
-        ArrayList<MOOSMsg> in = (ArrayList<MOOSMsg>) inboxList.clone();
-        inboxList.clear();
-        return in;
+    /**
+     * Selector driven replacement for the sleep and iterate() loop in run().
+     * Incoming packets are decoded and handed to the message handler as soon
+     * as the socket becomes readable rather than waiting for the next
+     * iteration. The outbox is still flushed at the fundamental frequency,
+     * and if the socket can't take a whole packet the rest is written when
+     * the selector reports OP_WRITE; anything posted or sent meanwhile goes
+     * as soon as that has finished, rather than waiting for the next
+     * iteration.
+     *
+     * @throws IOException if the connection fails or is closed by the MOOSDB
+     */
+    protected void runSelectorLoop() throws IOException {
+        try (Selector selector = Selector.open()) {
+            selectionKey = socket.register(selector, SelectionKey.OP_READ);
+            activeSelector = selector;
+            long nextIterate = System.currentTimeMillis();
+            while (enable && socket.isConnected()) {
+                long started = System.nanoTime();
+                long timeNow = System.currentTimeMillis();
+                if (timeNow >= nextIterate) {
+                    sendOutbox(timeNow);
+                    nextIterate = timeNow + (long) Math.floor(1000.0 / fundamentalFrequency);
+                } else if (flushRequested.get()) {
+                    waitForMoreMessages();
+                    sendOutbox(timeNow);
+                }
+
+                long busy = System.nanoTime() - started;
+                if (selector.select(Math.max(1, nextIterate - timeNow)) > 0) {
+                    long woken = System.nanoTime();
+                    selector.selectedKeys().clear();
+                    if (selectionKey.isValid() && selectionKey.isWritable()) {
+                        writePendingTx();
+                    }
+                    if (selectionKey.isValid() && selectionKey.isReadable()) {
+                        readNewMessages();
+                        dispatchNewMessages();
+                    }
+                    busy += System.nanoTime() - woken;
+                }
+                if (dispatchRequested.get()) {
+                    dispatchNewMessages();
+                }
+                resumeReading();
+                stats.iterated(busy);
+            }
+            if (enable) {
+                LOG.info("MOOSDB disconnected us :-( \n");
+            }
+        } finally {
+            activeSelector = null;
+            resetTransport();
+        }
+    }
+
+    /**
+     * In low latency mode, give other threads the micro batching window to
+     * post more messages so that a burst still goes in one packet.
+     */
+    protected void waitForMoreMessages() {
+        long window = lowLatencyWindowNanos;
+        if (lowLatency && window > 0) {
+            LockSupport.parkNanos(window);
+        }
+    }
+
+    /**
+     * Get the I/O loop to send the outbox now, for low latency mode.
+     */
+    protected void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            wakeup();
+        }
+    }
+
+    /**
+     * Get the I/O loop to dispatch what the local bus has put in the inbox.
+     * A sleeping rather than parked loop, i.e. not in low latency mode and
+     * without a Selector, picks it up on its next iteration.
+     */
+    protected void requestDispatch() {
+        if (dispatchRequested.compareAndSet(false, true)) {
+            wakeup();
+        }
     }
 
+    private void wakeup() {
+        MOOSCommClientGroup group = clientGroup;
+        Selector selector = activeSelector;
+        Thread thread = theThread;
+        if (group != null) {
+            group.wakeup();
+        } else if (selector != null) {
+            selector.wakeup();
+        } else if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Forget any half read or half written packet, i.e. once the connection
+     * has gone, and give their buffers back to the pool.
+     */
+    protected synchronized void resetTransport() {
+        selectionKey = null;
+        pendingTx = null;
+        txList.clear(); // sent while the last packet was going out, the outbox is cleared too
+        rxDecoder.reset();
+        pktRx.recycle();
+        pktTx.recycle();
+    }
+
+    /**
+     * Write out as much of the pending packet as the socket will take. Only
+     * used by the selector loop, which keeps OP_WRITE interest until the
+     * packet has gone.
+     *
+     * @throws IOException
+     */
+    protected synchronized void writePendingTx() throws IOException {
+        if (pendingTx != null) {
+            socket.write(pendingTx);
+            if (!pendingTx[pendingTx.length - 1].hasRemaining()) {
+                pendingTx = null;
+                pktTx.recycle();
+                if (!(txList.isEmpty() && outbox.isEmpty() && doubleRing.isEmpty())) {
+                    flushRequested.set(true); // posted or sent while this was going out, send it next
+                }
+            }
+        }
+        updateInterestOps();
+    }
+
+    /**
+     * Ask the Selector for OP_WRITE while a packet is half written, and for
+     * OP_READ unless the inbox is full and blocking, so that a client that
+     * can't keep up stops reading and TCP holds up the MOOSDB.
+     */
+    private synchronized void updateInterestOps() {
+        SelectionKey key = selectionKey;
+        if (key != null && key.isValid()) {
+            int ops = inbox.isBlocked() ? 0 : SelectionKey.OP_READ;
+            key.interestOps(pendingTx == null ? ops : ops | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Once a full BLOCK inbox has room again, read whatever was left waiting
+     * in the socket and the receive buffer while it was full. Nothing new
+     * need arrive for that to be read.
+     *
+     * @throws IOException
+     */
+    private void resumeReading() throws IOException {
+        if (readPaused && !inbox.isBlocked()) {
+            readNewMessages();
+            dispatchNewMessages();
+        }
+    }
+
+    /**
+     * Take everything out of the inbox.
+     *
+     * @return the messages received since the last call, newest first
+     */
+    public ArrayList<MOOSMsg> getNewMsgs() {
+        return inbox.drain();
+    }
+
+    /**
+     * Search a list from getNewMsgs() for the newest message for a variable.
+     * To keep track of the current value of variables use
+     * getLatestValues() instead.
+     *
+     * @param msgList messages, newest first
+     * @param varName the variable
+     * @return the first message for varName, or null
+     */
     public static MOOSMsg findNewestMsg(Iterable<MOOSMsg> msgList, String varName) {
         for (MOOSMsg m : msgList) {
             if (m.getKey().equals(varName)) {
@@ -213,31 +486,195 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
         return null;
     }
 
-    public synchronized void readNewMessages() throws IOException {
-        MOOSCommPkt pktRx = new MOOSCommPkt();
-        if (inboxList.size() > this.MAX_INBOX_MESSAGES) {
-            //System.out.println("INBOX OVERFLOWING: CLEARING!");
-            inboxList.clear();
-        } // always empty the mail box.
-        while (readPkt(socket, pktRx)) { // only add messages if managed to read a packet. Also the latest packet will be the newest so that gets added to the top of the list.
-            ArrayList<MOOSMsg> tempList = new ArrayList<>();
-            pktRx.serialize(tempList, false); // read messages into temp list
-            inboxList.addAll(0, tempList); // add temp list to front of message queue as last packet received will contain the newest messages
-            pktRx = new MOOSCommPkt();
+    /**
+     * Read whatever packets have arrived into the inbox. This never waits
+     * for the rest of a packet, that is picked up on a later call. Reading
+     * stops early if the inbox is full and its overflow policy is BLOCK, and
+     * carries on once it has been drained.
+     *
+     * @throws IOException
+     */
+    public void readNewMessages() throws IOException {
+        readPaused = false;
+        while (true) {
+            try {
+                while (!inbox.isBlocked() && rxDecoder.next(pktRx)) {
+                    stats.packetReceived(pktRx.getMsgCount(), rxDecoder.getLastLength());
+                    receivePacket(pktRx);
+                    pktRx.recycle();
+                }
+            } catch (NoJavaZipCompressionSupportYetException e) {
+                LOG.warn("Dropping packet: {}", e.getMessage());
+                pktRx.recycle(); // it has been taken out, carry on with the next one
+                continue;
+            }
+            if (inbox.isBlocked()) {
+                readPaused = true;
+                updateInterestOps();
+                return;
+            }
+            if (rxDecoder.read(socket) == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hand a complete packet to the cursor handler, if there is one and the
+     * handshake is done, otherwise decode its messages into the inbox. Double
+     * notifications for variables registered with registerDouble() go to the
+     * double handler instead, without being decoded.
+     *
+     * @param pkt a packet that has been filled
+     */
+    protected void receivePacket(MOOSCommPkt pkt) {
+        MOOSLatestValues latest = latestValues;
+        MOOSLatencyMonitor monitor = latency;
+        double arrived = monitor == null ? 0 : MOOSLatencyMonitor.now();
+        if (cursorHandler != null && welcomed) {
+            if (latest != null || monitor != null) {
+                rxCursor.reset(pkt);
+                while (rxCursor.next()) {
+                    if (rxCursor.isType(MessageType.Notify)) {
+                        if (latest != null) {
+                            latest.update(rxCursor.toMOOSMsg());
+                        }
+                        if (monitor != null) {
+                            monitor.record(rxCursor.getKey(), rxCursor.getTime(), arrived);
+                        }
+                    }
+                }
+            }
+            long start = System.nanoTime();
+            cursorHandler.handleMessages(rxCursor.reset(pkt));
+            stats.handled(System.nanoTime() - start);
+            return;
+        }
+        MOOSLocalBus bus = welcomed ? localBus : null;
+        MoosDoubleHandler doubles = doubleHandler;
+        if (doubles != null && welcomed) {
+            rxCursor.reset(pkt);
+            while (rxCursor.next()) {
+                if (bus != null && rxCursor.isType(MessageType.Notify) && bus.isDelivered(rxCursor.getSource(), rxCursor.getMsgID())) {
+                    continue; // the local bus has already delivered it
+                }
+                if (rxCursor.isType(MessageType.Notify) && rxCursor.isDouble()) {
+                    int id = rxCursor.keyId(variables);
+                    if (variables.isDouble(id)) {
+                        if (latest != null) {
+                            latest.update(rxCursor.toMOOSMsg());
+                        }
+                        if (monitor != null) {
+                            monitor.record(variables.nameOf(id), rxCursor.getTime(), arrived);
+                        }
+                        doubles.onDouble(id, rxCursor.getDoubleData(), rxCursor.getTime());
+                        continue;
+                    }
+                }
+                rxList.add(rxCursor.toMOOSMsg());
+            }
+        } else {
+            pkt.serialize(rxList, false);
+            if (bus != null) {
+                rxList.removeIf(msg -> msg.isType(MessageType.Notify) && bus.isDelivered(msg.getSource(), msg.getMsgID()));
+            }
+        }
+        if (latest != null) {
+            for (int i = 0, n = rxList.size(); i < n; i++) {
+                latest.update(rxList.get(i));
+            }
+        }
+        if (monitor != null && welcomed) {
+            for (int i = 0, n = rxList.size(); i < n; i++) {
+                MOOSMsg msg = rxList.get(i);
+                if (msg.isType(MessageType.Notify)) {
+                    monitor.record(msg.getKey(), msg.getTime(), arrived);
+                }
+            }
         }
+        inbox.addAll(rxList);
+        rxList.clear();
     }
 
     /**
-     * This will also clear the message list once sent
+     * Send messages as one packet straight away, rather than through the
+     * outbox. If the selector loop is still writing the last packet they go
+     * in the next one, as soon as it has gone.
      *
      * @param messages
      */
     public synchronized void sendMessages(Collection<MOOSMsg> messages) {
         // Send the whole list
         if (!messages.isEmpty()) {
-            MOOSCommPkt PktTx = new MOOSCommPkt();
-            PktTx.serialize(new ArrayList(messages), true); // convert from Stack to ArrayList.
-            sendPkt(socket, PktTx);
+            txList.addAll(messages);
+            sendTxList();
+        }
+    }
+
+    /**
+     * Send whatever is in txList, followed by whatever has been published
+     * with publishDouble(), as one packet and empty them. While the last
+     * packet is still being written they are left where they are, and
+     * writePendingTx() asks for them to be sent once it has gone.
+     */
+    private synchronized void sendTxList() {
+        if (pendingTx != null) {
+            return; // pktTx's buffers are still going out
+        }
+        if (!txList.isEmpty() || !doubleRing.isEmpty()) {
+            MOOSSharedRing ring = sharedRing;
+            pktTx.gatherStart(MOOSCommPkt.estimateSize(txList));
+            if (ring == null) {
+                for (int i = 0, n = txList.size(); i < n; i++) {
+                    pktTx.gatherAdd(txList.get(i));
+                }
+            } else {
+                ringPkt.gatherStart(MOOSCommPkt.estimateSize(txList));
+                ringGathering = true;
+                for (int i = 0, n = txList.size(); i < n; i++) {
+                    MOOSMsg msg = txList.get(i);
+                    boolean shared = msg.isType(MessageType.Notify) && name != null && name.equals(msg.getSource());
+                    if (shared) {
+                        ringPkt.gatherAdd(msg);
+                    }
+                    if (!shared || sharedRingOnly.isEmpty() || !sharedRingOnly.contains(msg.getKey())) {
+                        pktTx.gatherAdd(msg);
+                    }
+                }
+            }
+            int doubles;
+            try {
+                doubles = doubleRing.drainTo(doubleEncoder);
+            } finally {
+                ringGathering = false;
+            }
+            if (ring != null) {
+                writeRing(ring);
+            }
+            if (txList.isEmpty() && doubles == 0) {
+                pktTx.recycle(); // a double was still being published, it goes next time
+                return;
+            }
+            txList.clear();
+            if (pktTx.getMsgCount() == 0) {
+                // everything went to the ring only, but the MOOSDB only sends mail in reply to something
+                setSource(keepAliveMsg);
+                pktTx.gatherAdd(keepAliveMsg);
+            }
+            ByteBuffer[] segments = pktTx.gatherEnd();
+            stats.packetSent(pktTx.getMsgCount(), pktTx.getPacketLengthInBytes());
+            if (selectionKey != null) {
+                // never spin on a full socket, the selector tells us when to carry on
+                pendingTx = segments;
+                try {
+                    writePendingTx();
+                } catch (IOException ex) {
+                    closeConnection();
+                }
+            } else {
+                sendSegments(socket, segments);
+                pktTx.recycle();
+            }
         }
     }
 
@@ -248,17 +685,35 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
      * @throws java.io.IOException
      */
     public void iterate() throws IOException {
+        long started = System.nanoTime();
 
         /// @TODO The keep alive needs to factor in the warp time, but we won't have
         /// a warp time right now. 
-        long timeNow = System.currentTimeMillis();
+        sendOutbox(System.currentTimeMillis());
+
+        //  try {
+        readNewMessages();
+
+        dispatchNewMessages();
+        stats.iterated(System.nanoTime() - started);
+    }
 
-        if (outboxList.isEmpty()) { // if empty we just send an NULL message to keep things ticking over. Sending at fundamental frequency seems a bit high
+    /**
+     * Send everything in the outbox, or a keep alive if it has been empty for
+     * longer than the keep alive time.
+     *
+     * @param timeNow current system time in milliseconds
+     */
+    protected void sendOutbox(long timeNow) {
+        flushRequested.set(false); // anything posted from here on wakes us again
+        if (pendingTx != null) {
+            return; // still writing the last packet, let the outbox fill up until it has gone
+        }
+
+        if (outbox.isEmpty() && doubleRing.isEmpty()) { // if empty we just send an NULL message to keep things ticking over. Sending at fundamental frequency seems a bit high
             if (timeNow - this.lastSentMsgTime > this.keepAliveTime) { // only if has been a while since last message
                 this.lastSentMsgTime = timeNow;
-                MOOSMsg msg = new MOOSMsg();
-                //outboxList.add(msg);
-                if (!post(msg)) {
+                if (!post(keepAliveMsg, false)) { // always the same message, it has gone before the next one is due
                     LOG.error("Failed to send keep alive");
                 }
             }
@@ -266,24 +721,159 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
             this.lastSentMsgTime = timeNow;
         }
 
-        sendMessages(outboxList); // send the outbox
-        outboxList.clear(); // clear the outbox
-
-        //  try {
-        readNewMessages();
+        synchronized (this) {
+            outbox.drainTo(txList); // whatever has been posted up to now
+            sendTxList();
+        }
+    }
 
-        if (!inboxList.isEmpty()) {
-            if (messageHandler != null) {
-                messageHandler.handleMessages(getNewMsgs());
+    /**
+     * Pass anything in the inbox to the dispatcher's handlers, oldest first,
+     * and whatever none of them took to the message handler.
+     *
+     * When the inbox's overflow policy is BLOCK only as many are taken out
+     * as handlers have finished with, so with an executor no more than the
+     * inbox's capacity are ever waiting to be handled, the inbox fills up,
+     * and reading stops until the handlers catch up.
+     */
+    protected void dispatchNewMessages() {
+        dispatchRequested.set(false); // anything delivered from here on wakes us again
+        if (!inbox.isEmpty()) {
+            boolean block = inbox.getOverflowPolicy() == MOOSInbox.OverflowPolicy.BLOCK;
+            ArrayList<MOOSMsg> messages;
+            if (block) {
+                messages = inbox.drain(inbox.getCapacity() - handling.get());
+                updateInterestOps();
+                if (messages.isEmpty()) {
+                    return;
+                }
+            } else {
+                messages = getNewMsgs();
+            }
+            boolean track = block && dispatcher.getExecutor() != null; // inline handlers have finished when they return
+            MoosDoubleHandler doubles = doubleHandler;
+            if (doubles != null && localBus != null) {
+                messages = handleLocalDoubles(messages, doubles);
+                if (messages.isEmpty()) {
+                    return;
+                }
+            }
+            if (!dispatcher.isEmpty()) {
+                ArrayList<MOOSMsg> unhandled = new ArrayList<>();
+                for (int i = messages.size() - 1; i >= 0; i--) {
+                    if (track) {
+                        handling.incrementAndGet();
+                    }
+                    if (!dispatcher.dispatch(messages.get(i), track ? handledOne : null)) {
+                        if (track) {
+                            handling.decrementAndGet();
+                        }
+                        unhandled.add(messages.get(i));
+                    }
+                }
+                Collections.reverse(unhandled); // back to newest first
+                messages = unhandled;
+                if (messages.isEmpty()) {
+                    return;
+                }
+            }
+            MoosMessageHandler handler = messageHandler;
+            if (handler != null) {
+                ArrayList<MOOSMsg> batch = messages;
+                if (track) {
+                    handling.addAndGet(batch.size());
+                    dispatcher.execute(MOOSDispatcher.BATCH_KEY, () -> {
+                        try {
+                            handler.handleMessages(batch);
+                        } finally {
+                            handled(batch.size());
+                        }
+                    });
+                } else {
+                    dispatcher.execute(MOOSDispatcher.BATCH_KEY, () -> handler.handleMessages(batch));
+                }
             } else {
                 /// @todo Need to tell someone that messages have been received
-                getNewMsgs().stream().forEach((msg) -> {
+                messages.stream().forEach((msg) -> {
                     LOG.debug("No MessageHandler for: {} = {}", msg.getKey(), msg.isDouble() ? msg.getDoubleData() : msg.getStringData());
                 });
             }
         }
     }
 
+    /**
+     * Handlers have finished with count messages taken from a BLOCK inbox,
+     * so the I/O loop can take as many more.
+     */
+    private void handled(int count) {
+        handling.addAndGet(-count);
+        if (!inbox.isEmpty()) {
+            requestDispatch();
+        }
+    }
+
+    /**
+     * Pass Double notifications the local bus put in the inbox, for
+     * variables registered with registerDouble(), to the double handler, as
+     * receivePacket() does for those from the MOOSDB.
+     *
+     * @param messages newest first
+     * @return the rest of them, newest first
+     */
+    private ArrayList<MOOSMsg> handleLocalDoubles(ArrayList<MOOSMsg> messages, MoosDoubleHandler doubles) {
+        ArrayList<MOOSMsg> rest = new ArrayList<>(messages.size());
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            MOOSMsg msg = messages.get(i);
+            int id = msg.isType(MessageType.Notify) && msg.isDouble() ? variables.find(msg.getKey()) : -1;
+            if (variables.isDouble(id)) {
+                doubles.onDouble(id, msg.getDoubleData(), msg.getTime());
+            } else {
+                rest.add(msg);
+            }
+        }
+        Collections.reverse(rest);
+        return rest;
+    }
+
+    /**
+     * Take a notification from the local bus, on the thread that posted it.
+     * It goes into the inbox like one from the MOOSDB, under the inbox's
+     * overflow policy, and the I/O loop is woken to dispatch it.
+     *
+     * @param msg shared with everyone else on the bus
+     * @return false if this client doesn't take messages from the bus or it
+     * was dropped
+     */
+    boolean receiveLocal(MOOSMsg msg) {
+        if (cursorHandler != null) {
+            return false; // the cursor handler only takes packets, it gets the MOOSDB's copy
+        }
+        MOOSLatestValues latest = latestValues;
+        if (latest != null) {
+            latest.update(msg);
+        }
+        MOOSLatencyMonitor monitor = latency;
+        if (monitor != null) {
+            monitor.record(msg.getKey(), msg.getTime(), MOOSLatencyMonitor.now());
+        }
+        if (!inbox.add(msg)) {
+            return false;
+        }
+        requestDispatch();
+        return true;
+    }
+
+    /**
+     * Hand what has just been posted to the local bus, if this client is on
+     * one.
+     */
+    private void publishLocal(MOOSMsg msg) {
+        MOOSLocalBus bus = localBus;
+        if (bus != null && msg.isType(MessageType.Notify) && name != null && name.equals(msg.getSource())) {
+            bus.publish(msg);
+        }
+    }
+
     public boolean connectToServer() throws IOException {
         if (socket != null && socket.isConnected()) {
             LOG.info("Client is already connected! ... disconnecting first");
@@ -296,14 +886,11 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
         }
         try {
             LOG.trace("Trying {}:{}", this.hostname, this.port);
-            socket = SocketChannel.open();
-            socket.socket().setReuseAddress(enable); // allows immediate reuse
-            socket.socket().setSendBufferSize(4000000);
-            socket.socket().setReceiveBufferSize(4000000);
-            socket.socket().setPerformancePreferences(0, 1, 2); // we need low latency and bandwidth
+            socket = openSocket();
             socket.connect(new InetSocketAddress(hostname, port));
 
             socket.configureBlocking(false); // We want this to be non-blocking.... so false?
+            rxDecoder.reset(); // nothing left over from the last connection
             // socket.socket().setSoTimeout(10);
 
             if (socket.isConnected() && socket.socket().isConnected() && socket.socket().isBound()) {
@@ -322,9 +909,27 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
 
     }
 
+    /**
+     * @return a new unconnected socket with the options we want for talking
+     * to the MOOSDB
+     * @throws IOException
+     */
+    protected SocketChannel openSocket() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.socket().setReuseAddress(enable); // allows immediate reuse
+        channel.socket().setSendBufferSize(4000000);
+        channel.socket().setReceiveBufferSize(4000000);
+        channel.socket().setPerformancePreferences(0, 1, 2); // we need low latency and bandwidth
+        return channel;
+    }
+
     protected boolean closeConnection() {
-        this.inboxList.clear();
-        this.outboxList.clear();
+        this.welcomed = false;
+        this.inbox.clear();
+        this.outbox.clear();
+        synchronized (this) { // only ever drained under the lock
+            doubleRing.clear();
+        }
         if (socket != null && socket.isConnected()) {
             LOG.trace("Socket is still open, closing.....");
             try {
@@ -354,8 +959,7 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
                 //SetMOOSSkew(0);
             } // put in MOOSMsg Little Endian bytebuffer so that it is correct ordering.
 
-            HANDSHAKE_BUFFER.rewind();
-            this.socket.write(HANDSHAKE_BUFFER);
+            this.socket.write(HANDSHAKE_BUFFER.duplicate()); // leaves it at the start for the next client, or a group's
             // Send a blank message
             MOOSMsg msg = new MOOSMsg(MessageType.Data, "", name);
             sendMsg(socket, msg);
@@ -368,35 +972,9 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
                 }
 
                 this.readNewMessages();
-                for (MOOSMsg welcomeMsg : inboxList) {
-                    if (welcomeMsg != null) {
-                        if (welcomeMsg.isType(MessageType.Welcome)) {
-                            LOG.trace(" Success! {}", welcomeMsg.getStringData());
-                            LOG.info("Welcome Message: {}", welcomeMsg);
-                            double skew = welcomeMsg.getDoubleData();
-                            
-                            double time = Utils.currentTime();
-                            
-                            if(Math.abs(welcomeMsg.getTime() - time) > 10000) {
-                                double warpDetected = Math.round((welcomeMsg.getTime() / time) * 100.0) / 100.0;
-                                LOG.info("Wraping detected: {}", warpDetected );
-                                
-                                Utils.setMoosTimeWarp(warpDetected);
-                            }
-                            
-                            if (this.doLocalTimeCorrection) {
-                                // SetMOOSSkew(skew);
-                            }
-                            inboxList.remove(welcomeMsg);
-                            return true;
-                        } else if (welcomeMsg.isType(MessageType.Poision)) {
-                            // filthy MOOS
-                            LOG.warn("MOOSDB Poisoned us, handshake() fail, why oh why?! : {}", welcomeMsg.getStringData());
-                            return false;
-                        } else {
-                            LOG.warn("MOOSDB Handshake - Not welcome message?! : {} ... continuing to wait for welcome...", welcomeMsg.getStringData());
-                        }
-                    }
+                MessageType reply = checkForWelcome();
+                if (reply != null) {
+                    return reply == MessageType.Welcome;
                 }
             }
             LOG.error("MOOSDB Handshake Failed - no data?! : This probably means you are using an OLD MOOSDB! which doesn't accept the protocol string: {}", PROTOCOL_STRING);
@@ -409,6 +987,194 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
         }
     }
 
+    /**
+     * Look through the inbox for the MOOSDB's reply to our handshake.
+     *
+     * @return MessageType.Welcome if we were welcomed, MessageType.Poision if
+     * the MOOSDB turned us away or null if there is no reply yet
+     */
+    protected synchronized MessageType checkForWelcome() {
+        for (MOOSMsg welcomeMsg : inbox.peek()) {
+            if (welcomeMsg != null) {
+                if (welcomeMsg.isType(MessageType.Welcome)) {
+                    LOG.trace(" Success! {}", welcomeMsg.getStringData());
+                    LOG.info("Welcome Message: {}", welcomeMsg);
+                    double skew = welcomeMsg.getDoubleData();
+
+                    double time = Utils.currentTime();
+
+                    if(Math.abs(welcomeMsg.getTime() - time) > 10000) {
+                        double warpDetected = Math.round((welcomeMsg.getTime() / time) * 100.0) / 100.0;
+                        LOG.info("Wraping detected: {}", warpDetected );
+
+                        Utils.setMoosTimeWarp(warpDetected);
+                    }
+
+                    if (this.doLocalTimeCorrection) {
+                        // SetMOOSSkew(skew);
+                    }
+                    inbox.remove(welcomeMsg);
+                    welcomed = true;
+                    stats.connected();
+                    return MessageType.Welcome;
+                } else if (welcomeMsg.isType(MessageType.Poision)) {
+                    // filthy MOOS
+                    LOG.warn("MOOSDB Poisoned us, handshake() fail, why oh why?! : {}", welcomeMsg.getStringData());
+                    return MessageType.Poision;
+                } else {
+                    LOG.warn("MOOSDB Handshake - Not welcome message?! : {} ... continuing to wait for welcome...", welcomeMsg.getStringData());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called on the group's thread, when this client is part of a
+     * MOOSCommClientGroup, to connect, handshake and send the outbox. This
+     * mirrors run() but never blocks: connecting and waiting for the welcome
+     * message are driven by the group's Selector.
+     *
+     * @param selector the group's Selector
+     * @param timeNow current system time in milliseconds
+     * @return when the group next needs to call this method
+     */
+    long groupIterate(Selector selector, long timeNow) {
+        try {
+            if (groupState == ConnectionState.Connected && flushRequested.get()) {
+                waitForMoreMessages();
+                sendOutbox(timeNow);
+            }
+            if (groupState == ConnectionState.Connected && dispatchRequested.get()) {
+                dispatchNewMessages();
+            }
+            if (groupState == ConnectionState.Connected) {
+                resumeReading();
+            }
+            if (timeNow < groupDeadline) {
+                return groupDeadline;
+            }
+            switch (groupState) {
+                case Disconnected:
+                    if (manualConnect) { // tryToConnect() already did the handshake
+                        manualConnect = false;
+                        selectionKey = socket.register(selector, SelectionKey.OP_READ, this);
+                        groupWelcomed(timeNow);
+                    } else {
+                        LOG.trace("Trying {}:{}", this.hostname, this.port);
+                        socket = openSocket();
+                        socket.configureBlocking(false);
+                        selectionKey = socket.register(selector, SelectionKey.OP_CONNECT, this);
+                        groupState = ConnectionState.Connecting;
+                        groupDeadline = timeNow + HANDSHAKE_TIMEOUT;
+                        if (socket.connect(new InetSocketAddress(hostname, port))) {
+                            groupStartHandshake(timeNow);
+                        }
+                    }
+                    break;
+                case Connecting:
+                case Handshaking:
+                    throw new IOException("Timed out connecting to " + hostname + ":" + port);
+                case Connected:
+                    sendOutbox(timeNow);
+                    groupDeadline = timeNow + (long) Math.floor(1000.0 / fundamentalFrequency);
+                    break;
+            }
+        } catch (IOException ex) {
+            LOG.debug("Unable to connect to {}:{}", hostname, port, ex);
+            groupConnectionLost(timeNow);
+        } catch (RuntimeException ex) { // e.g. from a handler, which mustn't stop the rest of the group
+            LOG.warn("{} failed on the group's thread, reconnecting", name, ex);
+            groupConnectionLost(timeNow);
+        }
+        return groupDeadline;
+    }
+
+    /**
+     * Called on the group's thread when the Selector has something for this
+     * client. Anything that goes wrong, including a handler throwing, only
+     * costs this client its connection.
+     *
+     * @param key this client's key
+     * @param timeNow current system time in milliseconds
+     */
+    void groupHandle(SelectionKey key, long timeNow) {
+        long started = System.nanoTime();
+        try {
+            if (key.isConnectable() && socket.finishConnect()) {
+                groupStartHandshake(timeNow);
+            }
+            if (key.isValid() && key.isWritable()) {
+                writePendingTx();
+            }
+            if (key.isValid() && key.isReadable()) {
+                readNewMessages();
+                if (groupState == ConnectionState.Connected) {
+                    dispatchNewMessages();
+                    stats.iterated(System.nanoTime() - started);
+                } else {
+                    MessageType reply = checkForWelcome();
+                    if (reply == MessageType.Welcome) {
+                        groupWelcomed(timeNow);
+                    } else if (reply != null) {
+                        throw new IOException("MOOSDB refused the handshake");
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            if (enable) {
+                LOG.info("MOOSDB disconnected us :-( {}", ex.getMessage());
+            }
+            groupConnectionLost(timeNow);
+        } catch (RuntimeException ex) {
+            LOG.warn("{} failed on the group's thread, reconnecting", name, ex);
+            groupConnectionLost(timeNow);
+        }
+    }
+
+    /**
+     * Called on the group's thread once this client has been disabled or
+     * removed from the group.
+     */
+    void groupDetach() {
+        disconnectFromServer();
+        resetTransport();
+        groupState = ConnectionState.Disconnected;
+        groupDeadline = 0;
+    }
+
+    private void groupStartHandshake(long timeNow) throws IOException {
+        LOG.trace("  Handshaking as {} ", name);
+        MOOSCommPkt pkt = new MOOSCommPkt();
+        ArrayList<MOOSMsg> msgList = new ArrayList<>();
+        msgList.add(new MOOSMsg(MessageType.Data, "", name));
+        pkt.serialize(msgList, true);
+        ByteBuffer hello = Utils.allocate(HANDSHAKE_BUFFER_SIZE + pkt.getBytes().remaining());
+        hello.put(HANDSHAKE_BUFFER.duplicate()).put(pkt.getBytes()).flip();
+
+        groupState = ConnectionState.Handshaking;
+        groupDeadline = timeNow + HANDSHAKE_TIMEOUT;
+        pendingTx = new ByteBuffer[]{hello};
+        writePendingTx();
+    }
+
+    private void groupWelcomed(long timeNow) {
+        groupState = ConnectionState.Connected;
+        groupDeadline = timeNow;
+        sendRegistrationPackets();
+        dispatchNewMessages(); // anything that came in with the welcome
+    }
+
+    private void groupConnectionLost(long timeNow) {
+        closeConnection();
+        resetTransport();
+        groupState = ConnectionState.Disconnected;
+        groupDeadline = timeNow + 200; // same pause as run() before trying again
+        if (!isAutoReconnect()) {
+            enable = false; // the group will drop us
+        }
+    }
+
     // Functions from C++ port
     /**
      * check to see if we are registered to receive a variable
@@ -426,9 +1192,7 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
      * @return whether this post was successful or not.
      */
     public boolean notify(MOOSMsg msg) {
-        if (!this.publishingList.contains(msg.getKey())) {
-            this.publishingList.add(msg.getKey());
-        }
+        addPublishing(msg.getKey());
         return post(msg);
     }
 
@@ -441,9 +1205,7 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
      * @return
      */
     public boolean notify(String var, double dfVal, double dfTime) {
-        if (!this.publishingList.contains(var)) {
-            this.publishingList.add(var);
-        }
+        addPublishing(var);
         return post(new MOOSMsg(MessageType.Notify, var, dfVal, dfTime));
 
     }
@@ -462,9 +1224,7 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
         MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, dfVal, dfTime);
         msg.setSourceAuxInfo(srcAux);
 
-        if (!this.publishingList.contains(var)) {
-            this.publishingList.add(var);
-        }
+        addPublishing(var);
 
         return post(msg);
     }
@@ -478,72 +1238,281 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
      * @return
      */
     public boolean notify(String var, String sVal, double dfTime) {
-        if (!this.publishingList.contains(var)) {
-            this.publishingList.add(var);
-        }
+        addPublishing(var);
         return post(new MOOSMsg(MessageType.Notify, var, sVal, dfTime));
 
     }
 
     /**
-     * notify the MOOS community that something has changed (String)
-     *
-     * @param var The variable you are sending
-     * @param sVal the value
-     * @param srcAux extra source info
-     * @param dfTime the timestamp for the data
-     * @return
+     * notify the MOOS community that something has changed (String)
+     *
+     * @param var The variable you are sending
+     * @param sVal the value
+     * @param srcAux extra source info
+     * @param dfTime the timestamp for the data
+     * @return
+     */
+    public boolean notify(String var, String sVal, String srcAux, double dfTime) {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, sVal, dfTime);
+        msg.setSourceAuxInfo(srcAux);
+
+        addPublishing(var);
+
+        return post(msg);
+    }
+
+    /**
+     * notify the MOOS community that something has changed (Binary)
+     *
+     * @param var The variable you are sending
+     * @param binary the value
+     * @param dfTime the timestamp for the data
+     * @return
+     */
+    public boolean notify(String var, byte[] binary, double dfTime) {
+        addPublishing(var);
+        return post(new MOOSMsg(MessageType.Notify, var, binary, dfTime));
+
+    }
+
+    /**
+     * notify the MOOS community that something has changed (Binary)
+     *
+     * @param var The variable you are sending
+     * @param binary the value
+     * @param srcAux
+     * @param dfTime the timestamp for the data
+     * @return
+     */
+    public boolean notify(String var, byte[] binary, String srcAux, double dfTime) {
+        addPublishing(var);
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, binary, dfTime);
+        msg.setSourceAuxInfo(srcAux);
+
+        return post(msg);
+    }
+
+    /**
+     * Add var to the publishing list if it isn't there already.
+     */
+    void addPublishing(String var) {
+        if (published.add(var)) {
+            synchronized (publishingList) {
+                publishingList.add(var);
+            }
+        }
+    }
+
+    /**
+     * A handle for publishing one variable over and over, which saves
+     * looking up and encoding its name every time. The same handle is
+     * returned each time for the same variable.
+     *
+     * @param var the variable to publish
+     * @return the variable's publisher
+     */
+    public MOOSPublisher publisher(String var) {
+        MOOSPublisher publisher = publishers.get(var);
+        if (publisher == null) {
+            addPublishing(var);
+            publisher = new MOOSPublisher(this, var);
+            MOOSPublisher existing = publishers.putIfAbsent(var, publisher);
+            if (existing != null) {
+                publisher = existing;
+            }
+        }
+        return publisher;
+    }
+
+    /**
+     * @return this client's counters and gauges
+     */
+    public MOOSClientStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Show this client's stats over JMX, on the platform MBean server, as
+     * MOOS:type=MOOSCommClient,name=&lt;client name&gt;.
+     *
+     * @return the name it was registered under, or null if it couldn't be
+     */
+    public ObjectName registerMBean() {
+        try {
+            ObjectName objectName = mbeanName();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(stats, objectName);
+            }
+            return objectName;
+        } catch (JMException ex) {
+            LOG.warn("Couldn't register the MBean for {}", name, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Stop showing this client's stats over JMX.
+     */
+    public void unregisterMBean() {
+        try {
+            ObjectName objectName = mbeanName();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException ex) {
+            LOG.warn("Couldn't unregister the MBean for {}", name, ex);
+        }
+    }
+
+    private ObjectName mbeanName() throws MalformedObjectNameException {
+        return new ObjectName("MOOS:type=MOOSCommClient,name=" + ObjectName.quote(String.valueOf(name)));
+    }
+
+    /**
+     * @return the ids of variables for the primitive double path
+     */
+    public MOOSVariableTable getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the outbox for publishDouble(), e.g. to see how many doubles
+     * have been dropped
+     */
+    public MOOSDoubleRing getDoubleRing() {
+        return doubleRing;
+    }
+
+    /**
+     * Look up the id to publish a variable with publishDouble(). This is
+     * meant to be done once up front, not for every value.
+     *
+     * @param var the variable to publish
+     * @return its id
+     */
+    public int publishingId(String var) {
+        addPublishing(var);
+        return variables.idOf(var);
+    }
+
+    /**
+     * Publish a double without creating anything. It goes into a ring of
+     * primitives that the I/O thread encodes straight into the next packet,
+     * after whatever has been posted through the outbox, so it isn't ordered
+     * with respect to post() and isn't conflated.
+     *
+     * @param varId the id from publishingId()
+     * @param value the value
+     * @param time the time, or -1 for now
+     * @return false if not connected, or if the ring was full and the value
+     * was dropped
+     */
+    public boolean publishDouble(int varId, double value, double time) {
+        if (socket == null || !this.socket.isConnected()) {
+            return false;
+        }
+        double stamped = time == -1 ? Utils.currentTime() : time;
+        if (!doubleRing.offer(varId, value, stamped)) {
+            return false;
+        }
+        if (lowLatency) {
+            requestFlush();
+        }
+        MOOSLocalBus bus = localBus;
+        if (bus != null && bus.hasSubscribers(variables.nameOf(varId))) {
+            MOOSMsg msg = new MOOSMsg(MessageType.Notify, variables.nameOf(varId), value, stamped);
+            msg.setSource(name);
+            bus.publish(msg);
+        }
+        return true;
+    }
+
+    private void encodeDouble(int varId, double value, double time) {
+        int msgID = nextMsgID.getAndIncrement();
+        if (ringGathering) {
+            ringPkt.gatherDouble(variables.bytesOf(varId), nameBytes(), msgID, value, time);
+            if (!sharedRingOnly.isEmpty() && sharedRingOnly.contains(variables.nameOf(varId))) {
+                return;
+            }
+        }
+        pktTx.gatherDouble(variables.bytesOf(varId), nameBytes(), msgID, value, time);
+    }
+
+    /**
+     * Write what sendTxList() put in ringPkt into the shared ring, if
+     * anything. A packet too big for the ring still goes to the MOOSDB,
+     * unless it was only for the ring, and clients on the ring in other JVMs
+     * take the MOOSDB's copy as it never came through the ring.
      */
-    public boolean notify(String var, String sVal, String srcAux, double dfTime) {
-        MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, sVal, dfTime);
-        msg.setSourceAuxInfo(srcAux);
-
-        if (!this.publishingList.contains(var)) {
-            this.publishingList.add(var);
+    private void writeRing(MOOSSharedRing ring) {
+        if (ringPkt.getMsgCount() == 0) {
+            ringPkt.recycle();
+            return;
+        }
+        try {
+            if (!ring.write(ringPkt.gatherEnd())) {
+                LOG.warn("{} byte packet is too big for {}", ringPkt.getPacketLengthInBytes(), ring);
+            }
+        } catch (IOException ex) {
+            LOG.warn("Couldn't write to {}", ring, ex);
+        } finally {
+            ringPkt.recycle();
         }
-
-        return post(msg);
     }
 
     /**
-     * notify the MOOS community that something has changed (Binary)
+     * Register for a variable and have its Double notifications passed to
+     * the double handler as primitives instead of going to the inbox. Its
+     * String and Binary notifications still go to the inbox.
      *
-     * @param var The variable you are sending
-     * @param binary the value
-     * @param dfTime the timestamp for the data
-     * @return
+     * @param var the variable
+     * @param interval minimum time between notifications, 0 for every one
+     * @return the variable's id, as passed to MoosDoubleHandler.onDouble()
      */
-    public boolean notify(String var, byte[] binary, double dfTime) {
-        if (!this.publishingList.contains(var)) {
-            this.publishingList.add(var);
-        }
-        return post(new MOOSMsg(MessageType.Notify, var, binary, dfTime));
+    public int registerDouble(String var, double interval) {
+        int id = variables.idOf(var);
+        variables.setDouble(id);
+        register(var, interval);
+        return id;
+    }
+
+    /**
+     * @param doubleHandler gets the Double notifications of variables
+     * registered with registerDouble(), on the I/O thread. While it is null
+     * they go to the inbox like any other message.
+     */
+    public void setDoubleHandler(MoosDoubleHandler doubleHandler) {
+        this.doubleHandler = doubleHandler;
+    }
 
+    public MoosDoubleHandler getDoubleHandler() {
+        return doubleHandler;
     }
 
     /**
-     * notify the MOOS community that something has changed (Binary)
-     *
-     * @param var The variable you are sending
-     * @param binary the value
-     * @param srcAux
-     * @param dfTime the timestamp for the data
-     * @return
+     * @return the encoded name of this client, only encoding it again when
+     * the name changes
      */
-    public boolean notify(String var, byte[] binary, String srcAux, double dfTime) {
-        if (!this.publishingList.contains(var)) {
-            this.publishingList.add(var);
+    private byte[] nameBytes() {
+        String current = name;
+        if (current != encodedName) {
+            nameBytes = current == null ? new byte[0] : current.getBytes(MOOSMsg.CHARSET);
+            encodedName = current;
         }
-        MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, binary, dfTime);
-        msg.setSourceAuxInfo(srcAux);
-
-        return post(msg);
+        return nameBytes;
     }
 
     protected void sendRegistrationPackets() {
         for (String var : this.subscribingList.keySet()) {
             register(var, this.subscribingList.get(var));
         }
+        for (Map.Entry<String, Double> wildcard : wildcardList.entrySet()) {
+            String patterns = wildcard.getKey();
+            int comma = patterns.indexOf(',');
+            postWildcard(patterns.substring(0, comma), patterns.substring(comma + 1), wildcard.getValue());
+        }
     }
 
     public boolean register(String var, double interval) {
@@ -556,6 +1525,10 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
 
             // subscribingList.add(var);
         }
+        MOOSLocalBus bus = localBus;
+        if (bus != null) {
+            bus.register(this, var, interval);
+        }
         return bSuccess;
     }
 
@@ -578,6 +1551,19 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
         }
         
         
+        wildcardList.put(varPattern + "," + appPattern, interval);
+        MOOSLocalBus bus = localBus;
+        if (bus != null) {
+            bus.registerWildcard(this, varPattern, appPattern, interval);
+        }
+        return postWildcard(varPattern, appPattern, interval);
+    }
+
+    /**
+     * Send a wildcard registration to the MOOSDB, which forgets it when the
+     * connection goes, so sendRegistrationPackets() sends it again.
+     */
+    private boolean postWildcard(String varPattern, String appPattern, double interval) {
         String msg = "AppPattern=" + appPattern + ",VarPattern=" + varPattern + ",Interval=" + interval;
         MOOSMsg MsgR = new MOOSMsg(MessageType.WildcardRegister, name, msg);
         LOG.debug("Wildcard: {}", MsgR );
@@ -592,6 +1578,10 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
             MOOSMsg MsgUR = new MOOSMsg(MessageType.Unregister, var, 0.0, 0.0);
             if (post(MsgUR)) {
                 subscribingList.remove(var);
+                MOOSLocalBus bus = localBus;
+                if (bus != null) {
+                    bus.unregister(this, var);
+                }
                 return true;
             } else {
                 return false;
@@ -602,12 +1592,17 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
     }
     
     public boolean unregister(String varPattern, String appPattern) {
+        boolean registered = wildcardList.remove(varPattern + "," + appPattern) != null;
+        MOOSLocalBus bus = localBus;
+        if (bus != null) {
+            bus.unregisterWildcard(this, varPattern, appPattern);
+        }
         if(!isConnected()) {
             return false;
         }
         
-        if(this.subscribingList.isEmpty()) {
-            return true;
+        if(!registered) {
+            return true; // nothing to tell the MOOSDB
         }
         
         String msg = "AppPattern=" + appPattern + ",VarPattern=" + varPattern + ",Interval=0.0";
@@ -615,35 +1610,104 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
     }
     
     
-    public synchronized boolean post(MOOSMsg msg) { // we don't need to lock in Java if all the methods which deal with the inbox/outbox are synchronized
+    /**
+     * Queue a message to be sent. This doesn't take any locks, so it can be
+     * called from any number of threads at once.
+     *
+     * @param msg the message
+     * @return false if not connected, or if the outbox was full and its
+     * overflow policy dropped the message
+     */
+    public boolean post(MOOSMsg msg) {
+        return post(msg, lowLatency);
+    }
+
+    /**
+     * @param flush whether to wake the I/O loop to send it straight away
+     */
+    private boolean post(MOOSMsg msg, boolean flush) {
         if (socket == null || !this.socket.isConnected()) {
             return false;
         }
 
-        //stuff our name in here  - prevent client from having to worry about
-        //it...
-        if (useNameAsSrc) {
-            msg.setSource(name);
-        } else if (!msg.isType(MessageType.Notify)) {
-            msg.setSource(name);
-        }
-
         if (msg.isType(MessageType.ServerRequest)) {
             msg.setMsgID(MOOS_SERVER_REQUEST_ID);
         } else {
             //set up Message ID;
-            msg.setMsgID(nextMsgID++);
+            msg.setMsgID(nextMsgID.getAndIncrement());
         }
+        setSource(msg);
 
-        outboxList.push(msg);
+        if (!outbox.offer(msg)) {
+            return false;
+        }
+        if (flush) {
+            requestFlush();
+        }
+        publishLocal(msg);
+        return true;
+    }
 
-        if (outboxList.size() > MAX_OUTBOX_MESSAGES) {
-            outboxList.remove(outboxList.lastElement());
+    /**
+     * stuff our name in here  - prevent client from having to worry about it...
+     */
+    private void setSource(MOOSMsg msg) {
+        if (useNameAsSrc || !msg.isType(MessageType.Notify)) {
+            msg.setSource(name);
+            msg.sourceBytes = nameBytes();
         }
+    }
 
+    /**
+     * Queue messages to be sent together in one packet. They get consecutive
+     * message IDs and nothing posted from another thread at the same time
+     * ends up in between them. Batches are never conflated.
+     *
+     * @param messages the messages, in the order to send them
+     * @return false if not connected, or if the outbox didn't have room for
+     * all of them, in which case none are sent
+     */
+    public boolean postAll(Collection<MOOSMsg> messages) {
+        if (socket == null || !this.socket.isConnected()) {
+            return false;
+        }
+        int ids = 0;
+        for (MOOSMsg msg : messages) {
+            if (!msg.isType(MessageType.ServerRequest)) {
+                ids++;
+            }
+        }
+        int nextID = nextMsgID.getAndAdd(ids);
+        for (MOOSMsg msg : messages) {
+            if (msg.isType(MessageType.ServerRequest)) {
+                msg.setMsgID(MOOS_SERVER_REQUEST_ID);
+            } else {
+                msg.setMsgID(nextID++);
+            }
+            setSource(msg);
+        }
+        if (!outbox.offerAll(messages)) {
+            return false;
+        }
+        if (lowLatency) {
+            requestFlush();
+        }
+        if (localBus != null) {
+            for (MOOSMsg msg : messages) {
+                publishLocal(msg);
+            }
+        }
         return true;
     }
 
+    /**
+     * @return a builder for a batch of notifications sent together in one
+     * packet, see postAll()
+     */
+    public MOOSBatch batch() {
+        return new MOOSBatch(this);
+    }
+
     /**
      * This fails silently. Must satisfy: 0 &lt; frequency &le; 100
      *
@@ -686,7 +1750,12 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
      * @param enable the enable to set
      */
     public void setEnable(boolean enable) {
-        if (!this.enable && enable) {
+        if (!this.enable && enable && clientGroup != null) {
+            // switch on, the group's thread does the work
+            this.enable = enable;
+            this.startTime = Utils.currentTime();
+            clientGroup.attach(this);
+        } else if (!this.enable && enable) {
             // switch on
             if (theThread != null && theThread.isAlive()) {
                 theThread.stop(); // This is the most retarded peace of code ever, should never get called, also its dirty. Sanity check...
@@ -699,6 +1768,9 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
         } else if (this.enable && !enable) {
             // switch off
             this.enable = enable;
+            if (clientGroup != null) {
+                clientGroup.wakeup();
+            }
         }
         //all other cases can be ignored - idempotent
 
@@ -749,7 +1821,78 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
     }
 
     /**
-     * @param messageHandler Current MoosMessageHandler. This may be null.
+     * @return the dispatcher that routes each message to the handlers added
+     * for its variable, a pattern or its source. Messages no handler takes
+     * go to the message handler.
+     */
+    public MOOSDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Send messages as soon as they are posted instead of at the next
+     * iteration, for commands that mustn't wait up to 1/fundamentalFrequency
+     * for the I/O loop to come round. post() wakes the loop, which waits the
+     * low latency window for anything else being posted at the same time
+     * and then sends the lot as one packet. Off by default.
+     *
+     * @param lowLatency whether to send straight away
+     */
+    public void setLowLatency(boolean lowLatency) {
+        this.lowLatency = lowLatency;
+    }
+
+    public boolean isLowLatency() {
+        return lowLatency;
+    }
+
+    /**
+     * @param microseconds how long low latency mode waits for more messages
+     * after the first before sending them, 0 to send each one as soon as the
+     * loop wakes up. The default is 200.
+     */
+    public void setLowLatencyWindow(long microseconds) {
+        this.lowLatencyWindowNanos = Math.max(0, microseconds) * 1000;
+    }
+
+    /**
+     * @return the low latency micro batching window in microseconds
+     */
+    public long getLowLatencyWindow() {
+        return lowLatencyWindowNanos / 1000;
+    }
+
+    /**
+     * Run message handlers, both the dispatcher's and the MoosMessageHandler,
+     * on an Executor so that slow handlers don't hold up the I/O thread. See
+     * MOOSDispatcher.setExecutor(). The cursor handler is always called on
+     * the I/O thread, since the packet it reads is reused straight after.
+     *
+     * @param executor where to run handlers, or null to run them on the I/O
+     * thread as before
+     * @param serialPerVariable whether to keep the messages for each
+     * variable, and the batches passed to the MoosMessageHandler, in order
+     */
+    public void setHandlerExecutor(Executor executor, boolean serialPerVariable) {
+        dispatcher.setExecutor(executor, serialPerVariable);
+    }
+
+    /**
+     * Register for a variable and pass its messages to handler.
+     *
+     * @param var the variable
+     * @param interval minimum time between notifications, 0 for every one
+     * @param handler called with every Notify for var
+     * @return whether the registration was posted
+     */
+    public boolean register(String var, double interval, MoosVariableHandler handler) {
+        dispatcher.addHandler(var, handler);
+        return register(var, interval);
+    }
+
+    /**
+     * @param messageHandler Current MoosMessageHandler. This may be null. It
+     * is passed every message that no handler added to the dispatcher takes.
      */
     public void setMessageHandler(MoosMessageHandler messageHandler) {
         this.messageHandler = messageHandler;
@@ -762,6 +1905,25 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
         return this.messageHandler;
     }
 
+    /**
+     * Walk each received packet with a {@link MOOSMsgCursor} instead of
+     * decoding it into MOOSMsgs. While a cursor handler is set received
+     * messages go to it, on the I/O thread, and not to the inbox or the
+     * MoosMessageHandler.
+     *
+     * @param cursorHandler the handler, or null to go back to using the inbox
+     */
+    public void setCursorHandler(MoosCursorHandler cursorHandler) {
+        this.cursorHandler = cursorHandler;
+    }
+
+    /**
+     * @return Current MoosCursorHandler. This may be null.
+     */
+    public MoosCursorHandler getCursorHandler() {
+        return this.cursorHandler;
+    }
+
     /**
      * @return the keepAliveTime
      */
@@ -794,7 +1956,7 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
      * @return the MAX_INBOX_MESSAGES
      */
     public synchronized int getMAX_INBOX_MESSAGES() {
-        return MAX_INBOX_MESSAGES;
+        return inbox.getCapacity();
     }
 
     /**
@@ -802,13 +1964,22 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
      */
     public synchronized void setMAX_INBOX_MESSAGES(int MAX_INBOX_MESSAGES) {
         this.MAX_INBOX_MESSAGES = MAX_INBOX_MESSAGES;
+        inbox.setCapacity(MAX_INBOX_MESSAGES);
+    }
+
+    /**
+     * @return the inbox, e.g. to change its overflow policy or see how many
+     * messages it has dropped
+     */
+    public MOOSInbox getInbox() {
+        return inbox;
     }
 
     /**
      * @return the MAX_OUTBOX_MESSAGES
      */
     public int getMAX_OUTBOX_MESSAGES() {
-        return MAX_OUTBOX_MESSAGES;
+        return outbox.getCapacity();
     }
 
     /**
@@ -816,6 +1987,98 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
      */
     public synchronized void setMAX_OUTBOX_MESSAGES(int MAX_OUTBOX_MESSAGES) {
         this.MAX_OUTBOX_MESSAGES = MAX_OUTBOX_MESSAGES;
+        outbox.setCapacity(MAX_OUTBOX_MESSAGES);
+    }
+
+    /**
+     * Keep the newest Notify received for each variable in a cache that
+     * any thread can read, see getLatestValues(). Off by default. Values
+     * are kept when the connection drops, as the last known ones.
+     *
+     * @param cache whether to keep the cache
+     */
+    public void setCacheLatestValues(boolean cache) {
+        if (!cache) {
+            latestValues = null;
+        } else if (latestValues == null) {
+            latestValues = new MOOSLatestValues();
+        }
+    }
+
+    public boolean isCacheLatestValues() {
+        return latestValues != null;
+    }
+
+    /**
+     * @return the newest value of each variable received, or null unless
+     * setCacheLatestValues(true) has been called
+     */
+    public MOOSLatestValues getLatestValues() {
+        return latestValues;
+    }
+
+    /**
+     * Record how long each Notify received took to get here, from the time
+     * it was stamped with, in a histogram per variable. See
+     * getLatency(). Off by default.
+     *
+     * @param record whether to record latencies
+     */
+    public void setRecordLatency(boolean record) {
+        if (!record) {
+            latency = null;
+        } else if (latency == null) {
+            latency = new MOOSLatencyMonitor();
+        }
+    }
+
+    public boolean isRecordLatency() {
+        return latency != null;
+    }
+
+    /**
+     * @return the latency histograms, or null unless setRecordLatency(true)
+     * has been called
+     */
+    public MOOSLatencyMonitor getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the outbox, e.g. to change its overflow policy or see how many
+     * messages it has dropped
+     */
+    public MOOSOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Only send the newest Notify waiting in the outbox for each variable,
+     * for variables posted faster than the fundamental frequency. Off by
+     * default.
+     *
+     * @param conflate whether to conflate every variable that hasn't been
+     * set with setConflateOutbox(var, ...)
+     */
+    public void setConflateOutbox(boolean conflate) {
+        outbox.setConflating(conflate);
+    }
+
+    /**
+     * @param var the variable
+     * @param conflate whether to conflate var in the outbox, whatever
+     * setConflateOutbox(boolean) says. null goes back to that setting.
+     */
+    public void setConflateOutbox(String var, Boolean conflate) {
+        outbox.setConflating(var, conflate);
+    }
+
+    /**
+     * @return whether variables are conflated in the outbox unless set
+     * otherwise
+     */
+    public boolean isConflateOutbox() {
+        return outbox.isConflating();
     }
 
     /**
@@ -832,7 +2095,198 @@ public class MOOSCommClient extends MOOSCommObject implements Runnable {
         this.autoReconnect = autoReconnect;
     }
 
+    /**
+     * @return whether the Selector based I/O loop is used
+     */
+    public boolean isUseSelector() {
+        return useSelector;
+    }
+
+    /**
+     * Use a java.nio Selector to drive the connection instead of sleeping for
+     * 1 / fundamental frequency between iterations. Incoming messages are
+     * then handled as soon as they arrive; outgoing messages are still sent
+     * at the fundamental frequency. Takes effect the next time the client
+     * connects.
+     *
+     * @param useSelector true to use the Selector based loop
+     */
+    public void setUseSelector(boolean useSelector) {
+        this.useSelector = useSelector;
+    }
+
+    /**
+     * @return the pool packet buffers are taken from
+     */
+    public MOOSBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Take packet buffers from the given pool, i.e. one shared between
+     * several clients or one that hands out direct buffers. This must be
+     * called while the client is disabled.
+     *
+     * @param bufferPool the pool to use
+     */
+    public synchronized void setBufferPool(MOOSBufferPool bufferPool) {
+        if (this.enable) {
+            throw new IllegalStateException("Can't change the buffer pool of an enabled client");
+        }
+        this.bufferPool = bufferPool;
+        this.rxDecoder.release();
+        this.rxDecoder = new MOOSPktDecoder(bufferPool);
+        this.pktRx = new MOOSCommPkt(bufferPool);
+        int compressionThreshold = pktTx.getCompressionThreshold();
+        this.pktTx = new MOOSCommPkt(bufferPool);
+        this.pktTx.setCompressionThreshold(compressionThreshold);
+    }
+
+    /**
+     * @return the smallest outgoing packet that is compressed, -1 if none are
+     */
+    public synchronized int getCompressionThreshold() {
+        return pktTx.getCompressionThreshold();
+    }
+
+    /**
+     * Compress outgoing packets that are at least this many bytes long, i.e.
+     * to save bandwidth on slow links. Compressed packets from the MOOSDB are
+     * always understood, whatever this is set to.
+     *
+     * @param compressionThreshold size in bytes, or -1 to never compress
+     */
+    public synchronized void setCompressionThreshold(int compressionThreshold) {
+        pktTx.setCompressionThreshold(compressionThreshold);
+    }
+
+    /**
+     * @return the group driving this client, or null if it has its own thread
+     */
+    public MOOSCommClientGroup getClientGroup() {
+        return clientGroup;
+    }
+
+    /**
+     * Share a single I/O thread and Selector with the other clients in the
+     * group rather than starting a thread for this client in setEnable(true).
+     * This must be called while the client is disabled.
+     *
+     * @param clientGroup the group to join, or null to go back to using a
+     * thread of its own
+     */
+    public void setClientGroup(MOOSCommClientGroup clientGroup) {
+        if (this.enable) {
+            throw new IllegalStateException("Can't change the client group of an enabled client");
+        }
+        this.clientGroup = clientGroup;
+    }
+
+    /**
+     * @return the local bus this client is on, or null
+     */
+    public MOOSLocalBus getLocalBus() {
+        return localBus;
+    }
+
+    /**
+     * Share notifications by reference with the other clients on a local
+     * bus, in the same JVM, rather than only through the MOOSDB. See
+     * MOOSLocalBus. Whatever this client has already registered for,
+     * wildcards included, is registered on the bus too.
+     *
+     * @param localBus the bus to join, or null to leave the one it is on
+     * @throws IllegalArgumentException if a client with the same name is
+     * already on the bus
+     * @throws IllegalStateException if the client is on a shared ring, which
+     * has a bus of its own
+     */
+    public void setLocalBus(MOOSLocalBus localBus) {
+        MOOSSharedRing ring = sharedRing;
+        if (ring != null && localBus != ring.getBus()) {
+            throw new IllegalStateException("Leave the shared ring before changing the local bus");
+        }
+        MOOSLocalBus current = this.localBus;
+        if (current == localBus) {
+            return;
+        }
+        if (current != null) {
+            this.localBus = null;
+            current.leave(this);
+        }
+        if (localBus != null) {
+            localBus.join(this);
+            this.localBus = localBus;
+            for (Map.Entry<String, Double> registration : new TreeMap<>(subscribingList).entrySet()) {
+                localBus.register(this, registration.getKey(), registration.getValue());
+            }
+            for (Map.Entry<String, Double> wildcard : wildcardList.entrySet()) {
+                String patterns = wildcard.getKey();
+                int comma = patterns.indexOf(',');
+                localBus.registerWildcard(this, patterns.substring(0, comma), patterns.substring(comma + 1), wildcard.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the shared ring this client is on, or null
+     */
+    public MOOSSharedRing getSharedRing() {
+        return sharedRing;
+    }
+
+    /**
+     * Also pass notifications through a memory mapped ring to and from the
+     * clients in other JVMs on this host that are on it, see MOOSSharedRing.
+     * This puts the client on the ring's local bus as well, for clients in
+     * this JVM.
+     *
+     * @param sharedRing the ring to join, or null to leave the one it is on
+     * @throws IOException if the client's name can't be put in the ring
+     */
+    public void setSharedRing(MOOSSharedRing sharedRing) throws IOException {
+        MOOSSharedRing current = this.sharedRing;
+        if (current == sharedRing) {
+            return;
+        }
+        if (current != null) {
+            this.sharedRing = null;
+            setLocalBus(null);
+            current.detach(name);
+        }
+        if (sharedRing != null) {
+            sharedRing.attach(name);
+            setLocalBus(null);
+            this.sharedRing = sharedRing;
+            setLocalBus(sharedRing.getBus());
+        }
+    }
+
+    /**
+     * Send a variable only through the shared ring, not to the MOOSDB, e.g.
+     * for high rate sensor data that nothing outside this host needs. Only
+     * clients on the ring see it.
+     *
+     * @param var the variable
+     * @param only true for only through the ring, false to send it to the
+     * MOOSDB as well, as by default
+     */
+    public void setSharedRingOnly(String var, boolean only) {
+        if (only) {
+            sharedRingOnly.add(var);
+        } else {
+            sharedRingOnly.remove(var);
+        }
+    }
+
+    /**
+     * @return whether var is only sent through the shared ring
+     */
+    public boolean isSharedRingOnly(String var) {
+        return sharedRingOnly.contains(var);
+    }
+
     public boolean outboxIsEmpty() {
-        return (this.outboxList.empty());
+        return (this.outbox.isEmpty());
     }
 }
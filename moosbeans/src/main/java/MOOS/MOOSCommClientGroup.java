@@ -0,0 +1,158 @@
+package MOOS;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives any number of MOOSCommClients from a single thread and Selector.
+ * Normally every client starts its own thread in setEnable(true), which
+ * wakes at the fundamental frequency whether or not there is anything to do.
+ * A client that has been given a group with
+ * {@link MOOSCommClient#setClientGroup(MOOSCommClientGroup)} is instead
+ * connected, handshaken and serviced by the group's thread, so the number of
+ * threads stays the same however many clients there are.
+ *
+ * The thread is started when the first client is enabled and stops once the
+ * last one has been disabled, closing the Selector; enabling a client again
+ * opens another.
+ *
+ * <pre>
+ * MOOSCommClientGroup group = new MOOSCommClientGroup("gateway");
+ * for (String host : vehicles) {
+ *     MOOSCommClient client = new MOOSCommClient("Gateway", host, 9000);
+ *     client.setClientGroup(group);
+ *     client.setEnable(true);
+ * }
+ * </pre>
+ */
+public class MOOSCommClientGroup implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSCommClientGroup.class);
+
+    private final String name;
+    volatile Selector selector; // replaced once closed, see attach()
+    private final ConcurrentLinkedQueue<MOOSCommClient> attaching = new ConcurrentLinkedQueue<>();
+    private final ArrayList<MOOSCommClient> clients = new ArrayList<>(); // only touched by theThread
+    private Thread theThread;
+
+    public MOOSCommClientGroup() throws IOException {
+        this("MOOSCommClientGroup");
+    }
+
+    /**
+     * @param name used to name the group's thread
+     * @throws IOException if the Selector can't be opened
+     */
+    public MOOSCommClientGroup(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Start servicing a client. Called by MOOSCommClient.setEnable(true).
+     *
+     * @param client the client to add
+     */
+    synchronized void attach(MOOSCommClient client) {
+        if (theThread == null && !selector.isOpen()) {
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't open a Selector for " + name, e);
+            }
+        }
+        attaching.add(client);
+        if (theThread == null) {
+            theThread = new Thread(this, name);
+            theThread.start();
+        } else {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Make the group's thread look at its clients straight away, i.e. because
+     * one has been disabled.
+     */
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * @return the name of this group
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void run() {
+        try {
+            serviceClients();
+        } finally {
+            synchronized (this) {
+                if (theThread == Thread.currentThread()) {
+                    theThread = null; // died, the next attach() starts another
+                }
+            }
+        }
+    }
+
+    private void serviceClients() {
+        while (true) {
+            MOOSCommClient client;
+            while ((client = attaching.poll()) != null) {
+                if (!clients.contains(client)) {
+                    clients.add(client);
+                }
+            }
+
+            if (clients.isEmpty()) {
+                synchronized (this) {
+                    if (attaching.isEmpty()) {
+                        theThread = null; // a new one is started by the next attach()
+                        try {
+                            selector.close();
+                        } catch (IOException e) {
+                            LOG.debug("Closing the Selector of {}", name, e);
+                        }
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            long timeNow = System.currentTimeMillis();
+            long nextDeadline = Long.MAX_VALUE;
+            for (Iterator<MOOSCommClient> it = clients.iterator(); it.hasNext();) {
+                client = it.next();
+                if (!client.isEnable()) {
+                    client.groupDetach();
+                    it.remove();
+                } else {
+                    nextDeadline = Math.min(nextDeadline, client.groupIterate(selector, timeNow));
+                }
+            }
+
+            try {
+                if (clients.isEmpty()) {
+                    continue;
+                }
+                selector.select(Math.max(1, nextDeadline - System.currentTimeMillis()));
+                timeNow = System.currentTimeMillis();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ((MOOSCommClient) key.attachment()).groupHandle(key, timeNow);
+                }
+                selector.selectedKeys().clear();
+            } catch (IOException ex) {
+                LOG.error("Selector failed in {}", name, ex);
+            }
+        }
+    }
+}
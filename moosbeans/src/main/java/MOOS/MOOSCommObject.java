@@ -72,6 +72,40 @@ public class MOOSCommObject {
         return (written > 0);
     }
     
+    /**
+     * Write a packet made by MOOSCommPkt.gather() with gathering writes,
+     * blocking until it has all gone.
+     *
+     * @param sock the channel to write to
+     * @param segments the packet
+     * @return whether anything was written
+     */
+    public boolean sendSegments(SocketChannel sock, ByteBuffer[] segments) {
+        ByteBuffer last = segments[segments.length - 1];
+        long written = 0;
+        try {
+            while (written >= 0 && last.hasRemaining()) {
+                written += sock.write(segments);
+            }
+        } catch (IOException ex) {
+
+            try {
+                sock.close();
+            } catch (IOException ex1) {
+            }
+        }
+        return (written > 0);
+    }
+
+    /**
+     * Read a whole packet, sleeping while the rest of one arrives. Nothing
+     * in the client uses this any more, see MOOSPktDecoder.
+     *
+     * @param sock the channel to read from
+     * @param pkt the packet to fill
+     * @return false if there was nothing to read, or the packet was dropped
+     * @throws IOException
+     */
     public boolean readPkt(SocketChannel sock, MOOSCommPkt pkt) throws IOException {
         int required;
         try {
@@ -93,6 +127,7 @@ public class MOOSCommObject {
             }
             
         } catch (NoJavaZipCompressionSupportYetException e2) {
+            LOG.warn("Dropping packet: {}", e2.getMessage());
             return false;
         }
         return true;
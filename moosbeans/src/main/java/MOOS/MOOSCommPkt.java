@@ -33,14 +33,23 @@
  */
 package MOOS;
 
+import MOOS.comms.DataType;
 import MOOS.comms.MessageType;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
- * Currently no Zip compression is supported. It will throw an exception if a
- * compressed packet is tried to decode. This is not a like for like C++ port.
+ * Compressed packets have the same header, with the compressed byte set, and
+ * the messages after the header squashed into a zlib stream, so the packet
+ * length is the number of bytes actually sent. Packets are only compressed
+ * when sending if they are at least the compression threshold in size, and
+ * only if that makes them smaller. This is not a like for like C++ port.
  * This uses java naming conventions. However, the methods for decoding are
  * still serialize() in lower case.
  *
@@ -69,22 +78,78 @@ public class MOOSCommPkt {
 
     public static final int DEFAULT_ASSUMMED_MAX_MOOS_MSG_SIZE = 10000000;
     public static final int PACKET_HEADER_SIZE = 2 * MOOSMsg.INT_SIZE_IN_BYTES + MOOSMsg.BYTE_SIZE_IN_BYTES;
+    /**
+     * Binary payloads at least this big are sent straight from the message's
+     * byte[] by gather() rather than being copied into the packet.
+     */
+    public static final int GATHER_MIN_PAYLOAD = 512;
+    // everything in a serialized message apart from the strings
+    private static final int MSG_FIXED_SIZE = 2 * MOOSMsg.INT_SIZE_IN_BYTES + 2 * MOOSMsg.BYTE_SIZE_IN_BYTES
+            + 5 * MOOSMsg.INT_SIZE_IN_BYTES + 3 * MOOSMsg.DOUBLE_SIZE_IN_BYTES;
     protected int packetLengthInBytes = 0; // 1st 4 bytes contain length of packet in bytes. This is set once header is read.
     protected int msgCount;
     protected boolean isCompressed;
+    protected int compressionThreshold = -1; // compress packets of at least this many bytes, -1 for never
+    protected int maxInflatedSize = DEFAULT_ASSUMMED_MAX_MOOS_MSG_SIZE; // the most a compressed packet may inflate to
+    private Deflater deflater; // created the first time they are needed
+    private Inflater inflater;
     protected ArrayList<MOOSMsg> msgList;
     protected int bytesRequired;// = MOOSMsg.INT_SIZE_IN_BYTES; // 1st 4 bytes contain length of packet in bytes
     // protected int currentSize = 0;
     protected ByteBuffer packetData;
+    protected MOOSBufferPool pool; // where packetData comes from, may be null
+    protected boolean pooledData; // whether packetData belongs to the pool
+    private final ArrayList<byte[]> gatherPayloads = new ArrayList<>(); // payloads sent from their own byte[]
+    private int[] gatherCuts = new int[4]; // where in packetData each of those payloads goes
+    private int gatherPayloadBytes; // how many bytes of the packet are in gatherPayloads
+    private final ByteBuffer[] gatherSingle = new ByteBuffer[1]; // what gatherEnd() returns without payloads
 
     public MOOSCommPkt() {
         resetFill();
     }
 
+    /**
+     * A packet that takes its buffers from a pool. Call recycle() once
+     * finished with the packet's data to give the buffer back.
+     *
+     * @param pool the pool to use
+     */
+    public MOOSCommPkt(MOOSBufferPool pool) {
+        this.pool = pool;
+        resetFill();
+    }
+
     public final void resetFill() {
+        packetLengthInBytes = 0;
+        msgCount = 0;
         bytesRequired = MOOSMsg.INT_SIZE_IN_BYTES; // 1st 4 bytes contain length of packet in bytes
-        packetData = Utils.allocate(bytesRequired); // ready for first data
+        setPacketData(allocate(bytesRequired)); // ready for first data
+        packetData.putInt(0, 0); // a pooled buffer may still hold an old length
+
+    }
 
+    /**
+     * Give the packet's buffer back to the pool, if it came from one, and get
+     * ready to fill() the next packet. Anything taken from getBytes() must not
+     * be used afterwards.
+     */
+    public void recycle() {
+        resetFill();
+    }
+
+    private ByteBuffer allocate(int size) {
+        if (pool == null) {
+            return Utils.allocate(size);
+        }
+        return pool.acquire(size);
+    }
+
+    private void setPacketData(ByteBuffer data) {
+        if (pooledData && packetData != null && packetData != data) {
+            pool.release(packetData);
+        }
+        pooledData = pool != null;
+        packetData = data;
     }
 
     protected void fillWholePacket() throws NoJavaZipCompressionSupportYetException {
@@ -95,12 +160,128 @@ public class MOOSCommPkt {
         // is it compressed?
         isCompressed = packetData.get() != 0;
         if (isCompressed) {
-            // Zip compresses to be completed
-            throw new NoJavaZipCompressionSupportYetException();
+            inflate();
+        }
+        bytesRequired = 0;
+
+    }
+
+    /**
+     * Replace the compressed packet in packetData with the same packet
+     * uncompressed, leaving the position just after the header like
+     * fillWholePacket() does for an uncompressed packet.
+     */
+    private void inflate() throws NoJavaZipCompressionSupportYetException {
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            inflater.reset();
+        }
+        int compressedLength = packetLengthInBytes - PACKET_HEADER_SIZE;
+        if (packetData.hasArray()) {
+            inflater.setInput(packetData.array(), packetData.arrayOffset() + PACKET_HEADER_SIZE, compressedLength);
+        } else {
+            byte[] compressed = new byte[compressedLength];
+            packetData.get(compressed);
+            inflater.setInput(compressed);
+        }
+
+        // (de)compressing needs a byte[], so a direct pool can't be used here
+        int max = Math.max(maxInflatedSize, PACKET_HEADER_SIZE);
+        ByteBuffer out = allocateHeap((int) Math.min(PACKET_HEADER_SIZE + 4L * compressedLength, max));
+        out.position(PACKET_HEADER_SIZE);
+        try {
+            while (!inflater.finished()) {
+                if (out.position() >= max) {
+                    throw new NoJavaZipCompressionSupportYetException("Compressed MOOS packet inflates to more than " + max + " bytes");
+                }
+                if (!out.hasRemaining()) {
+                    out = growHeap(out, max);
+                }
+                int n = inflater.inflate(out.array(), out.arrayOffset() + out.position(), Math.min(out.remaining(), max - out.position()));
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new NoJavaZipCompressionSupportYetException("Compressed MOOS packet is truncated");
+                }
+                out.position(out.position() + n);
+            }
+        } catch (DataFormatException ex) {
+            releaseHeap(out);
+            throw new NoJavaZipCompressionSupportYetException("Compressed MOOS packet is corrupt", ex);
+        } catch (NoJavaZipCompressionSupportYetException ex) {
+            releaseHeap(out);
+            throw ex;
+        }
+
+        packetLengthInBytes = out.position();
+        out.flip();
+        out.putInt(packetLengthInBytes).putInt(msgCount).put((byte) 0);
+        setPacketData(out);
+    }
+
+    /**
+     * Squash the messages in packetData, which has just been serialized, if
+     * the packet is big enough and it makes it smaller.
+     */
+    private void deflate() {
+        isCompressed = false;
+        if (compressionThreshold < 0 || packetLengthInBytes < compressionThreshold) {
+            return;
+        }
+        if (deflater == null) {
+            deflater = new Deflater();
+        } else {
+            deflater.reset();
+        }
+        int uncompressedLength = packetLengthInBytes - PACKET_HEADER_SIZE;
+        if (packetData.hasArray()) {
+            deflater.setInput(packetData.array(), packetData.arrayOffset() + PACKET_HEADER_SIZE, uncompressedLength);
         } else {
-            bytesRequired = 0;
+            byte[] uncompressed = new byte[uncompressedLength];
+            packetData.position(PACKET_HEADER_SIZE);
+            packetData.get(uncompressed);
+            packetData.rewind();
+            deflater.setInput(uncompressed);
+        }
+        deflater.finish();
+
+        ByteBuffer out = allocateHeap(packetLengthInBytes); // no point going any bigger
+        out.position(PACKET_HEADER_SIZE);
+        while (!deflater.finished() && out.hasRemaining()) {
+            int n = deflater.deflate(out.array(), out.arrayOffset() + out.position(), out.remaining());
+            out.position(out.position() + n);
+        }
+        if (!deflater.finished()) {
+            releaseHeap(out); // didn't get any smaller, send it as it is
+            return;
+        }
+
+        isCompressed = true;
+        packetLengthInBytes = out.position();
+        out.flip();
+        out.putInt(packetLengthInBytes).putInt(msgCount).put((byte) 1);
+        out.rewind();
+        setPacketData(out);
+    }
+
+    private ByteBuffer allocateHeap(int size) {
+        if (pool == null || pool.isDirect()) {
+            return Utils.allocate(size);
         }
+        return pool.acquire(size);
+    }
 
+    private void releaseHeap(ByteBuffer buffer) {
+        if (pool != null) {
+            pool.release(buffer);
+        }
+    }
+
+    private ByteBuffer growHeap(ByteBuffer full, int max) {
+        ByteBuffer bigger = allocateHeap((int) Math.min(2L * full.capacity(), max));
+        full.flip();
+        bigger.put(full);
+        releaseHeap(full);
+        return bigger;
     }
 
     /**
@@ -131,13 +312,19 @@ public class MOOSCommPkt {
                         if (this.packetLengthInBytes > MOOSCommPkt.DEFAULT_ASSUMMED_MAX_MOOS_MSG_SIZE) {
                             System.err.println("MOOSCommPkt: Error! Packet Size > DEFAULT_ASSUMMED_MAX_MOOS_MSG_SIZE" + this.packetLengthInBytes + " -> If this is a size error it could crash us!!!");
                         }
-                        this.packetData = Utils.allocate(this.packetLengthInBytes).put(packetData); // create new buffer of correct length for full packet and add already collected data
+                        if (packetData.capacity() >= this.packetLengthInBytes) {
+                            packetData.position(packetData.limit()); // already room for it all, e.g. a pooled buffer
+                        } else {
+                            setPacketData(allocate(this.packetLengthInBytes).put(packetData)); // create new buffer of correct length for full packet and add already collected data
+                        }
+                        packetData.limit(this.packetLengthInBytes);
                         this.bytesRequired = this.packetLengthInBytes - packetData.position();
                     }
                 }
             } else { // haven't got enough bytes for length yet.
-                packetData.position(packetData.limit());
-                return bytesRequired -= packetData.limit();
+                packetData.position(packetData.limit()); // keep the bytes we have
+                packetData.limit(MOOSMsg.INT_SIZE_IN_BYTES); // and make room for the rest of the length
+                return bytesRequired = packetData.remaining();
             }
 
         } else { // already got the header
@@ -149,7 +336,7 @@ public class MOOSCommPkt {
             } else { // still waiting for data, calculate how much is left
                 this.bytesRequired = this.packetLengthInBytes - packetData.limit(); // how many bytes are still required... why did it not get them all the 1st time
                 this.packetData.position(packetData.limit()); // put current position to write bytes to where it got to before
-                this.packetData.limit(packetData.capacity()); // reset limit to end
+                this.packetData.limit(this.packetLengthInBytes); // reset limit to end of this packet, never read into the next one
             }
 
         }
@@ -215,22 +402,19 @@ public class MOOSCommPkt {
             this.msgCount = messages.size();
 
             // resize the ByteBuffer
-            packetData = Utils.allocate(this.packetLengthInBytes);
+            setPacketData(allocate(this.packetLengthInBytes));
 
             // create header
             packetData.putInt(this.packetLengthInBytes);
             packetData.putInt(msgCount);
-            if (isCompressed) {
-                packetData.put((byte) 1);
-            } else {
-                packetData.put((byte) 0);
-            }
+            packetData.put((byte) 0); // deflate() sets this if it compresses the packet
 
             // now add serialize the messages to the ByteBuffer
             for (MOOSMsg msg : messages) {
                 msg.serialize(packetData, toStream);
             }
             this.packetData.flip(); // sets the limit to here and the position to zero, ready for writing to stream from
+            deflate();
         } else {
             // here we read from the buffer into this packet and add all messages to the supplied list
             // we assume fill has already been called and the packet header has been read and thus incremented the mark on the supplied ByteBuffer
@@ -252,6 +436,260 @@ public class MOOSCommPkt {
         return true;
     }
 
+    /**
+     * Serialize messages for sending like serialize(messages, true), but
+     * encode each message only once and leave large binary payloads where
+     * they are. The result is the packet as a list of buffers to hand to
+     * SocketChannel.write(ByteBuffer[]): slices of this packet's buffer, which
+     * hold the header and the messages, with each binary payload of at least
+     * GATHER_MIN_PAYLOAD bytes wrapped in between. The payloads are not
+     * copied, so the messages' byte[]s mustn't change until the packet has
+     * been written.
+     *
+     * If the packet is to be compressed the payloads are copied in too and
+     * the packet is returned as one buffer. So is a packet without any such
+     * payloads, in an array that is reused for the next packet.
+     *
+     * @param messages the messages to send
+     * @return the packet, ready for writing. The buffers are only valid until
+     * the packet is recycled or reused.
+     */
+    public ByteBuffer[] gather(List<MOOSMsg> messages) {
+        gatherStart(estimateSize(messages));
+        for (MOOSMsg msg : messages) {
+            gatherAdd(msg);
+        }
+        return gatherEnd();
+    }
+
+    /**
+     * Start a packet to be built up a message at a time with gatherAdd() and
+     * gatherDouble(), which gatherEnd() turns into the same buffers as
+     * gather() returns.
+     *
+     * @param estimate roughly how many bytes the messages will take, the
+     * buffer grows if they need more
+     */
+    public void gatherStart(int estimate) {
+        this.msgList = null;
+        this.isCompressed = false;
+        this.msgCount = 0;
+        this.gatherPayloadBytes = 0;
+        gatherPayloads.clear();
+        setPacketData(allocate(PACKET_HEADER_SIZE + estimate));
+        packetData.position(PACKET_HEADER_SIZE); // header filled in at the end
+    }
+
+    /**
+     * Add a message to the packet started by gatherStart().
+     *
+     * @param msg the message
+     */
+    public void gatherAdd(MOOSMsg msg) {
+        gatherPayloadBytes += encode(msg);
+        msgCount++;
+    }
+
+    /**
+     * Add a Double notification to the packet started by gatherStart()
+     * without there being a MOOSMsg for it. The bytes are the same as for
+     * new MOOSMsg(MessageType.Notify, var, value, time) with msgID and
+     * source set.
+     *
+     * @param keyBytes the encoded variable name
+     * @param sourceBytes the encoded name of the sender
+     * @param msgID the message ID
+     * @param value the value
+     * @param time the time
+     */
+    public void gatherDouble(byte[] keyBytes, byte[] sourceBytes, int msgID, double value, double time) {
+        ensureRoom(MSG_FIXED_SIZE + keyBytes.length + sourceBytes.length);
+        int start = packetData.position();
+        packetData.putInt(0); // the length, filled in below
+        packetData.putInt(msgID);
+        packetData.put(MessageType.Notify.getValue());
+        packetData.put(DataType.Double.getValue());
+        packetData.putInt(sourceBytes.length).put(sourceBytes);
+        if (!MOOSMsg.isAUXSourceDataDisabled()) {
+            packetData.putInt(0);
+        }
+        packetData.putInt(0); // community
+        packetData.putInt(keyBytes.length).put(keyBytes);
+        packetData.putDouble(time);
+        packetData.putDouble(value);
+        packetData.putDouble(-1); // m_dfVal2
+        packetData.putInt(0); // no string value
+        packetData.putInt(start, packetData.position() - start);
+        msgCount++;
+    }
+
+    /**
+     * Finish the packet started by gatherStart().
+     *
+     * @return the packet, as for gather()
+     */
+    public ByteBuffer[] gatherEnd() {
+        int end = packetData.position();
+        this.packetLengthInBytes = end + gatherPayloadBytes;
+        packetData.putInt(0, packetLengthInBytes);
+        packetData.putInt(MOOSMsg.INT_SIZE_IN_BYTES, msgCount);
+        packetData.put(2 * MOOSMsg.INT_SIZE_IN_BYTES, (byte) 0);
+        packetData.limit(end).position(0);
+
+        int payloads = gatherPayloads.size();
+        if (payloads == 0) {
+            deflate(); // only ever happens here, the payloads are copied in when compressing
+            gatherSingle[0] = packetData;
+            return gatherSingle;
+        }
+        boolean endsWithPayload = gatherCuts[payloads - 1] == end;
+        // the last buffer is never empty, writers check it to see if the packet has gone
+        ByteBuffer[] segments = new ByteBuffer[2 * payloads + (endsWithPayload ? 0 : 1)];
+        int from = 0;
+        for (int i = 0; i < payloads; i++) {
+            segments[2 * i] = slice(from, gatherCuts[i]);
+            segments[2 * i + 1] = ByteBuffer.wrap(gatherPayloads.get(i));
+            from = gatherCuts[i];
+        }
+        if (!endsWithPayload) {
+            segments[2 * payloads] = slice(from, end);
+        }
+        gatherPayloads.clear(); // don't hang on to the caller's byte[]s
+        return segments;
+    }
+
+    private ByteBuffer slice(int from, int to) {
+        ByteBuffer slice = packetData.duplicate();
+        slice.limit(to).position(from);
+        return slice;
+    }
+
+    /**
+     * @return roughly how many bytes gatherAdd() will take for messages
+     */
+    static int estimateSize(List<MOOSMsg> messages) {
+        int estimate = 0;
+        for (MOOSMsg msg : messages) {
+            estimate += estimateSize(msg);
+        }
+        return estimate;
+    }
+
+    /**
+     * Size of msg once encoded, assuming its strings are ASCII and not
+     * counting a payload that will be sent from its own byte[].
+     */
+    private static int estimateSize(MOOSMsg msg) {
+        int size = MSG_FIXED_SIZE + length(msg.source) + length(msg.sourceAuxInfo)
+                + length(msg.community) + length(msg.varName);
+        if (!msg.isBinary()) {
+            size += length(msg.stringData);
+        } else if (msg.binaryData != null && msg.binaryData.length < GATHER_MIN_PAYLOAD) {
+            size += msg.binaryData.length;
+        }
+        return size;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /**
+     * Write msg at the current position of packetData, the same bytes as
+     * MOOSMsg.serialize(buffer, true) writes, except that a large binary
+     * payload is only noted down for gather() to send from where it is.
+     *
+     * @return the number of payload bytes left out of packetData
+     */
+    private int encode(MOOSMsg msg) {
+        ensureRoom(MSG_FIXED_SIZE);
+        int start = packetData.position();
+        packetData.putInt(0); // the length, filled in once it is known
+        packetData.putInt(msg.msgID);
+        packetData.put(msg.msgType.getValue());
+        packetData.put(msg.dataType.getValue());
+        if (msg.sourceBytes != null) {
+            putBytes(msg.sourceBytes);
+        } else {
+            putString(msg.source);
+        }
+        if (!MOOSMsg.isAUXSourceDataDisabled()) {
+            putString(msg.sourceAuxInfo);
+        }
+        putString(msg.community);
+        if (msg.keyBytes != null) {
+            putBytes(msg.keyBytes);
+        } else {
+            putString(msg.varName);
+        }
+        ensureRoom(3 * MOOSMsg.DOUBLE_SIZE_IN_BYTES + MOOSMsg.INT_SIZE_IN_BYTES);
+        packetData.putDouble(msg.time);
+        packetData.putDouble(msg.doubleData);
+        packetData.putDouble(msg.m_dfVal2);
+
+        int payloadBytes = 0;
+        if (msg.isBinary()) {
+            byte[] binary = msg.binaryData == null ? new byte[0] : msg.binaryData;
+            packetData.putInt(binary.length);
+            if (binary.length >= GATHER_MIN_PAYLOAD && compressionThreshold < 0) {
+                int index = gatherPayloads.size();
+                if (index == gatherCuts.length) {
+                    gatherCuts = Arrays.copyOf(gatherCuts, 2 * index);
+                }
+                gatherCuts[index] = packetData.position();
+                gatherPayloads.add(binary);
+                payloadBytes = binary.length;
+            } else {
+                ensureRoom(binary.length);
+                packetData.put(binary);
+            }
+        } else {
+            putString(msg.stringData);
+        }
+
+        msg.msgLength = packetData.position() - start + payloadBytes;
+        packetData.putInt(start, msg.msgLength);
+        return payloadBytes;
+    }
+
+    /**
+     * Write the length of s in bytes followed by its bytes. ASCII, which is
+     * nearly every MOOS name and string, is copied straight in without
+     * creating a byte[].
+     */
+    private void putString(String s) {
+        int length = length(s);
+        ensureRoom(MOOSMsg.INT_SIZE_IN_BYTES + length);
+        int lengthAt = packetData.position();
+        packetData.putInt(length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c > 0x7f) { // not ASCII after all, start again the slow way
+                byte[] bytes = s.getBytes(MOOSMsg.CHARSET);
+                packetData.position(lengthAt);
+                ensureRoom(MOOSMsg.INT_SIZE_IN_BYTES + bytes.length);
+                packetData.putInt(bytes.length).put(bytes);
+                return;
+            }
+            packetData.put((byte) c);
+        }
+    }
+
+    private void putBytes(byte[] bytes) {
+        ensureRoom(MOOSMsg.INT_SIZE_IN_BYTES + bytes.length);
+        packetData.putInt(bytes.length).put(bytes);
+    }
+
+    private void ensureRoom(int bytes) {
+        if (packetData.remaining() < bytes) {
+            int size = Math.max(2 * packetData.capacity(), packetData.position() + bytes);
+            ByteBuffer bigger = allocate(size);
+            packetData.flip();
+            bigger.put(packetData);
+            setPacketData(bigger);
+        }
+    }
+
     /**
      *
      * @return returns the ByteBuffer created from the messages. Returns null is
@@ -269,7 +707,22 @@ public class MOOSCommPkt {
      */
     public void setBytes(ByteBuffer data) {
         this.resetFill();
-        this.packetData = data;
+        setPacketData(data);
+        pooledData = false; // not ours to give back
+    }
+
+    /**
+     * Make this the complete packet in data, as if fill() had just read it,
+     * without copying it. Used by MOOSPktDecoder.
+     *
+     * @param data the whole packet, header included, from position 0
+     * @throws NoJavaZipCompressionSupportYetException if the packet is
+     * compressed and can't be decompressed
+     */
+    public void setReceived(ByteBuffer data) throws NoJavaZipCompressionSupportYetException {
+        setPacketData(data);
+        pooledData = false; // not ours to give back
+        fillWholePacket();
     }
 
     /**
@@ -290,6 +743,49 @@ public class MOOSCommPkt {
         this.msgList = list;
     }
 
+    /**
+     * @return whether the last packet serialized was compressed before
+     * sending, or whether the last packet filled arrived compressed
+     */
+    public boolean isCompressed() {
+        return isCompressed;
+    }
+
+    /**
+     * @return the smallest packet that is compressed, -1 if none are
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Compress packets serialized from now on if they are at least this many
+     * bytes long, header included. A packet is still sent uncompressed if
+     * compressing doesn't make it any smaller.
+     *
+     * @param compressionThreshold size in bytes, or -1 to never compress
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Limit how big a compressed packet may get once it has been inflated,
+     * so a small packet that inflates to gigabytes can't use up the heap. A
+     * packet that would be bigger is dropped: setReceived() and fill() throw
+     * NoJavaZipCompressionSupportYetException, as they do for a corrupt one.
+     *
+     * @param maxInflatedSize size in bytes, header included.
+     * DEFAULT_ASSUMMED_MAX_MOOS_MSG_SIZE unless set.
+     */
+    public void setMaxInflatedSize(int maxInflatedSize) {
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
+    public int getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
     /**
      *
      * @return length of packet in bytes. Will only return header length if
@@ -298,4 +794,12 @@ public class MOOSCommPkt {
     public int getPacketLengthInBytes() {
         return this.packetLengthInBytes;
     }
+
+    /**
+     * @return how many messages the packet holds, once it has been filled or
+     * built
+     */
+    public int getMsgCount() {
+        return this.msgCount;
+    }
 }
@@ -0,0 +1,463 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routes Notify messages to the handlers added for their variable, for a
+ * wildcard pattern matching their variable and source, or for their source,
+ * so applications don't have to compare every key against a chain of
+ * if/else. Which handlers a variable goes to is worked out the first time a
+ * message for it arrives and then looked up in a hash map, until handlers
+ * are added or removed.
+ *
+ * <pre>
+ * client.getDispatcher().addHandler("NAV_X", msg -&gt; navX = msg.getDoubleData());
+ * client.getDispatcher().addPatternHandler("NAV_*", "*", msg -&gt; ...);
+ * </pre>
+ *
+ * By default handlers are called on whichever thread calls dispatch(), which
+ * for a MOOSCommClient is its I/O thread, so a slow handler holds up sending
+ * and receiving. setExecutor() hands them to an Executor instead, either
+ * with no ordering at all or keeping the messages of each variable in order
+ * while different variables run in parallel. If the Executor rejects a
+ * message, e.g. a bounded pool that is full, it is handled on the calling
+ * thread instead, which slows reading down rather than losing it. Likewise
+ * once getMaxPending() messages are waiting to be handled, dispatch() waits
+ * for one of them to finish.
+ *
+ * Handlers can be added and removed from any thread.
+ */
+public class MOOSDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSDispatcher.class);
+    /**
+     * The key that MoosMessageHandler batches are kept in order under.
+     */
+    static final String BATCH_KEY = "";
+    private static final int SERIAL_BATCH = 64; // tasks run per turn on the executor, so one busy variable can't hog a thread
+    /**
+     * How many tasks may be waiting on the executor unless
+     * setMaxPending() says otherwise.
+     */
+    public static final int DEFAULT_MAX_PENDING = 10000;
+
+    private static final MoosVariableHandler[] NONE = new MoosVariableHandler[0];
+
+    /**
+     * What a variable resolves to: handlers for any source, and the patterns
+     * it matched that also depend on the source.
+     */
+    private static final class Resolved {
+
+        final MoosVariableHandler[] handlers;
+        final MOOSWildcardMatcher.Matches<MoosVariableHandler> bySource;
+
+        Resolved(MoosVariableHandler[] handlers, MOOSWildcardMatcher.Matches<MoosVariableHandler> bySource) {
+            this.handlers = handlers;
+            this.bySource = bySource;
+        }
+    }
+
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<MoosVariableHandler>> byVariable = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<MoosVariableHandler>> bySource = new ConcurrentHashMap<>();
+    private final MOOSWildcardMatcher<MoosVariableHandler> patterns = new MOOSWildcardMatcher<>();
+    private final ConcurrentHashMap<String, Resolved> resolved = new ConcurrentHashMap<>();
+    private final AtomicInteger generation = new AtomicInteger(); // bumped whenever resolved goes stale
+    private volatile Executor executor; // null to call handlers inline
+    private final MOOSClientStats stats; // times handlers, may be null
+    private volatile boolean serialPerKey;
+    final ConcurrentHashMap<String, SerialQueue> serialQueues = new ConcurrentHashMap<>(); // only keys with tasks waiting or running
+    private volatile Semaphore pending = new Semaphore(DEFAULT_MAX_PENDING); // a permit for each task on the executor
+    private volatile int maxPending = DEFAULT_MAX_PENDING;
+
+    public MOOSDispatcher() {
+        this(null);
+    }
+
+    /**
+     * @param stats where to record how long handlers take, may be null
+     */
+    MOOSDispatcher(MOOSClientStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Tasks for one key, run one at a time in order on the executor. It
+     * takes itself out of serialQueues once it has nothing left to run, so
+     * a variable seen once doesn't keep one for ever.
+     */
+    private final class SerialQueue implements Runnable {
+
+        private final String key;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        SerialQueue(String key) {
+            this.key = key;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                submit(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                for (int i = 0; i < SERIAL_BATCH && (task = tasks.poll()) != null; i++) {
+                    runSafely(task);
+                }
+            } finally {
+                scheduled.set(false);
+                if (!tasks.isEmpty()) {
+                    schedule();
+                } else {
+                    // tasks are only added inside compute(), so none can be added to it once it has gone
+                    serialQueues.computeIfPresent(key, (k, queue) -> queue == this && tasks.isEmpty() ? null : queue);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param var the variable
+     * @param handler called with every Notify for var
+     */
+    public void addHandler(String var, MoosVariableHandler handler) {
+        byVariable.computeIfAbsent(var, k -> new CopyOnWriteArrayList<>()).add(handler);
+        invalidate();
+    }
+
+    /**
+     * @param var the variable
+     * @param handler a handler added with addHandler()
+     * @return whether it had been added
+     */
+    public boolean removeHandler(String var, MoosVariableHandler handler) {
+        List<MoosVariableHandler> handlers = byVariable.get(var);
+        boolean removed = handlers != null && handlers.remove(handler);
+        invalidate();
+        return removed;
+    }
+
+    /**
+     * Add a handler for variables matching a pattern, posted by applications
+     * matching another pattern. The patterns are MOOS wildcards where * is
+     * any run of characters and ? is any one character, the same as for
+     * MOOSCommClient.register(varPattern, appPattern, interval).
+     *
+     * @param varPattern pattern for the variable names
+     * @param appPattern pattern for the sources, "*" for any
+     * @param handler called with every matching Notify
+     */
+    public void addPatternHandler(String varPattern, String appPattern, MoosVariableHandler handler) {
+        patterns.add(varPattern, appPattern, handler);
+        invalidate();
+    }
+
+    /**
+     * @return whether the handler had been added for these patterns
+     */
+    public boolean removePatternHandler(String varPattern, String appPattern, MoosVariableHandler handler) {
+        boolean removed = patterns.remove(varPattern, appPattern, handler);
+        invalidate();
+        return removed;
+    }
+
+    /**
+     * @param source the application name
+     * @param handler called with every Notify posted by source
+     */
+    public void addSourceHandler(String source, MoosVariableHandler handler) {
+        bySource.computeIfAbsent(source, k -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    /**
+     * @return whether the handler had been added for source
+     */
+    public boolean removeSourceHandler(String source, MoosVariableHandler handler) {
+        List<MoosVariableHandler> handlers = bySource.get(source);
+        return handlers != null && handlers.remove(handler);
+    }
+
+    /**
+     * @return whether any handlers have been added
+     */
+    public boolean isEmpty() {
+        for (List<MoosVariableHandler> handlers : byVariable.values()) {
+            if (!handlers.isEmpty()) {
+                return false;
+            }
+        }
+        for (List<MoosVariableHandler> handlers : bySource.values()) {
+            if (!handlers.isEmpty()) {
+                return false;
+            }
+        }
+        return patterns.isEmpty();
+    }
+
+    /**
+     * Pass a message to every handler it is meant for. A handler added more
+     * than one way that matches more than one way gets it more than once.
+     *
+     * @param msg the message
+     * @return false if it isn't a Notify or there was no handler for it
+     */
+    public boolean dispatch(MOOSMsg msg) {
+        return dispatch(msg, null);
+    }
+
+    /**
+     * @param done run once the handlers have finished with msg, if this
+     * returns true. May be null.
+     */
+    boolean dispatch(MOOSMsg msg, Runnable done) {
+        if (!msg.isType(MessageType.Notify) || msg.getKey() == null) {
+            return false;
+        }
+        if (executor == null) {
+            long start = stats == null ? 0 : System.nanoTime();
+            boolean handled = deliver(msg, true);
+            if (handled && stats != null) {
+                stats.handled(System.nanoTime() - start);
+            }
+            if (handled && done != null) {
+                done.run();
+            }
+            return handled;
+        }
+        if (!deliver(msg, false)) {
+            return false;
+        }
+        if (done == null) {
+            execute(msg.getKey(), () -> deliver(msg, true));
+        } else {
+            execute(msg.getKey(), () -> {
+                try {
+                    deliver(msg, true);
+                } finally {
+                    done.run();
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * @param call whether to call the handlers or just see if there are any
+     * @return whether there was a handler for msg
+     */
+    private boolean deliver(MOOSMsg msg, boolean call) {
+        boolean handled = false;
+        Resolved r = resolve(msg.getKey());
+        for (MoosVariableHandler handler : r.handlers) {
+            if (!call) {
+                return true;
+            }
+            handler.handleMessage(msg);
+            handled = true;
+        }
+        String source = msg.getSource();
+        if (r.bySource.dependsOnSource() && source != null) {
+            for (MoosVariableHandler handler : r.bySource.getForSource(source)) {
+                if (!call) {
+                    return true;
+                }
+                handler.handleMessage(msg);
+                handled = true;
+            }
+        }
+        if (source != null && !bySource.isEmpty()) {
+            List<MoosVariableHandler> handlers = bySource.get(source);
+            if (handlers != null) {
+                for (MoosVariableHandler handler : handlers) {
+                    if (!call) {
+                        return true;
+                    }
+                    handler.handleMessage(msg);
+                    handled = true;
+                }
+            }
+        }
+        return handled;
+    }
+
+    /**
+     * Run a task the way handlers are run: straight away if there is no
+     * executor, otherwise on the executor, after any earlier tasks for the
+     * same key if it is keeping keys in order.
+     *
+     * @param key the variable the task is for
+     * @param task the task
+     */
+    public void execute(String key, Runnable task) {
+        if (executor == null) {
+            runTimed(task);
+            return;
+        }
+        Semaphore permits = pending;
+        permits.acquireUninterruptibly(); // waits while the executor has getMaxPending() tasks already
+        Runnable counted = () -> {
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        };
+        if (serialPerKey) {
+            SerialQueue queue = serialQueues.compute(key, (k, waiting) -> {
+                SerialQueue q = waiting == null ? new SerialQueue(k) : waiting;
+                q.tasks.add(counted);
+                return q;
+            });
+            queue.schedule();
+        } else {
+            submit(counted);
+        }
+    }
+
+    private void submit(Runnable task) {
+        Executor current = executor;
+        if (current != null) {
+            try {
+                current.execute(() -> runSafely(task));
+                return;
+            } catch (RejectedExecutionException ex) {
+                // full or shut down, run it here instead
+            }
+        }
+        runSafely(task);
+    }
+
+    private void runSafely(Runnable task) {
+        try {
+            runTimed(task);
+        } catch (RuntimeException ex) {
+            LOG.error("Message handler failed", ex);
+        }
+    }
+
+    private void runTimed(Runnable task) {
+        if (stats == null) {
+            task.run();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            stats.handled(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Call handlers on an Executor rather than the thread calling
+     * dispatch(). Handlers may then be called from several threads at once.
+     *
+     * @param executor where to run handlers, or null to go back to calling
+     * them inline
+     * @param serialPerKey whether to keep the messages for each variable in
+     * order, by running at most one task per variable at a time. Different
+     * variables still run in parallel.
+     */
+    public void setExecutor(Executor executor, boolean serialPerKey) {
+        this.serialPerKey = serialPerKey;
+        this.executor = executor;
+    }
+
+    /**
+     * Limit how many tasks can be waiting on the executor or running. Once
+     * there are that many, execute() and dispatch() wait for one to finish,
+     * so a thread dispatching faster than handlers keep up, e.g. a client's
+     * I/O thread, slows down rather than the executor's queue growing
+     * without end.
+     *
+     * @param maxPending the most tasks, DEFAULT_MAX_PENDING unless set
+     */
+    public void setMaxPending(int maxPending) {
+        this.maxPending = Math.max(1, maxPending);
+        this.pending = new Semaphore(this.maxPending); // tasks already waiting give their permits back to the old one
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * @return how many tasks are waiting on the executor or running
+     */
+    public int getPendingCount() {
+        return Math.max(0, maxPending - pending.availablePermits());
+    }
+
+    /**
+     * @return where handlers are run, null if inline
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return whether the messages of each variable are kept in order when
+     * there is an executor
+     */
+    public boolean isSerialPerKey() {
+        return serialPerKey;
+    }
+
+    /**
+     * An Executor that starts a virtual thread for every task, on JVMs that
+     * have them (Java 21 on). Use it with setExecutor(executor, true) to keep
+     * each variable in order.
+     *
+     * @return the executor, or null if this JVM has no virtual threads
+     */
+    public static Executor virtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private void invalidate() {
+        generation.incrementAndGet();
+        resolved.clear();
+    }
+
+    private Resolved resolve(String var) {
+        Resolved r = resolved.get(var);
+        if (r == null) {
+            int resolvedAt = generation.get();
+            ArrayList<MoosVariableHandler> handlers = new ArrayList<>();
+            List<MoosVariableHandler> exact = byVariable.get(var);
+            if (exact != null) {
+                handlers.addAll(exact);
+            }
+            MOOSWildcardMatcher.Matches<MoosVariableHandler> matches = patterns.lookup(var);
+            handlers.addAll(matches.getAnySource());
+            r = new Resolved(handlers.toArray(NONE), matches);
+            resolved.put(var, r);
+            if (generation.get() != resolvedAt) {
+                resolved.remove(var, r); // handlers changed while resolving, don't keep it
+            }
+        }
+        return r;
+    }
+}
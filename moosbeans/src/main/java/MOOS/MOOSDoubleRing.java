@@ -0,0 +1,106 @@
+package MOOS;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The outbox for doubles published with MOOSCommClient.publishDouble(). It
+ * is a fixed size ring of primitives, so publishing never creates anything:
+ * any number of threads claim a slot with a compare and set, fill it in and
+ * then mark it as published, and the I/O thread takes them out in order.
+ * When the ring is full new values are dropped.
+ */
+public class MOOSDoubleRing {
+
+    private final int[] ids;
+    private final double[] values;
+    private final double[] times;
+    private final AtomicLongArray published; // the sequence number each slot was last filled for
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next sequence number to claim
+    private volatile long head; // next sequence number to take, only written by the consumer
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @param capacity the most values to hold, rounded up to a power of two
+     */
+    public MOOSDoubleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        ids = new int[size];
+        values = new double[size];
+        times = new double[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * @param varId the variable's id
+     * @param value the value
+     * @param time the time
+     * @return false if the ring was full and the value was dropped
+     */
+    public boolean offer(int varId, double value, double time) {
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head > mask) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+        int i = (int) seq & mask;
+        ids[i] = varId;
+        values[i] = value;
+        times[i] = time;
+        published.lazySet(i, seq); // orders the writes above before it
+        return true;
+    }
+
+    /**
+     * Pass everything that has been published to sink, oldest first. Only
+     * one thread may take values out at a time.
+     *
+     * @param sink where the values go
+     * @return how many there were
+     */
+    public int drainTo(MoosDoubleHandler sink) {
+        long seq = head;
+        long start = seq;
+        for (int i = (int) seq & mask; published.get(i) == seq; i = (int) seq & mask) {
+            sink.onDouble(ids[i], values[i], times[i]);
+            head = ++seq; // frees the slot
+        }
+        return (int) (seq - start);
+    }
+
+    /**
+     * @return whether nothing has been published, or claimed, since the last
+     * drain
+     */
+    public boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    /**
+     * Throw away everything published so far. Only call this from the
+     * thread that takes values out.
+     */
+    public void clear() {
+        drainTo((varId, value, time) -> {
+        });
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return how many values have been dropped because the ring was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
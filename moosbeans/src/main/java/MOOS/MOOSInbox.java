@@ -0,0 +1,293 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The messages a MOOSCommClient has received but not yet handed out. It is a
+ * ring buffer of a fixed size, so adding and draining messages never shuffles
+ * them around, and what happens once it is full is decided by the overflow
+ * policy rather than everything being thrown away.
+ *
+ * Messages are drained newest first, the same order getNewMsgs() has always
+ * used. All methods are synchronized on the inbox.
+ */
+public class MOOSInbox {
+
+    /**
+     * What to do with messages that arrive when the inbox is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Throw away the oldest message to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Throw away the message that has just arrived.
+         */
+        DROP_NEWEST,
+        /**
+         * Replace a waiting Notify for the same variable with the new one,
+         * even when the inbox isn't full, so only the latest value of each
+         * variable is kept. If there isn't one to replace the oldest message
+         * is thrown away, as for DROP_OLDEST.
+         */
+        CONFLATE_PER_KEY,
+        /**
+         * Never throw anything away. The client stops reading from the
+         * socket while the inbox is full, and only takes messages out of it
+         * as fast as handlers finish with them, which holds up the MOOSDB
+         * instead.
+         */
+        BLOCK
+    }
+
+    private MOOSMsg[] ring;
+    private int head; // index of the oldest message
+    private int count;
+    private long headSeq; // sequence number of the message at head
+    private final ArrayList<MOOSMsg> spill = new ArrayList<>(); // BLOCK only, the rest of a packet that didn't fit
+    private final HashMap<String, Long> latestByKey = new HashMap<>(); // CONFLATE_PER_KEY only
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long droppedCount;
+    private long conflatedCount;
+
+    /**
+     * @param capacity the most messages to hold
+     */
+    public MOOSInbox(int capacity) {
+        this.ring = new MOOSMsg[Math.max(1, capacity)];
+    }
+
+    /**
+     * Add messages in the order they arrived.
+     *
+     * @param messages the messages
+     */
+    public synchronized void addAll(List<MOOSMsg> messages) {
+        for (int i = 0, n = messages.size(); i < n; i++) {
+            add(messages.get(i));
+        }
+    }
+
+    /**
+     * @param msg a message that has just arrived
+     * @return false if it was dropped straight away
+     */
+    public synchronized boolean add(MOOSMsg msg) {
+        if (overflowPolicy == OverflowPolicy.CONFLATE_PER_KEY && msg.isType(MessageType.Notify)) {
+            Long seq = latestByKey.get(msg.getKey());
+            if (seq != null) {
+                ring[slot(seq)] = msg;
+                conflatedCount++;
+                return true;
+            }
+        }
+        if (count == ring.length) {
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    droppedCount++;
+                    return false;
+                case BLOCK:
+                    spill.add(msg);
+                    return true;
+                default:
+                    removeOldest();
+                    droppedCount++;
+            }
+        }
+        long seq = headSeq + count;
+        ring[slot(seq)] = msg;
+        count++;
+        if (overflowPolicy == OverflowPolicy.CONFLATE_PER_KEY && msg.isType(MessageType.Notify)) {
+            latestByKey.put(msg.getKey(), seq);
+        }
+        return true;
+    }
+
+    private int slot(long seq) {
+        return (int) ((head + (seq - headSeq)) % ring.length);
+    }
+
+    private void removeOldest() {
+        MOOSMsg oldest = ring[head];
+        ring[head] = null;
+        if (oldest != null && !latestByKey.isEmpty()) {
+            latestByKey.remove(oldest.getKey(), headSeq);
+        }
+        head = (head + 1) % ring.length;
+        headSeq++;
+        count--;
+    }
+
+    /**
+     * Take everything out of the inbox.
+     *
+     * @return the messages, newest first
+     */
+    public synchronized ArrayList<MOOSMsg> drain() {
+        ArrayList<MOOSMsg> messages = peek();
+        clear();
+        return messages;
+    }
+
+    /**
+     * Take the oldest messages out of the inbox, making room for any that
+     * arrived while it was full.
+     *
+     * @param max the most messages to take
+     * @return the messages, newest first
+     */
+    public synchronized ArrayList<MOOSMsg> drain(int max) {
+        int n = Math.min(Math.max(0, max), count + spill.size());
+        if (n == count + spill.size()) {
+            return drain();
+        }
+        ArrayList<MOOSMsg> messages = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            if (count == 0) { // the spill is oldest once the ring has been emptied
+                messages.add(spill.remove(0));
+                continue;
+            }
+            messages.add(ring[head]);
+            removeOldest();
+        }
+        Collections.reverse(messages);
+        int moved = Math.min(spill.size(), ring.length - count);
+        if (moved > 0) {
+            List<MOOSMsg> waiting = spill.subList(0, moved);
+            ArrayList<MOOSMsg> room = new ArrayList<>(waiting);
+            waiting.clear();
+            for (MOOSMsg msg : room) {
+                add(msg);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return a copy of what is in the inbox, newest first, leaving it there
+     */
+    public synchronized ArrayList<MOOSMsg> peek() {
+        ArrayList<MOOSMsg> messages = new ArrayList<>(count + spill.size());
+        for (int i = spill.size() - 1; i >= 0; i--) {
+            messages.add(spill.get(i));
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            messages.add(ring[(head + i) % ring.length]);
+        }
+        return messages;
+    }
+
+    /**
+     * Take one message out of the inbox.
+     *
+     * @param msg the message
+     * @return whether it was there
+     */
+    public synchronized boolean remove(MOOSMsg msg) {
+        if (spill.remove(msg)) {
+            return true;
+        }
+        for (int i = 0; i < count; i++) {
+            if (ring[(head + i) % ring.length] == msg) {
+                for (int j = i + 1; j < count; j++) { // close the gap
+                    ring[(head + j - 1) % ring.length] = ring[(head + j) % ring.length];
+                }
+                ring[(head + count - 1) % ring.length] = null;
+                count--;
+                if (!latestByKey.isEmpty()) { // everything after it has moved
+                    latestByKey.clear();
+                    for (int j = 0; j < count; j++) {
+                        MOOSMsg waiting = ring[(head + j) % ring.length];
+                        if (waiting.isType(MessageType.Notify)) {
+                            latestByKey.put(waiting.getKey(), headSeq + j);
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Throw everything away, e.g. when the connection has gone. This doesn't
+     * count as dropping messages.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < count; i++) {
+            ring[(head + i) % ring.length] = null;
+        }
+        headSeq += count;
+        head = 0;
+        count = 0;
+        spill.clear();
+        latestByKey.clear();
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0 && spill.isEmpty();
+    }
+
+    public synchronized int size() {
+        return count + spill.size();
+    }
+
+    /**
+     * @return whether the client should stop reading from the socket until
+     * the inbox has been drained, which only happens with BLOCK
+     */
+    public synchronized boolean isBlocked() {
+        return overflowPolicy == OverflowPolicy.BLOCK && count == ring.length;
+    }
+
+    public synchronized int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Resize the inbox, keeping the newest messages if it shrinks.
+     *
+     * @param capacity the most messages to hold
+     */
+    public synchronized void setCapacity(int capacity) {
+        ArrayList<MOOSMsg> messages = drain();
+        ring = new MOOSMsg[Math.max(1, capacity)];
+        for (int i = Math.min(messages.size(), ring.length) - 1; i >= 0; i--) {
+            add(messages.get(i));
+        }
+    }
+
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param overflowPolicy what to do when the inbox is full. Messages
+     * already waiting are only conflated with ones that arrive afterwards.
+     */
+    public synchronized void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        latestByKey.clear();
+    }
+
+    /**
+     * @return how many messages have been thrown away because the inbox was
+     * full
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return how many messages have been replaced by a newer one for the
+     * same variable
+     */
+    public synchronized long getConflatedCount() {
+        return conflatedCount;
+    }
+}
@@ -0,0 +1,155 @@
+package MOOS;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in microseconds with log sized buckets: exact
+ * below 16us, then 16 buckets for every power of two, so any percentile is
+ * within about 6% of the real value from 1us up to centuries. Recording is a
+ * few atomic adds and never allocates, and it can be read while it is being
+ * recorded into.
+ */
+public class MOOSLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAdder negative = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param micros a latency. Negative ones, which mean the clocks disagree,
+     * are recorded as 0 and counted by getNegativeCount().
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            negative.increment();
+            micros = 0;
+        }
+        counts.incrementAndGet(bucket(micros));
+        count.increment();
+        total.add(micros);
+        min.accumulate(micros);
+        max.accumulate(micros);
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int mantissa = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * @return the largest value that goes in bucket
+     */
+    static long highestInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the latency in microseconds that percentile of the recorded
+     * ones are at or below, rounded up to the top of its bucket but no more
+     * than getMax(), or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= wanted) {
+                return Math.min(highestInBucket(i), getMax());
+            }
+        }
+        return getMax(); // still being recorded into
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the smallest latency recorded, or 0 if none have been
+     */
+    public long getMin() {
+        return count.sum() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @return how many latencies were negative, i.e. the message was stamped
+     * after it arrived, which means the sender's clock is ahead of ours
+     */
+    public long getNegativeCount() {
+        return negative.sum();
+    }
+
+    /**
+     * Add everything recorded in another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(MOOSLatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.counts.get(i);
+            if (n != 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+        count.add(other.count.sum());
+        total.add(other.total.sum());
+        negative.add(other.negative.sum());
+        if (other.getCount() > 0) {
+            min.accumulate(other.min.get());
+            max.accumulate(other.max.get());
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        negative.reset();
+        min.reset();
+        max.reset();
+    }
+
+    /**
+     * @return the count and the usual percentiles, in microseconds
+     */
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " min=" + getMin() + " p50=" + getPercentile(50)
+                + " p90=" + getPercentile(90) + " p99=" + getPercentile(99)
+                + " p99.9=" + getPercentile(99.9) + " max=" + getMax() + "us";
+    }
+}
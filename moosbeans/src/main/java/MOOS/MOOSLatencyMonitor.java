@@ -0,0 +1,131 @@
+package MOOS;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * End to end latency of received notifications, one MOOSLatencyHistogram
+ * per variable. The latency of a message is the time it arrived less the
+ * time it was stamped with by whoever posted it, so it covers the trip
+ * through the MOOSDB as well as both clients, but it is only as good as the
+ * agreement between the two clocks.
+ *
+ * MOOS times are scaled by the time warp, so both times are divided by it
+ * to get real microseconds. Messages stamped with Utils.currentTime() are
+ * only stamped to the millisecond, so for sub-millisecond figures senders
+ * should stamp them with now() instead. See MOOSCommClient.setRecordLatency().
+ */
+public class MOOSLatencyMonitor {
+
+    /**
+     * Where now() measures nanoTime() from.
+     */
+    private static final class Anchor {
+
+        final long millis;
+        final long nanos;
+
+        Anchor(long millis, long nanos) {
+            this.millis = millis;
+            this.nanos = nanos;
+        }
+    }
+
+    private static volatile Anchor anchor = new Anchor(System.currentTimeMillis(), System.nanoTime());
+
+    private final ConcurrentHashMap<String, MOOSLatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @return the time now in seconds since 1970, to the microsecond or so
+     */
+    public static double now() {
+        // currentTimeMillis() only ticks every millisecond, so add nanoTime() on
+        // to it, starting again whenever the two drift more than a tick apart
+        long nanos = System.nanoTime();
+        long millis = System.currentTimeMillis();
+        Anchor a = anchor;
+        long micros = a.millis * 1000 + (nanos - a.nanos) / 1000;
+        if (micros < millis * 1000 || micros >= (millis + 1) * 1000) {
+            anchor = new Anchor(millis, nanos);
+            micros = millis * 1000;
+        }
+        return micros / 1e6;
+    }
+
+    /**
+     * @param msg a message that has just arrived
+     */
+    public void record(MOOSMsg msg) {
+        record(msg.getKey(), msg.getTime());
+    }
+
+    /**
+     * @param var the variable
+     * @param time the MOOS time the message was stamped with
+     */
+    public void record(String var, double time) {
+        record(var, time, now());
+    }
+
+    /**
+     * @param var the variable
+     * @param time the MOOS time the message was stamped with
+     * @param arrived when it arrived in seconds since 1970, not warped
+     */
+    public void record(String var, double time, double arrived) {
+        double warp = Utils.getMoosTimeWarp();
+        long micros = Math.round((arrived - time / warp) * 1e6);
+        MOOSLatencyHistogram histogram = histograms.get(var);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(var, k -> new MOOSLatencyHistogram());
+        }
+        histogram.record(micros);
+    }
+
+    /**
+     * @param var the variable
+     * @return its histogram, or null if nothing has been received for it
+     */
+    public MOOSLatencyHistogram getHistogram(String var) {
+        return histograms.get(var);
+    }
+
+    /**
+     * @return the variables with a histogram
+     */
+    public Set<String> getVariables() {
+        return histograms.keySet();
+    }
+
+    /**
+     * @return every variable's latencies added together, as a new histogram
+     */
+    public MOOSLatencyHistogram getTotal() {
+        MOOSLatencyHistogram total = new MOOSLatencyHistogram();
+        for (MOOSLatencyHistogram histogram : histograms.values()) {
+            total.add(histogram);
+        }
+        return total;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * @return a line per variable, in name order, with its count and
+     * percentiles
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, MOOSLatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            report.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The newest Notify received for each variable, so anyone wanting "the
+ * current NAV_SPEED" can just ask for it rather than searching the inbox.
+ * Turn it on with MOOSCommClient.setCacheLatestValues(true).
+ *
+ * The client's I/O thread updates it as packets arrive and any thread can
+ * read it; lookups don't take a lock. The MOOSMsgs handed out are the same
+ * objects passed to the message handler, so don't change them.
+ */
+public class MOOSLatestValues {
+
+    private final ConcurrentHashMap<String, MOOSMsg> latest = new ConcurrentHashMap<>();
+
+    /**
+     * Remember msg if it is a Notify at least as new as the one held for its
+     * variable.
+     *
+     * @param msg a message that has just arrived
+     */
+    public void update(MOOSMsg msg) {
+        if (msg.isType(MessageType.Notify) && msg.getKey() != null) {
+            latest.merge(msg.getKey(), msg, (held, arrived) -> arrived.getTime() >= held.getTime() ? arrived : held);
+        }
+    }
+
+    /**
+     * @param var the variable
+     * @return the newest message for var, or null if none has arrived
+     */
+    public MOOSMsg get(String var) {
+        return latest.get(var);
+    }
+
+    public boolean contains(String var) {
+        return latest.containsKey(var);
+    }
+
+    /**
+     * @param var the variable
+     * @param ifAbsent what to return if nothing has arrived for var
+     * @return the newest double value of var
+     */
+    public double getDoubleData(String var, double ifAbsent) {
+        MOOSMsg msg = latest.get(var);
+        return msg == null ? ifAbsent : msg.getDoubleData();
+    }
+
+    /**
+     * @param var the variable
+     * @param ifAbsent what to return if nothing has arrived for var
+     * @return the newest string value of var
+     */
+    public String getStringData(String var, String ifAbsent) {
+        MOOSMsg msg = latest.get(var);
+        return msg == null ? ifAbsent : msg.getStringData();
+    }
+
+    /**
+     * @param var the variable
+     * @return the time of the newest message for var, or NaN if none has
+     * arrived
+     */
+    public double getTime(String var) {
+        MOOSMsg msg = latest.get(var);
+        return msg == null ? Double.NaN : msg.getTime();
+    }
+
+    /**
+     * @param var the variable
+     * @return who posted the newest message for var, or null if none has
+     * arrived
+     */
+    public String getSource(String var) {
+        MOOSMsg msg = latest.get(var);
+        return msg == null ? null : msg.getSource();
+    }
+
+    /**
+     * @return the variables something has arrived for, a live view
+     */
+    public Set<String> getVariables() {
+        return Collections.unmodifiableSet(latest.keySet());
+    }
+
+    /**
+     * @return a copy of the whole cache
+     */
+    public Map<String, MOOSMsg> snapshot() {
+        return new HashMap<>(latest);
+    }
+
+    public void clear() {
+        latest.clear();
+    }
+}
@@ -0,0 +1,317 @@
+package MOOS;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes notifications between MOOSCommClients in the same JVM without
+ * serialising them or sending them through the MOOSDB. A client that has
+ * joined with setLocalBus() still sends everything to the MOOSDB, so
+ * applications elsewhere see it as before, but the clients on the bus that
+ * have registered for a variable get the very MOOSMsg that was posted,
+ * straight into their inbox, and ignore the copy the MOOSDB sends back.
+ *
+ * <pre>
+ * MOOSLocalBus bus = MOOSLocalBus.getDefault();
+ * nav.setLocalBus(bus);
+ * helm.setLocalBus(bus);
+ * helm.register("NAV_X", 0); // gets nav's NAV_X without it going to the MOOSDB and back
+ * </pre>
+ *
+ * Registrations and their intervals mean the same as they do to the MOOSDB,
+ * and a client registering gets the last value posted on the bus, if there
+ * is one. Which copy to ignore is decided by source: a client on the bus
+ * drops Notify messages from the MOOSDB whose source is the name of another
+ * client on the bus, which is why the clients on a bus need different names,
+ * the same as they would for one MOOSDB. Those from clients in other JVMs
+ * on the bus's shared ring are only dropped once the ring has delivered
+ * them, see MOOSSharedRing. Clients with useNameAsSrc turned off
+ * only send what they post with some other source through the MOOSDB, and
+ * clients with a cursor handler only take messages from the MOOSDB.
+ *
+ * Messages are shared, so once posted they mustn't be changed, by whoever
+ * posted them or by whoever gets them.
+ */
+public class MOOSLocalBus {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSLocalBus.class);
+    private static final MOOSLocalBus DEFAULT = new MOOSLocalBus();
+
+    /**
+     * A client's registration for a variable, or for a wildcard.
+     */
+    private static final class Subscription {
+
+        final MOOSCommClient client;
+        final double interval; // seconds of MOOS time, 0 for every notification
+        final String varPattern; // null for a registration for one variable
+        final String appPattern;
+        private final AtomicLong lastSent = new AtomicLong(Long.MIN_VALUE); // nanoTime()
+
+        Subscription(MOOSCommClient client, double interval, String varPattern, String appPattern) {
+            this.client = client;
+            this.interval = interval;
+            this.varPattern = varPattern;
+            this.appPattern = appPattern;
+        }
+
+        /**
+         * @return whether it is long enough since the last one to send msg
+         */
+        boolean due(long now) {
+            if (interval <= 0) {
+                return true;
+            }
+            long last = lastSent.get();
+            long intervalNanos = (long) (interval * 1e9 / Utils.getMoosTimeWarp());
+            if (last != Long.MIN_VALUE && now - last < intervalNanos) {
+                return false;
+            }
+            return lastSent.compareAndSet(last, now); // or another thread has just sent one
+        }
+    }
+
+    private static final Subscription[] NONE = new Subscription[0];
+
+    private final ConcurrentHashMap<String, MOOSCommClient> members = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Subscription[]> byVariable = new ConcurrentHashMap<>(); // copy on write
+    private final MOOSWildcardMatcher<Subscription> wildcards = new MOOSWildcardMatcher<>();
+    private final ConcurrentHashMap<MOOSCommClient, CopyOnWriteArrayList<Subscription>> wildcardsByClient = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MOOSMsg> latest = new ConcurrentHashMap<>(); // last posted on the bus
+    private final LongAdder delivered = new LongAdder();
+    private final MOOSSharedRing ring; // that this bus delivers for, or null
+
+    public MOOSLocalBus() {
+        this(null);
+    }
+
+    /**
+     * @param ring the shared ring this is the bus of, whose members also
+     * count as members
+     */
+    MOOSLocalBus(MOOSSharedRing ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * @return the bus for clients that don't need one of their own
+     */
+    public static MOOSLocalBus getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Called by MOOSCommClient.setLocalBus().
+     *
+     * @throws IllegalArgumentException if another client with the same name
+     * is already on the bus
+     */
+    void join(MOOSCommClient client) {
+        MOOSCommClient existing = members.putIfAbsent(client.getName(), client);
+        if (existing != null && existing != client) {
+            throw new IllegalArgumentException("There is already a client called " + client.getName() + " on the bus");
+        }
+        LOG.debug("{} joined the local bus", client.getName());
+    }
+
+    /**
+     * Called by MOOSCommClient.setLocalBus(), drops all of the client's
+     * registrations.
+     */
+    void leave(MOOSCommClient client) {
+        if (!members.remove(client.getName(), client)) {
+            return;
+        }
+        for (String var : byVariable.keySet()) {
+            unregister(client, var);
+        }
+        List<Subscription> patterns = wildcardsByClient.remove(client);
+        if (patterns != null) {
+            for (Subscription subscription : patterns) {
+                wildcards.remove(subscription.varPattern, subscription.appPattern, subscription);
+            }
+        }
+        LOG.debug("{} left the local bus", client.getName());
+    }
+
+    /**
+     * @param source the source of a notification from the MOOSDB
+     * @param msgID its message ID
+     * @return whether the bus has already delivered it: it was posted by a
+     * client on the bus, or came through the bus's ring from another JVM
+     */
+    boolean isDelivered(String source, int msgID) {
+        return source != null && (members.containsKey(source) || (ring != null && ring.isDelivered(source, msgID)));
+    }
+
+    /**
+     * @param source the source of a message
+     * @return whether it was posted by a client on the bus in this JVM
+     */
+    boolean isLocalMember(String source) {
+        return source != null && members.containsKey(source);
+    }
+
+    /**
+     * @return whether a notification for var would go to anyone, so there is
+     * no need to make a MOOSMsg to publish if not
+     */
+    boolean hasSubscribers(String var) {
+        return byVariable.containsKey(var) || !wildcards.lookup(var).getAll().isEmpty();
+    }
+
+    void register(MOOSCommClient client, String var, double interval) {
+        Subscription subscription = new Subscription(client, interval, null, null);
+        byVariable.compute(var, (k, current) -> {
+            Subscription[] subscriptions = current == null ? NONE : current;
+            int existing = indexOf(subscriptions, client);
+            if (existing >= 0) {
+                subscriptions = subscriptions.clone();
+                subscriptions[existing] = subscription;
+            } else {
+                subscriptions = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+                subscriptions[subscriptions.length - 1] = subscription;
+            }
+            return subscriptions;
+        });
+        MOOSMsg current = latest.get(var);
+        if (current != null) {
+            deliver(subscription, current, System.nanoTime());
+        }
+    }
+
+    void unregister(MOOSCommClient client, String var) {
+        byVariable.computeIfPresent(var, (k, current) -> {
+            int existing = indexOf(current, client);
+            if (existing < 0) {
+                return current;
+            }
+            if (current.length == 1) {
+                return null;
+            }
+            Subscription[] subscriptions = new Subscription[current.length - 1];
+            System.arraycopy(current, 0, subscriptions, 0, existing);
+            System.arraycopy(current, existing + 1, subscriptions, existing, current.length - existing - 1);
+            return subscriptions;
+        });
+    }
+
+    void registerWildcard(MOOSCommClient client, String varPattern, String appPattern, double interval) {
+        unregisterWildcard(client, varPattern, appPattern);
+        Subscription subscription = new Subscription(client, interval, varPattern, appPattern);
+        wildcardsByClient.computeIfAbsent(client, k -> new CopyOnWriteArrayList<>()).add(subscription);
+        wildcards.add(varPattern, appPattern, subscription);
+        long now = System.nanoTime();
+        for (MOOSMsg current : latest.values()) {
+            if (!isRegistered(client, current.getKey())
+                    && MOOSWildcardMatcher.matches(varPattern, current.getKey())
+                    && ("*".equals(appPattern) || MOOSWildcardMatcher.matches(appPattern, current.getSource()))) {
+                deliver(subscription, current, now);
+            }
+        }
+    }
+
+    void unregisterWildcard(MOOSCommClient client, String varPattern, String appPattern) {
+        List<Subscription> patterns = wildcardsByClient.get(client);
+        if (patterns == null) {
+            return;
+        }
+        for (Subscription subscription : patterns) {
+            if (subscription.varPattern.equals(varPattern) && subscription.appPattern.equals(appPattern)) {
+                patterns.remove(subscription);
+                wildcards.remove(varPattern, appPattern, subscription);
+            }
+        }
+    }
+
+    /**
+     * Hand a notification to every client on the bus registered for it,
+     * including the one that posted it if it is.
+     *
+     * @param msg a Notify posted by a client on the bus
+     */
+    void publish(MOOSMsg msg) {
+        String var = msg.getKey();
+        latest.put(var, msg);
+        long now = System.nanoTime();
+        Subscription[] exact = byVariable.getOrDefault(var, NONE);
+        for (Subscription subscription : exact) {
+            deliver(subscription, msg, now);
+        }
+        List<Subscription> matched = wildcards.match(var, msg.getSource());
+        if (!matched.isEmpty()) {
+            Set<MOOSCommClient> done = matched.size() > 1 ? new HashSet<>() : null;
+            for (Subscription subscription : matched) {
+                if (indexOf(exact, subscription.client) >= 0 || (done != null && !done.add(subscription.client))) {
+                    continue; // registered for it exactly, or by an earlier pattern
+                }
+                deliver(subscription, msg, now);
+            }
+        }
+    }
+
+    private void deliver(Subscription subscription, MOOSMsg msg, long now) {
+        if (subscription.due(now) && subscription.client.receiveLocal(msg)) {
+            delivered.increment();
+        }
+    }
+
+    private boolean isRegistered(MOOSCommClient client, String var) {
+        return indexOf(byVariable.getOrDefault(var, NONE), client) >= 0;
+    }
+
+    private static int indexOf(Subscription[] subscriptions, MOOSCommClient client) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].client == client) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the names of the clients on the bus
+     */
+    public Set<String> getMemberNames() {
+        return Collections.unmodifiableSet(new TreeSet<>(members.keySet()));
+    }
+
+    /**
+     * @param var a variable
+     * @return the last notification for var posted on the bus, or null
+     */
+    public MOOSMsg getLatest(String var) {
+        return latest.get(var);
+    }
+
+    /**
+     * @return how many notifications have been handed to clients, counting
+     * each client separately
+     */
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    /**
+     * Forget the last values posted on the bus, e.g. between tests. Clients
+     * and their registrations are kept.
+     */
+    public void clearLatest() {
+        latest.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "MOOSLocalBus" + getMemberNames();
+    }
+}
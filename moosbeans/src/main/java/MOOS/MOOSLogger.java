@@ -0,0 +1,459 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the notifications a MOOSCommClient receives in a .alog file, the
+ * text format pLogger writes and the MOOS log tools read, so a Java
+ * application can log a community without a separate logger process.
+ *
+ * <pre>
+ * MOOSLogger logger = new MOOSLogger(new File("mission.alog"));
+ * MOOSCommClient client = new MOOSCommClient("jLogger", "localhost", 9000);
+ * logger.attach(client); // everything, from everyone
+ * client.setEnable(true);
+ * ...
+ * client.setEnable(false);
+ * logger.close();
+ * </pre>
+ *
+ * The logger is the client's cursor handler, so the I/O thread never makes
+ * a MOOSMsg for what it logs: it copies the Notify messages of each packet,
+ * as they are, into a pooled buffer and queues it, which is all the work the
+ * I/O thread does. A thread of the logger's own takes packets off the queue,
+ * formats them into a large buffer, writes that out when it is full or the
+ * queue has run dry, and forces the file to disk every getSyncInterval(). If
+ * the queue is full, because the disk can't keep up, packets are dropped
+ * and counted rather than holding up the client; size the queue for the
+ * longest stall to ride out.
+ *
+ * Each line is the message's time less the time the log was opened, the
+ * variable, the source (with its aux info after a colon if there is any)
+ * and the value. Line breaks in string values are written as spaces, and
+ * binary values only as their length.
+ */
+public class MOOSLogger implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSLogger.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192; // packets
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20; // bytes
+    private static final int KEY_WIDTH = 20;
+    private static final int SOURCE_WIDTH = 16;
+    private static final int TIME_WIDTH = 10;
+    private static final int NUMBER_SIZE = 40; // room for a formatted double
+    private static final String RULE = "%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%";
+    private static final ByteBuffer WAKE = ByteBuffer.allocate(0); // queued by close()
+
+    private final File file;
+    private final FileChannel channel;
+    private final double logStart; // MOOS time
+    private final ArrayBlockingQueue<ByteBuffer> queue;
+    private final MOOSBufferPool pool;
+    private final ByteBuffer out;
+    private final MOOSMsgCursor cursor = new MOOSMsgCursor(); // the writer's
+    private final Thread writer;
+    private final MoosCursorHandler handler = this::handleMessages; // the same one every time, so it can be told apart
+    private final Set<MOOSCommClient> clients = ConcurrentHashMap.newKeySet(); // to detach from in close()
+    private final LongAdder logged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile long syncIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private long lastSync = System.nanoTime();
+
+    /**
+     * A logger with a queue of DEFAULT_QUEUE_CAPACITY packets and a
+     * DEFAULT_BUFFER_SIZE write buffer.
+     *
+     * @param file the .alog file, which is overwritten if it exists
+     * @throws IOException if it can't be opened
+     */
+    public MOOSLogger(File file) throws IOException {
+        this(file, DEFAULT_QUEUE_CAPACITY, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param file the .alog file, which is overwritten if it exists
+     * @param queueCapacity how many packets can be waiting to be written
+     * before they are dropped
+     * @param bufferSize how much is formatted before each write
+     * @throws IOException if it can't be opened
+     */
+    public MOOSLogger(File file, int queueCapacity, int bufferSize) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.logStart = Utils.currentTime();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.pool = new MOOSBufferPool(false, Math.min(queueCapacity, 256));
+        this.out = ByteBuffer.allocate(Math.max(bufferSize, 4096));
+        try {
+            putHeader();
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        this.writer = new Thread(this::writeLoop, "MOOSLogger-" + file.getName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+        LOG.debug("Logging to {}", file);
+    }
+
+    /**
+     * Log everything client receives. See attach(client, varPattern,
+     * appPattern).
+     */
+    public void attach(MOOSCommClient client) {
+        attach(client, "*", "*");
+    }
+
+    /**
+     * Make this the client's cursor handler and register it for every
+     * variable matching varPattern posted by an application matching
+     * appPattern, at every notification. The client sends the registration
+     * again whenever the MOOSDB welcomes it. Anything else the client has
+     * registered for is logged too, and the client's inbox and message
+     * handler get nothing while it is attached.
+     *
+     * @param client the client to log
+     * @param varPattern wildcard for the variables to log
+     * @param appPattern wildcard for the applications to log them from
+     * @throws IllegalStateException if the client already has a cursor
+     * handler other than this logger, which would stop getting anything
+     */
+    public void attach(MOOSCommClient client, String varPattern, String appPattern) {
+        MoosCursorHandler current = client.getCursorHandler();
+        if (current != null && current != handler) {
+            throw new IllegalStateException(client.getName() + " already has a cursor handler");
+        }
+        clients.add(client);
+        client.setCursorHandler(handler);
+        client.register(varPattern, appPattern, 0);
+    }
+
+    /**
+     * Stop logging client, which goes back to using its inbox. Its
+     * registrations are left as they are, and so is a cursor handler set
+     * since it was attached.
+     */
+    public void detach(MOOSCommClient client) {
+        if (clients.remove(client) && client.getCursorHandler() == handler) {
+            client.setCursorHandler(null);
+        }
+    }
+
+    /**
+     * Queue the Notify messages of a packet to be written. Called on the
+     * client's I/O thread, so it only copies them.
+     *
+     * @param messages a received packet
+     * @return true, whether or not the packet was logged
+     */
+    boolean handleMessages(MOOSMsgCursor messages) {
+        int count = 0;
+        int size = MOOSCommPkt.PACKET_HEADER_SIZE;
+        while (messages.next()) {
+            if (messages.isType(MessageType.Notify)) {
+                count++;
+                size += messages.getMessageSpan();
+            }
+        }
+        if (count == 0) {
+            return true;
+        }
+        if (closed || failure != null || queue.remainingCapacity() == 0) {
+            dropped.add(count);
+            return true;
+        }
+        ByteBuffer packet = pool.acquire(size);
+        packet.putInt(size).putInt(count).put((byte) 0);
+        messages.rewind();
+        while (messages.next()) {
+            if (messages.isType(MessageType.Notify)) {
+                messages.copyMessage(packet);
+            }
+        }
+        if (!queue.offer(packet)) {
+            pool.release(packet);
+            dropped.add(count);
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        try {
+            while (!closed || !queue.isEmpty()) {
+                ByteBuffer first = queue.poll(syncWait(), TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (ByteBuffer packet : batch) {
+                        if (packet != WAKE) {
+                            putPacket(packet);
+                            pool.release(packet);
+                        }
+                    }
+                    batch.clear();
+                }
+                boolean due = System.nanoTime() - lastSync >= syncIntervalNanos;
+                if (queue.isEmpty() || due) {
+                    writeOut(); // otherwise keep filling the buffer
+                }
+                if (due) {
+                    sync();
+                }
+            }
+            writeOut();
+            sync();
+        } catch (IOException ex) {
+            LOG.error("Stopped logging to {}", file, ex);
+            failure = ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (ByteBuffer packet : batch) {
+                pool.release(packet);
+            }
+            ByteBuffer packet;
+            while ((packet = queue.poll()) != null) {
+                if (packet != WAKE) {
+                    dropped.add(packet.getInt(MOOSMsg.INT_SIZE_IN_BYTES));
+                    pool.release(packet);
+                }
+            }
+        }
+    }
+
+    private long syncWait() {
+        return Math.max(1, syncIntervalNanos - (System.nanoTime() - lastSync));
+    }
+
+    private void sync() throws IOException {
+        channel.force(false);
+        lastSync = System.nanoTime();
+    }
+
+    private void writeOut() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            writeOut();
+        }
+    }
+
+    private void putHeader() throws IOException {
+        String header = RULE + "\n"
+                + "%% LOG FILE:       " + file.getPath() + "\n"
+                + "%% FILE OPENED ON  " + new Date() + "\n"
+                + String.format(Locale.ROOT, "%%%% LOGSTART %27.3f\n", logStart)
+                + RULE + "\n";
+        ByteBuffer bytes = ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private void putPacket(ByteBuffer packet) throws IOException {
+        cursor.reset(packet, 0);
+        while (cursor.next()) {
+            putLine();
+            logged.increment();
+        }
+    }
+
+    private void putLine() throws IOException {
+        String key = cursor.getKey();
+        String source = cursor.getSource();
+        String aux = cursor.getSourceAux();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+        byte[] auxBytes = aux.isEmpty() ? null : aux.getBytes(StandardCharsets.UTF_8);
+        ensure(TIME_WIDTH + KEY_WIDTH + SOURCE_WIDTH + keyBytes.length + sourceBytes.length
+                + (auxBytes == null ? 0 : auxBytes.length + 1) + NUMBER_SIZE + 4);
+
+        int start = out.position();
+        putMillis(Math.round((cursor.getTime() - logStart) * 1000));
+        pad(start + TIME_WIDTH);
+        out.put((byte) ' ');
+
+        start = out.position();
+        out.put(keyBytes);
+        pad(start + KEY_WIDTH);
+        out.put((byte) ' ');
+
+        start = out.position();
+        out.put(sourceBytes);
+        if (auxBytes != null) {
+            out.put((byte) ':').put(auxBytes);
+        }
+        pad(start + SOURCE_WIDTH);
+        out.put((byte) ' ');
+
+        if (cursor.isDouble()) {
+            putDouble(cursor.getDoubleData());
+        } else if (cursor.isBinary()) {
+            putAscii("<binary " + cursor.getBinaryLength() + " bytes>");
+        } else {
+            putValue(cursor.getBinaryData());
+        }
+        ensure(1);
+        out.put((byte) '\n');
+    }
+
+    private void pad(int to) {
+        while (out.position() < to) {
+            out.put((byte) ' ');
+        }
+    }
+
+    /**
+     * Seconds to three places, without going through String.format().
+     */
+    private void putMillis(long millis) {
+        if (millis < 0) {
+            out.put((byte) '-');
+            millis = -millis;
+        }
+        putLong(millis / 1000);
+        long fraction = millis % 1000;
+        out.put((byte) '.')
+                .put((byte) ('0' + fraction / 100))
+                .put((byte) ('0' + fraction / 10 % 10))
+                .put((byte) ('0' + fraction % 10));
+    }
+
+    private void putLong(long value) {
+        if (value >= 10) {
+            putLong(value / 10);
+        }
+        out.put((byte) ('0' + value % 10));
+    }
+
+    private void putDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            if (value < 0 || (value == 0 && 1 / value < 0)) {
+                out.put((byte) '-');
+            }
+            putLong(Math.abs((long) value));
+        } else {
+            String s = Double.toString(value);
+            if (s.indexOf('E') >= 0 && Math.abs(value) >= 1e-5 && Math.abs(value) < 1e15) {
+                s = new BigDecimal(s).toPlainString(); // e.g. a time, not 1.7E9
+            }
+            putAscii(s);
+        }
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            out.put((byte) s.charAt(i));
+        }
+    }
+
+    private void putValue(ByteBuffer value) throws IOException {
+        while (value.hasRemaining()) {
+            if (!out.hasRemaining()) {
+                writeOut();
+            }
+            byte b = value.get();
+            out.put(b == '\n' || b == '\r' ? (byte) ' ' : b);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the MOOS time the log was opened, which the times in it are
+     * relative to
+     */
+    public double getLogStart() {
+        return logStart;
+    }
+
+    /**
+     * @return how many messages have been formatted for the file
+     */
+    public long getLoggedCount() {
+        return logged.sum();
+    }
+
+    /**
+     * @return how many messages were dropped because the queue was full, or
+     * the logger was closed or had failed
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return how many packets are waiting to be written
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    public long getSyncInterval(TimeUnit unit) {
+        return unit.convert(syncIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param interval how often the file is forced to disk, which is at most
+     * how much is lost if the machine goes down
+     */
+    public void setSyncInterval(long interval, TimeUnit unit) {
+        this.syncIntervalNanos = Math.max(1, unit.toNanos(interval));
+    }
+
+    /**
+     * Detach from every client, write out what is queued and close the
+     * file.
+     *
+     * @throws IOException if writing the log failed, now or earlier
+     */
+    @Override
+    public void close() throws IOException {
+        for (MOOSCommClient client : clients) {
+            detach(client);
+        }
+        closed = true;
+        queue.offer(WAKE); // if it's full the writer isn't waiting
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package MOOS;
+
+/**
+ * Hears about everything MOOSClientStats counts, as it happens, for feeding
+ * a client's numbers into some other monitoring system. Add one to a client
+ * with getStats().addListener(), or list an implementation in
+ * META-INF/services/MOOS.MOOSMetricsListener and every client gets its own
+ * instance when it is created.
+ *
+ * These are called on the client's I/O thread, or on a handler thread for
+ * handled(), so they need to be quick and thread safe. The stats passed in
+ * say which client it is and have the gauges, e.g. getInboxSize().
+ */
+public interface MOOSMetricsListener {
+
+    /**
+     * @param stats the client's stats
+     * @param messages how many messages were in the packet
+     * @param bytes its length on the wire
+     */
+    public default void packetSent(MOOSClientStats stats, int messages, int bytes) {
+    }
+
+    /**
+     * @param stats the client's stats
+     * @param messages how many messages were in the packet
+     * @param bytes its length on the wire
+     */
+    public default void packetReceived(MOOSClientStats stats, int messages, int bytes) {
+    }
+
+    /**
+     * A message handler, variable handler or cursor handler has returned.
+     *
+     * @param stats the client's stats
+     * @param nanos how long it took
+     */
+    public default void handled(MOOSClientStats stats, long nanos) {
+    }
+
+    /**
+     * One pass of the I/O loop is done.
+     *
+     * @param stats the client's stats
+     * @param nanos how long it took, not counting time spent waiting
+     * @param packets how many packets it received
+     */
+    public default void iterated(MOOSClientStats stats, long nanos, int packets) {
+    }
+
+    /**
+     * The MOOSDB has welcomed the client.
+     *
+     * @param stats the client's stats
+     * @param reconnect whether it had been connected before
+     */
+    public default void connected(MOOSClientStats stats, boolean reconnect) {
+    }
+}
@@ -37,6 +37,8 @@ import static MOOS.Utils.currentTime;
 import MOOS.comms.DataType;
 import MOOS.comms.MessageType;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import org.slf4j.Logger;
@@ -65,6 +67,8 @@ public class MOOSMsg extends java.util.EventObject {
     public static final int INT_SIZE_IN_BYTES = (Integer.SIZE / 8);
     public static final int BYTE_SIZE_IN_BYTES = (Byte.SIZE / 8);
     public static final int DOUBLE_SIZE_IN_BYTES = (Double.SIZE / 8);
+    // how strings are encoded on the wire, whatever the platform's default
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
     // EXTRA FIELDS
     private static boolean DISABLE_AUX_SOURCE = false;
     //Allowable Skew tolerance between MOOSDB time and local time.
@@ -110,6 +114,10 @@ public class MOOSMsg extends java.util.EventObject {
     protected String community;
     // message length in bytes
     protected int msgLength;
+    // varName and source already encoded, e.g. by a MOOSPublisher, so that
+    // sending doesn't have to encode them again. null if they haven't been.
+    transient byte[] keyBytes;
+    transient byte[] sourceBytes;
 
     //////////////////////////////////////////////////////////////////////
     // Construction/Destruction
@@ -221,6 +229,13 @@ public class MOOSMsg extends java.util.EventObject {
         DISABLE_AUX_SOURCE = false;
     }
 
+    /**
+     * @return whether Auxilary Src Data is left out of serialized messages
+     */
+    public static boolean isAUXSourceDataDisabled() {
+        return DISABLE_AUX_SOURCE;
+    }
+
     public void setEventSource(Object src) {
         super.source = src;
     }
@@ -270,6 +285,13 @@ public class MOOSMsg extends java.util.EventObject {
         return this.msgType == messageType;
     }
 
+    /**
+     * @return the message type, MOOS_NOTIFY, REGISTER etc
+     */
+    public MessageType getMessageType() {
+        return msgType;
+    }
+
     /**
      * return time stamp of messag
      *
@@ -317,6 +339,7 @@ public class MOOSMsg extends java.util.EventObject {
 
     public void setSource(String source) {
         this.source = source;
+        this.sourceBytes = null;
     }
 
     public String getSourceAux() {
@@ -336,6 +359,15 @@ public class MOOSMsg extends java.util.EventObject {
         return community;
     }
 
+    /**
+     * A MOOSDB stamps notifications with its community on the way through.
+     *
+     * @param community the name of the community
+     */
+    public void setCommunity(String community) {
+        this.community = community;
+    }
+
     /**
      * set the Double value
      *
@@ -351,26 +383,30 @@ public class MOOSMsg extends java.util.EventObject {
      */
     public int getSizeInBytesWhenSerialised() {
         int sourceLength = 0;
-        if (source != null) {
-            sourceLength = source.getBytes().length;
+        if (sourceBytes != null) {
+            sourceLength = sourceBytes.length;
+        } else if (source != null) {
+            sourceLength = source.getBytes(CHARSET).length;
         }
         int communityLength = 0;
         if (community != null) {
-            communityLength = community.getBytes().length;
+            communityLength = community.getBytes(CHARSET).length;
         }
         int varNameLength = 0;
-        if (varName != null) {
-            varNameLength = varName.getBytes().length;
+        if (keyBytes != null) {
+            varNameLength = keyBytes.length;
+        } else if (varName != null) {
+            varNameLength = varName.getBytes(CHARSET).length;
         }
         int stringDataLength = 0;
         if (isBinary() && binaryData != null) {
             stringDataLength = binaryData.length;
         } else if (stringData != null) {
-            stringDataLength = stringData.getBytes().length;
+            stringDataLength = stringData.getBytes(CHARSET).length;
         }
         int sourceAuxInfoLength = 0;
         if (sourceAuxInfo != null) {
-            sourceAuxInfoLength = sourceAuxInfo.getBytes().length;
+            sourceAuxInfoLength = sourceAuxInfo.getBytes(CHARSET).length;
         }
 
         int nInt = 2 * INT_SIZE_IN_BYTES;
@@ -400,8 +436,9 @@ public class MOOSMsg extends java.util.EventObject {
         if (s == null || s.length() <= 0) {
             msgBuffer.putInt(0);
         } else {
-            msgBuffer.putInt(s.length());
-            msgBuffer.put(s.getBytes());
+            byte[] bytes = s.getBytes(CHARSET);
+            msgBuffer.putInt(bytes.length);
+            msgBuffer.put(bytes);
         }
     }
 
@@ -418,7 +455,7 @@ public class MOOSMsg extends java.util.EventObject {
             byte[] charData = new byte[length];
             binaryData = charData; // always update the binaryData - ends up being the last bit of stringData if it is binary anyway.
             msgBuffer.get(charData);
-            return new String(charData);
+            return new String(charData, CHARSET);
         } else {
             return ""; // decided that returning the empty string may cause problems...
         }
@@ -444,14 +481,22 @@ public class MOOSMsg extends java.util.EventObject {
             msgBuffer.put(this.msgType.getValue());
             msgBuffer.put(this.dataType.getValue());
 
-            putString(msgBuffer, source);
+            if (sourceBytes != null) {
+                msgBuffer.putInt(sourceBytes.length).put(sourceBytes);
+            } else {
+                putString(msgBuffer, source);
+            }
 
             if (!DISABLE_AUX_SOURCE) {
                 putString(msgBuffer, sourceAuxInfo);
             }
 
             putString(msgBuffer, community);
-            putString(msgBuffer, varName);
+            if (keyBytes != null) {
+                msgBuffer.putInt(keyBytes.length).put(keyBytes);
+            } else {
+                putString(msgBuffer, varName);
+            }
 
             msgBuffer.putDouble(time);
             msgBuffer.putDouble(doubleData);
@@ -475,6 +520,7 @@ public class MOOSMsg extends java.util.EventObject {
             }
 
             this.source = this.getString(msgBuffer);
+            this.sourceBytes = null;
 
             if (!DISABLE_AUX_SOURCE) {
                 this.sourceAuxInfo = this.getString(msgBuffer);
@@ -482,6 +528,7 @@ public class MOOSMsg extends java.util.EventObject {
 
             this.community = this.getString(msgBuffer);
             this.varName = this.getString(msgBuffer);
+            this.keyBytes = null;
 
             this.time = msgBuffer.getDouble();
             this.doubleData = msgBuffer.getDouble();
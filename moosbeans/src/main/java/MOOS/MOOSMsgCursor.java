@@ -0,0 +1,360 @@
+package MOOS;
+
+import MOOS.comms.DataType;
+import MOOS.comms.MessageType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A flyweight that walks the messages of a received packet in place.
+ * Decoding a packet with MOOSCommPkt.serialize(list, false) creates a
+ * MOOSMsg, and a String for every string field, for every message whether or
+ * not anyone looks at them. The cursor only records where each field is in
+ * the packet's ByteBuffer; numbers are read straight from the buffer and
+ * Strings are only created when asked for.
+ *
+ * <pre>
+ * cursor.reset(pkt);
+ * while (cursor.next()) {
+ *     if (cursor.keyEquals("NAV_X")) {
+ *         navX = cursor.getDoubleData();
+ *     }
+ * }
+ * </pre>
+ *
+ * A cursor is only valid for as long as the buffer it was reset with is left
+ * untouched; copy out anything that is needed later, or use toMOOSMsg().
+ * Like MOOSCommPkt, Null messages are skipped.
+ */
+public class MOOSMsgCursor {
+
+    private ByteBuffer buffer;
+    private int firstMsgOffset;
+    private int msgCount;
+    private int remainingMsgs;
+    private int nextMsgOffset;
+
+    // the current message
+    private int msgOffset;
+    private int msgLength;
+    private int msgID;
+    private byte msgType;
+    private byte dataType;
+    private int sourceOffset, sourceLength;
+    private int sourceAuxOffset, sourceAuxLength;
+    private int communityOffset, communityLength;
+    private int keyOffset, keyLength;
+    private double time;
+    private double doubleData;
+    private int valueOffset, valueLength;
+
+    /**
+     * Point the cursor at the messages of a packet that has been filled,
+     * i.e. once fill() has returned 0.
+     *
+     * @param pkt the received packet
+     * @return this cursor, positioned before the first message
+     */
+    public MOOSMsgCursor reset(MOOSCommPkt pkt) {
+        return reset(pkt.getBytes(), 0);
+    }
+
+    /**
+     * Point the cursor at a whole packet, header included, that starts at
+     * offset in buffer. The buffer's position and limit are not changed.
+     *
+     * @param packet buffer holding the packet
+     * @param offset index of the first byte of the packet header
+     * @return this cursor, positioned before the first message
+     */
+    public MOOSMsgCursor reset(ByteBuffer packet, int offset) {
+        if (packet.order() != ByteOrder.LITTLE_ENDIAN) {
+            packet.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        this.buffer = packet;
+        this.msgCount = packet.getInt(offset + MOOSMsg.INT_SIZE_IN_BYTES);
+        this.firstMsgOffset = offset + MOOSCommPkt.PACKET_HEADER_SIZE;
+        return rewind();
+    }
+
+    /**
+     * Go back to before the first message of the same packet, to walk it
+     * again.
+     *
+     * @return this cursor
+     */
+    public MOOSMsgCursor rewind() {
+        this.remainingMsgs = msgCount;
+        this.nextMsgOffset = firstMsgOffset;
+        this.msgType = MessageType.Null.getValue();
+        return this;
+    }
+
+    /**
+     * Move on to the next message in the packet.
+     *
+     * @return false once there are no more messages
+     */
+    public boolean next() {
+        while (remainingMsgs > 0) {
+            remainingMsgs--;
+            int offset = nextMsgOffset;
+            msgOffset = offset;
+            msgLength = buffer.getInt(offset);
+            offset += MOOSMsg.INT_SIZE_IN_BYTES;
+            msgID = buffer.getInt(offset);
+            offset += MOOSMsg.INT_SIZE_IN_BYTES;
+            msgType = buffer.get(offset++);
+            dataType = buffer.get(offset++);
+
+            sourceOffset = stringOffset(offset);
+            sourceLength = stringLength(offset);
+            offset = sourceOffset + sourceLength;
+
+            if (!MOOSMsg.isAUXSourceDataDisabled()) {
+                sourceAuxOffset = stringOffset(offset);
+                sourceAuxLength = stringLength(offset);
+                offset = sourceAuxOffset + sourceAuxLength;
+            } else {
+                sourceAuxLength = 0;
+            }
+
+            communityOffset = stringOffset(offset);
+            communityLength = stringLength(offset);
+            offset = communityOffset + communityLength;
+
+            keyOffset = stringOffset(offset);
+            keyLength = stringLength(offset);
+            offset = keyOffset + keyLength;
+
+            time = buffer.getDouble(offset);
+            offset += MOOSMsg.DOUBLE_SIZE_IN_BYTES;
+            doubleData = buffer.getDouble(offset);
+            offset += 2 * MOOSMsg.DOUBLE_SIZE_IN_BYTES; // m_dfVal2 isn't used
+
+            valueOffset = stringOffset(offset);
+            valueLength = stringLength(offset);
+            nextMsgOffset = valueOffset + valueLength;
+
+            if (msgType != MessageType.Null.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int stringOffset(int offset) {
+        return offset + MOOSMsg.INT_SIZE_IN_BYTES;
+    }
+
+    /**
+     * Same rule as MOOSMsg.getString(): a length that doesn't fit in the
+     * buffer is read as an empty string.
+     */
+    private int stringLength(int offset) {
+        int length = buffer.getInt(offset);
+        if (length > 0 && length <= buffer.limit() - stringOffset(offset)) {
+            return length;
+        }
+        return 0;
+    }
+
+    private String string(int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, MOOSMsg.CHARSET);
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, MOOSMsg.CHARSET);
+    }
+
+    private boolean stringEquals(int offset, int length, String s) {
+        if (s.length() != length) {
+            return s.length() < length && string(offset, length).equals(s); // multi-byte characters
+        }
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c > 0x7f) {
+                return string(offset, length).equals(s);
+            }
+            if (buffer.get(offset + i) != (byte) c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * check message type MOOS_NOTIFY, REGISTER etc
+     *
+     * @param messageType
+     * @return True if the type matches the specified message type
+     */
+    public boolean isType(MessageType messageType) {
+        return msgType == messageType.getValue();
+    }
+
+    /**
+     * @return the message type, may throw IllegalArgumentException if the
+     * packet is corrupt
+     */
+    public MessageType getMessageType() {
+        return MessageType.fromByte(msgType);
+    }
+
+    public boolean isDataType(DataType type) {
+        return dataType == type.getValue();
+    }
+
+    /**
+     * @return the data type, may throw IllegalArgumentException if the packet
+     * is corrupt
+     */
+    public DataType getDataType() {
+        return DataType.fromByte(dataType);
+    }
+
+    public boolean isDouble() {
+        return isDataType(DataType.Double);
+    }
+
+    public boolean isString() {
+        return isDataType(DataType.String);
+    }
+
+    public boolean isBinary() {
+        return isDataType(DataType.Binary);
+    }
+
+    public int getMsgID() {
+        return msgID;
+    }
+
+    /**
+     * @return the length of the message as written by the sender
+     */
+    public int getLength() {
+        return msgLength;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public double getDoubleData() {
+        return doubleData;
+    }
+
+    /**
+     * Compare the name of the message without creating a String.
+     *
+     * @param key the variable name to compare against
+     * @return whether this message is for key
+     */
+    public boolean keyEquals(String key) {
+        return stringEquals(keyOffset, keyLength, key);
+    }
+
+    /**
+     * Look the name of the message up without creating a String.
+     *
+     * @param variables the ids to look it up in
+     * @return the id of the name, or -1 if it isn't in variables
+     */
+    public int keyId(MOOSVariableTable variables) {
+        return variables.find(buffer, keyOffset, keyLength);
+    }
+
+    /**
+     * Compare the source of the message without creating a String.
+     *
+     * @param source the application name to compare against
+     * @return whether this message was sent by source
+     */
+    public boolean sourceEquals(String source) {
+        return stringEquals(sourceOffset, sourceLength, source);
+    }
+
+    /**
+     * @return the name of the message. This creates a new String.
+     */
+    public String getKey() {
+        return string(keyOffset, keyLength);
+    }
+
+    /**
+     * @return the name of the process which posted this notification. This
+     * creates a new String.
+     */
+    public String getSource() {
+        return string(sourceOffset, sourceLength);
+    }
+
+    public String getSourceAux() {
+        return string(sourceAuxOffset, sourceAuxLength);
+    }
+
+    public String getCommunity() {
+        return string(communityOffset, communityLength);
+    }
+
+    /**
+     * @return the string value of the message. This creates a new String.
+     */
+    public String getStringData() {
+        return string(valueOffset, valueLength);
+    }
+
+    /**
+     * @return the length in bytes of the string or binary value
+     */
+    public int getBinaryLength() {
+        return valueLength;
+    }
+
+    /**
+     * @return a read only view of the string or binary value. No bytes are
+     * copied, so it is only valid while the packet is.
+     */
+    public ByteBuffer getBinaryData() {
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.limit(valueOffset + valueLength).position(valueOffset);
+        return view.slice();
+    }
+
+    /**
+     * @return how many bytes the current message takes up in the packet
+     */
+    int getMessageSpan() {
+        return nextMsgOffset - msgOffset;
+    }
+
+    /**
+     * Copy the current message, exactly as it is in the packet, into dst,
+     * e.g. to decode it later with a cursor over another packet.
+     *
+     * @param dst where to put it, with at least getMessageSpan() remaining
+     */
+    void copyMessage(ByteBuffer dst) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(nextMsgOffset).position(msgOffset);
+        dst.put(view);
+    }
+
+    /**
+     * @return the current message copied into a new MOOSMsg, the same as
+     * MOOSCommPkt.serialize(list, false) would have produced
+     */
+    public MOOSMsg toMOOSMsg() {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(msgOffset);
+        MOOSMsg msg = new MOOSMsg();
+        msg.serialize(view, false);
+        return msg;
+    }
+}
@@ -0,0 +1,312 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The messages waiting to be sent by a MOOSCommClient. Any number of threads
+ * can offer() messages at once without taking a lock, and the client's I/O
+ * thread drains them in the order they were queued.
+ *
+ * The outbox holds at most getCapacity() messages. What happens to a message
+ * offered to a full outbox depends on the overflow policy.
+ *
+ * The outbox can also conflate Notify messages, for variables posted faster
+ * than they are sent. Only the newest message waiting for a conflated
+ * variable is sent, in the place in the queue of the first one posted since
+ * the last packet went. Conflation is off by default, and can be switched on
+ * for every variable and then switched off again for some, or the other way
+ * round.
+ *
+ * offerAll() queues a batch of messages as one entry, so a batch is always
+ * drained, and so sent, in one go. Batches are never conflated.
+ */
+public class MOOSOutbox {
+
+    /**
+     * What to do when a message is offered to a full outbox.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Refuse the new message, so offer() returns false. This is what the
+         * client has always done.
+         */
+        DROP_NEWEST,
+        /**
+         * Queue the new message and throw away the oldest one waiting, for
+         * when only recent data is any use.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * Holds the newest waiting message of a conflated variable. A slot is in
+     * the queue, once, whenever it holds a message.
+     */
+    private static final class Slot {
+
+        final AtomicReference<MOOSMsg> newest = new AtomicReference<>();
+    }
+
+    /**
+     * Messages that are queued, drained and dropped together.
+     */
+    private static final class Batch {
+
+        final MOOSMsg[] messages;
+
+        Batch(MOOSMsg[] messages) {
+            this.messages = messages;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>(); // MOOSMsgs, Slots and Batches
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Boolean> conflateVariable = new ConcurrentHashMap<>();
+    private volatile boolean conflating = false;
+    private volatile int capacity;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+    /**
+     * @param capacity the most messages to hold
+     */
+    public MOOSOutbox(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queue a message to be sent.
+     *
+     * @param msg the message
+     * @return false if the outbox was full and the message was dropped
+     */
+    public boolean offer(MOOSMsg msg) {
+        Object entry = msg;
+        if (isConflating(msg)) {
+            Slot slot = slots.computeIfAbsent(msg.getKey(), key -> new Slot());
+            if (slot.newest.getAndSet(msg) != null) {
+                conflated.incrementAndGet(); // replaced one that hasn't gone yet
+                return true;
+            }
+            entry = slot;
+        }
+        if (size.incrementAndGet() > capacity && overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+            if (entry == msg || ((Slot) entry).newest.compareAndSet(msg, null)) {
+                size.decrementAndGet();
+                dropped.incrementAndGet();
+                return false;
+            }
+            // someone has just replaced msg in the slot, which must be queued
+            // now or what they posted would never be sent
+        }
+        queue.offer(entry);
+        makeRoom();
+        return true;
+    }
+
+    /**
+     * Queue messages to be sent together, in this order, in the same packet.
+     *
+     * @param messages the messages
+     * @return false if the outbox didn't have room for all of them, in which
+     * case none of them were queued
+     */
+    public boolean offerAll(Collection<MOOSMsg> messages) {
+        if (messages.isEmpty()) {
+            return true;
+        }
+        Batch batch = new Batch(messages.toArray(new MOOSMsg[messages.size()]));
+        int n = batch.messages.length;
+        if (size.addAndGet(n) > capacity && overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+            size.addAndGet(-n);
+            dropped.addAndGet(n);
+            return false;
+        }
+        queue.offer(batch);
+        makeRoom();
+        return true;
+    }
+
+    /**
+     * Drop the oldest entries until the outbox is back within its capacity,
+     * for DROP_OLDEST or when the capacity has just shrunk.
+     */
+    private void makeRoom() {
+        while (size.get() > capacity) {
+            Object oldest = queue.poll();
+            if (oldest == null) {
+                break;
+            }
+            size.addAndGet(-weight(oldest));
+            dropped.addAndGet(take(oldest, null));
+        }
+    }
+
+    private static int weight(Object entry) {
+        return entry instanceof Batch ? ((Batch) entry).messages.length : 1;
+    }
+
+    private boolean isConflating(MOOSMsg msg) {
+        if (!msg.isType(MessageType.Notify) || msg.getKey() == null) {
+            return false;
+        }
+        if (conflateVariable.isEmpty()) {
+            return conflating;
+        }
+        Boolean conflate = conflateVariable.get(msg.getKey());
+        return conflate == null ? conflating : conflate;
+    }
+
+    /**
+     * Take the messages a queue entry stands for, nothing if it is a slot
+     * that has been emptied since.
+     *
+     * @param messages where to put them, or null to throw them away
+     * @return how many messages there were
+     */
+    private static int take(Object entry, Collection<MOOSMsg> messages) {
+        if (entry instanceof Batch) {
+            MOOSMsg[] batch = ((Batch) entry).messages;
+            if (messages != null) {
+                Collections.addAll(messages, batch);
+            }
+            return batch.length;
+        }
+        MOOSMsg msg = entry instanceof Slot ? ((Slot) entry).newest.getAndSet(null) : (MOOSMsg) entry;
+        if (msg == null) {
+            return 0;
+        }
+        if (messages != null) {
+            messages.add(msg);
+        }
+        return 1;
+    }
+
+    /**
+     * Move everything queued so far into messages, oldest first. Meant to be
+     * called by only one thread at a time.
+     *
+     * @param messages where to put them
+     * @return how many messages were moved
+     */
+    public int drainTo(Collection<MOOSMsg> messages) {
+        int count = 0;
+        Object entry;
+        while ((entry = queue.poll()) != null) {
+            size.addAndGet(-weight(entry));
+            count += take(entry, messages);
+        }
+        return count;
+    }
+
+    /**
+     * Throw away everything queued, e.g. when the connection has gone.
+     * Messages cleared this way don't count as dropped.
+     */
+    public void clear() {
+        Object entry;
+        while ((entry = queue.poll()) != null) {
+            size.addAndGet(-weight(entry));
+            take(entry, null);
+        }
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * @return roughly how many messages are waiting, exact unless messages
+     * are being offered or drained at the same time
+     */
+    public int size() {
+        return Math.max(size.get(), 0);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param capacity the most messages to hold. Shrinking the outbox
+     * doesn't drop anything until the next message is offered.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return how many messages have been dropped because the outbox was
+     * full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return how many messages have been replaced by a newer one for the
+     * same variable before they were sent
+     */
+    public long getConflatedCount() {
+        return conflated.get();
+    }
+
+    /**
+     * @return whether variables without a setting of their own are conflated
+     */
+    public boolean isConflating() {
+        return conflating;
+    }
+
+    /**
+     * Conflate, or stop conflating, every variable that hasn't been set with
+     * setConflating(var, ...).
+     *
+     * @param conflating whether to conflate
+     */
+    public void setConflating(boolean conflating) {
+        this.conflating = conflating;
+    }
+
+    /**
+     * Decide for one variable whether it is conflated, whatever
+     * setConflating(boolean) says.
+     *
+     * @param var the variable
+     * @param conflate whether to conflate it, or null to go back to the
+     * setting for every variable
+     */
+    public void setConflating(String var, Boolean conflate) {
+        if (conflate == null) {
+            conflateVariable.remove(var);
+        } else {
+            conflateVariable.put(var, conflate);
+        }
+    }
+
+    /**
+     * @param var the variable
+     * @return whether Notify messages for var are conflated
+     */
+    public boolean isConflating(String var) {
+        Boolean conflate = conflateVariable.get(var);
+        return conflate == null ? conflating : conflate;
+    }
+}
@@ -0,0 +1,182 @@
+package MOOS;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the stream from a MOOSDB back into packets without ever waiting for
+ * the rest of one. Each read() takes whatever the channel has into one
+ * receive buffer, which may be several packets and part of another, and
+ * next() then hands out the complete packets in place. A partial packet just
+ * stays in the buffer until a later read() completes it, so the decoder can
+ * be driven straight from select() wake ups.
+ *
+ * <pre>
+ * decoder.read(channel);
+ * while (decoder.next(pkt)) {
+ *     ...
+ *     pkt.recycle();
+ * }
+ * </pre>
+ *
+ * A packet from next() points into the receive buffer, so it is only valid
+ * until the next read().
+ */
+public class MOOSPktDecoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSPktDecoder.class);
+
+    /**
+     * Size of the receive buffer to start with. It grows if a packet doesn't
+     * fit.
+     */
+    public static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final MOOSBufferPool pool; // may be null
+    private ByteBuffer buffer; // bytes from start up to position() haven't been decoded yet
+    private int start;
+    private int lastLength; // of the last packet next() handed out
+
+    public MOOSPktDecoder() {
+        this(null);
+    }
+
+    /**
+     * @param pool where the receive buffer comes from, may be null
+     */
+    public MOOSPktDecoder(MOOSBufferPool pool) {
+        this.pool = pool;
+        this.buffer = allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    private ByteBuffer allocate(int size) {
+        ByteBuffer data = pool == null ? Utils.allocate(size) : pool.acquire(size);
+        data.clear();
+        return data;
+    }
+
+    /**
+     * Read whatever the channel has available, which may be nothing, without
+     * blocking if it is non-blocking.
+     *
+     * @param channel the channel to read from
+     * @return how many bytes were read
+     * @throws IOException if the read failed
+     * @throws EOFException if the peer has closed the connection
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        makeRoom();
+        int count = channel.read(buffer);
+        if (count < 0) {
+            throw new EOFException("Connection closed by peer");
+        }
+        return count;
+    }
+
+    /**
+     * Make sure there is room after what has been read so far for the rest
+     * of the packet it starts, or for a decent read if that isn't known yet.
+     */
+    private void makeRoom() {
+        int pending = buffer.position() - start;
+        if (pending == 0) {
+            buffer.clear(); // nothing to keep, start again at the front
+            start = 0;
+            return;
+        }
+        int needed = pending >= MOOSMsg.INT_SIZE_IN_BYTES ? Math.max(buffer.getInt(start), pending) : MOOSCommPkt.PACKET_HEADER_SIZE;
+        if (start + needed <= buffer.capacity() && buffer.remaining() >= buffer.capacity() / 4) {
+            return;
+        }
+        if (needed > buffer.capacity()) {
+            if (needed > MOOSCommPkt.DEFAULT_ASSUMMED_MAX_MOOS_MSG_SIZE) {
+                LOG.warn("Packet of {} bytes is bigger than DEFAULT_ASSUMMED_MAX_MOOS_MSG_SIZE", needed);
+            }
+            ByteBuffer bigger = allocate(Math.max(needed, 2 * buffer.capacity()));
+            bigger.put(contents());
+            release();
+            buffer = bigger;
+        } else {
+            ByteBuffer partial = contents();
+            buffer.clear();
+            buffer.put(partial); // only ever the start of one packet, so not much to move
+        }
+        start = 0;
+    }
+
+    private ByteBuffer contents() {
+        ByteBuffer contents = buffer.duplicate();
+        contents.limit(buffer.position()).position(start);
+        return contents;
+    }
+
+    /**
+     * Take the next complete packet out of what has been read.
+     *
+     * @param pkt set to the packet, in place
+     * @return false if there isn't a whole packet yet
+     * @throws NoJavaZipCompressionSupportYetException if the packet is
+     * compressed and can't be decompressed. It has been taken out, so call
+     * next() again to carry on with the one after it.
+     * @throws IOException if the stream doesn't make sense any more, i.e. the
+     * length of a packet is too short to be one
+     */
+    public boolean next(MOOSCommPkt pkt) throws IOException, NoJavaZipCompressionSupportYetException {
+        int available = buffer.position() - start;
+        if (available < MOOSMsg.INT_SIZE_IN_BYTES) {
+            return false;
+        }
+        int length = buffer.getInt(start);
+        if (length < MOOSCommPkt.PACKET_HEADER_SIZE) {
+            throw new IOException("Corrupt MOOS packet length " + length);
+        }
+        if (available < length) {
+            return false;
+        }
+        ByteBuffer packet = buffer.duplicate();
+        packet.limit(start + length).position(start);
+        start += length;
+        lastLength = length;
+        pkt.setReceived(packet.slice().order(ByteOrder.LITTLE_ENDIAN));
+        return true;
+    }
+
+    /**
+     * @return the length on the wire of the last packet next() handed out,
+     * which is less than the packet's own length if it was compressed
+     */
+    public int getLastLength() {
+        return lastLength;
+    }
+
+    /**
+     * @return how many bytes have been read but not yet handed out as
+     * packets
+     */
+    public int getPending() {
+        return buffer.position() - start;
+    }
+
+    /**
+     * Throw away anything read so far, e.g. when the connection has gone.
+     */
+    public void reset() {
+        buffer.clear();
+        start = 0;
+    }
+
+    /**
+     * Give the receive buffer back to the pool. The decoder mustn't be used
+     * afterwards.
+     */
+    public void release() {
+        if (pool != null) {
+            pool.release(buffer);
+        }
+    }
+}
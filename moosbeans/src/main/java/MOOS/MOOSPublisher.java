@@ -0,0 +1,90 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+
+/**
+ * Publishes one variable through a MOOSCommClient. Get one from
+ * MOOSCommClient.publisher(var) and keep hold of it:
+ *
+ * <pre>
+ * MOOSPublisher navX = client.publisher("NAV_X");
+ * ...
+ * navX.publish(x, Utils.currentTime());
+ * </pre>
+ *
+ * The variable is added to the client's publishing list once, when the
+ * handle is made, and its name is encoded once rather than for every message
+ * sent. Doubles go by the client's publishDouble(), so publishing one
+ * creates nothing at all; Strings and arrays go the same way as the client's
+ * notify() for the same variable. It is safe to use from any thread.
+ */
+public class MOOSPublisher {
+
+    private final MOOSCommClient client;
+    private final String var;
+    private final byte[] varBytes;
+    private final int varId; // for publishDouble()
+
+    MOOSPublisher(MOOSCommClient client, String var) {
+        this.client = client;
+        this.var = var;
+        this.varBytes = var.getBytes(MOOSMsg.CHARSET);
+        this.varId = client.getVariables().idOf(var);
+    }
+
+    /**
+     * @return the name of the variable published
+     */
+    public String getName() {
+        return var;
+    }
+
+    /**
+     * @return the client publishing the variable
+     */
+    public MOOSCommClient getClient() {
+        return client;
+    }
+
+    /**
+     * Publish a double value, without creating a MOOSMsg. Like
+     * publishDouble() it isn't conflated, and isn't ordered with respect to
+     * Strings and arrays posted through the outbox.
+     *
+     * @param value the value
+     * @param time the timestamp for the data, or -1 for now
+     * @return whether it was posted, false if the client isn't connected or
+     * too many doubles are already waiting to be sent
+     */
+    public boolean publish(double value, double time) {
+        return client.publishDouble(varId, value, time);
+    }
+
+    /**
+     * Publish a String value.
+     *
+     * @param value the value
+     * @param time the timestamp for the data
+     * @return whether it was posted, false if the client isn't connected
+     */
+    public boolean publish(String value, double time) {
+        return post(new MOOSMsg(MessageType.Notify, var, value, time));
+    }
+
+    /**
+     * Publish a binary value. The array is sent as it is, so it mustn't be
+     * changed afterwards.
+     *
+     * @param value the value
+     * @param time the timestamp for the data
+     * @return whether it was posted, false if the client isn't connected
+     */
+    public boolean publish(byte[] value, double time) {
+        return post(new MOOSMsg(MessageType.Notify, var, value, time));
+    }
+
+    private boolean post(MOOSMsg msg) {
+        msg.keyBytes = varBytes;
+        return client.post(msg);
+    }
+}
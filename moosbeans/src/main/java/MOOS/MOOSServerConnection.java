@@ -0,0 +1,214 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The server's end of a connection from a MOOSCommClient: the handshake,
+ * splitting what arrives into packets and messages, the client saying who
+ * it is, and the strings wildcard registrations come as. A MOOSDB extends
+ * it and says what to do with each message once the client has been
+ * welcomed.
+ *
+ * It is only ever read from one thread at a time, the one the server reads
+ * the connection on, and the hooks are called on that thread.
+ */
+public abstract class MOOSServerConnection {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSServerConnection.class);
+
+    /**
+     * What a client sends first, padded with zeros to HANDSHAKE_SIZE bytes.
+     */
+    public static final String PROTOCOL_STRING = MOOSCommClient.PROTOCOL_STRING;
+    public static final int HANDSHAKE_SIZE = MOOSCommClient.HANDSHAKE_BUFFER_SIZE;
+
+    private final ByteBuffer protocol = ByteBuffer.allocate(HANDSHAKE_SIZE);
+    private final MOOSPktDecoder decoder = new MOOSPktDecoder();
+    private final MOOSCommPkt rxPkt = new MOOSCommPkt();
+    private final ArrayList<MOOSMsg> received = new ArrayList<>();
+    private volatile String name; // null until welcomed
+
+    /**
+     * @return the name the client gave, or null if it hasn't been welcomed
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Read whatever has arrived on channel and handle every complete
+     * message, until there is nothing more to read or the connection has
+     * been closed.
+     *
+     * @param channel the client's channel, non-blocking
+     * @throws IOException if the connection has failed or been closed by the
+     * client, or what it sent doesn't make sense
+     */
+    public void read(ReadableByteChannel channel) throws IOException {
+        if (protocol.hasRemaining()) {
+            if (channel.read(protocol) < 0) {
+                throw new EOFException("Connection closed before the handshake");
+            }
+            if (protocol.hasRemaining()) {
+                return;
+            }
+            String sent = new String(protocol.array(), StandardCharsets.US_ASCII).trim();
+            if (!sent.equals(PROTOCOL_STRING)) {
+                poison("Incompatible wire protocol \"" + sent + "\", expected \"" + PROTOCOL_STRING + "\"");
+                return;
+            }
+        }
+        while (!isClosed()) {
+            try {
+                while (!isClosed() && decoder.next(rxPkt)) {
+                    received.clear();
+                    rxPkt.serialize(received, false);
+                    rxPkt.recycle();
+                    for (int i = 0; i < received.size() && !isClosed(); i++) {
+                        handle(received.get(i));
+                    }
+                }
+            } catch (NoJavaZipCompressionSupportYetException e) {
+                LOG.warn("Dropped a compressed packet from {}", this, e);
+                continue;
+            }
+            if (isClosed() || decoder.read(channel) == 0) {
+                break;
+            }
+        }
+    }
+
+    private void handle(MOOSMsg msg) {
+        if (name == null) {
+            String client = msg.getStringData();
+            if (!msg.isType(MessageType.Data) || client == null || client.isEmpty()) {
+                poison("Expected the client's name, got " + msg);
+                return;
+            }
+            name = client;
+            if (!welcome(client)) {
+                name = null;
+                poison("There is already a client called " + client);
+            }
+            return;
+        }
+        switch (msg.getMessageType()) {
+            case Notify:
+                notified(msg);
+                break;
+            case Register:
+                registered(msg.getKey(), msg.getDoubleData());
+                break;
+            case Unregister:
+                unregistered(msg.getKey());
+                break;
+            case WildcardRegister:
+                Map<String, String> fields = parseWildcard(msg.getStringData());
+                double interval = 0;
+                try {
+                    interval = Double.parseDouble(fields.getOrDefault("Interval", "0"));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring the interval of wildcard registration {} from {}", msg.getStringData(), this);
+                }
+                registeredWildcard(fields.getOrDefault("VarPattern", "*"), fields.getOrDefault("AppPattern", "*"), interval);
+                break;
+            case WildcardUnregister:
+                fields = parseWildcard(msg.getStringData());
+                unregisteredWildcard(fields.getOrDefault("VarPattern", "*"), fields.getOrDefault("AppPattern", "*"));
+                break;
+            case ServerRequest:
+                serverRequest();
+                break;
+            case TerminateConnection:
+                terminated();
+                break;
+            default:
+                break; // keep alives, and anything else a MOOSDB ignores
+        }
+    }
+
+    /**
+     * @param spec what a client sends with WildcardRegister, e.g.
+     * "AppPattern=pNav*,VarPattern=NAV_*,Interval=0.5"
+     * @return the fields of spec by name
+     */
+    static Map<String, String> parseWildcard(String spec) {
+        HashMap<String, String> fields = new HashMap<>();
+        if (spec != null) {
+            for (String field : spec.split(",")) {
+                int equals = field.indexOf('=');
+                if (equals > 0) {
+                    fields.put(field.substring(0, equals).trim(), field.substring(equals + 1).trim());
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Give the receive buffer back, once the connection has been closed.
+     */
+    protected void release() {
+        decoder.release();
+    }
+
+    /**
+     * The client has said who it is. getName() already returns it.
+     *
+     * @param client the client's name
+     * @return false if there is already a client called that, in which case
+     * this one is poisoned
+     */
+    protected abstract boolean welcome(String client);
+
+    /**
+     * Tell the client why it isn't welcome, and drop it.
+     */
+    protected abstract void poison(String reason);
+
+    /**
+     * The client has posted a notification.
+     */
+    protected abstract void notified(MOOSMsg msg);
+
+    protected abstract void registered(String var, double interval);
+
+    protected abstract void unregistered(String var);
+
+    /**
+     * @param varPattern which variables, "*" if the client didn't say
+     * @param appPattern posted by which applications, "*" if the client
+     * didn't say
+     * @param interval the least time between notifications of each
+     * variable, in seconds
+     */
+    protected abstract void registeredWildcard(String varPattern, String appPattern, double interval);
+
+    protected abstract void unregisteredWildcard(String varPattern, String appPattern);
+
+    /**
+     * The client has asked for the current value of everything.
+     */
+    protected abstract void serverRequest();
+
+    /**
+     * The client is going.
+     */
+    protected abstract void terminated();
+
+    /**
+     * @return true once the connection has been closed, or is closing, so
+     * nothing more it sent should be handled
+     */
+    protected abstract boolean isClosed();
+}
@@ -0,0 +1,694 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A ring of MOOS packets in a memory mapped file, so that MOOSCommClients in
+ * different JVMs on the same host can pass notifications to each other
+ * without going through loopback TCP and the MOOSDB. Every client that joins
+ * with MOOSCommClient.setSharedRing() writes the notifications it posts into
+ * the ring, in the same layout as a MOOSCommPkt, as well as sending them to
+ * the MOOSDB, and gets the ones it has registered for out of it.
+ *
+ * <pre>
+ * MOOSSharedRing ring = new MOOSSharedRing(new File("/dev/shm/moos.ring"), 1 &lt;&lt; 24);
+ * imu.setSharedRing(ring);
+ * imu.setSharedRingOnly("IMU_ACCEL", true); // too fast for the MOOSDB, only on the ring
+ * </pre>
+ *
+ * A client on the ring ignores the MOOSDB's copy of a notification that
+ * came through the ring, once the ring has delivered it. Copies are matched
+ * by source and message ID, and the ring is read up to date before deciding,
+ * so nothing is lost when a packet was too big for the ring, couldn't be
+ * written, or was overwritten before a reader got to it, or when the
+ * poster has just left the ring.
+ *
+ * Open one MOOSSharedRing per file in each JVM and give it to all the
+ * clients there; clients in the same JVM share messages by reference through
+ * its local bus (see getBus()) and only other JVMs read them out of the
+ * file. A thread per ring polls it for what other JVMs write, spinning
+ * briefly and then parking for longer and longer while it is quiet, up to
+ * getMaxPark().
+ *
+ * The file is a header, with the write position and the names of the
+ * clients that have joined, then the ring: each packet is a 4 byte length,
+ * the packet, and padding to 8 bytes. Writers take a FileLock on the
+ * header, and only publish the new write position once the packet is in.
+ * Each client that has joined holds a FileLock on its name's slot, so a
+ * name whose slot nobody holds was left by a process that has died.
+ * Readers don't lock anything; a reader that falls more than half the ring
+ * behind may have had packets overwritten, so it skips to the newest and
+ * counts an overrun. Size the ring for the slowest reader.
+ */
+public class MOOSSharedRing implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSSharedRing.class);
+
+    private static final int MAGIC = 0x4D4F4F52; // MOOR
+    private static final int VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int WRITE_POSITION_OFFSET = 64; // a cache line of its own
+    private static final int LOCK_OFFSET = 128; // the byte writers lock
+    static final int MAX_MEMBERS = 64;
+    static final int MEMBER_SIZE = 64; // 4 byte length then the name
+    static final int MEMBERS_OFFSET = 256;
+    static final int HEADER_SIZE = 8192;
+    private static final int PAD = -1; // the rest of the ring is empty, carry on from the start
+    private static final int SPINS = 100; // polls before parking
+    private static final long MIN_PARK = TimeUnit.MICROSECONDS.toNanos(20);
+    private static final int DELIVERED_WINDOW = 4096; // message IDs remembered per source
+
+    /**
+     * Which of the last DELIVERED_WINDOW message IDs from a source the ring
+     * has delivered. IDs go up as a client posts, so the window slides up
+     * with the highest, and one far below it means the client has started
+     * again.
+     */
+    private static final class Delivered {
+
+        private final long[] bits = new long[DELIVERED_WINDOW / 64];
+        private int highest;
+        private boolean empty = true;
+
+        void add(int id) {
+            int ahead = id - highest;
+            if (empty || ahead >= DELIVERED_WINDOW || ahead <= -DELIVERED_WINDOW) {
+                Arrays.fill(bits, 0);
+                highest = id;
+                empty = false;
+            } else {
+                for (int i = 1; i <= ahead; i++) {
+                    clear(highest + i);
+                }
+                if (ahead > 0) {
+                    highest = id;
+                }
+            }
+            bits[(id & (DELIVERED_WINDOW - 1)) >>> 6] |= 1L << id;
+        }
+
+        boolean contains(int id) {
+            int behind = highest - id;
+            return !empty && behind >= 0 && behind < DELIVERED_WINDOW
+                    && (bits[(id & (DELIVERED_WINDOW - 1)) >>> 6] & (1L << id)) != 0;
+        }
+
+        private void clear(int id) {
+            bits[(id & (DELIVERED_WINDOW - 1)) >>> 6] &= ~(1L << id);
+        }
+    }
+
+    /**
+     * Writers in this JVM, by file, since a FileLock is held by the whole
+     * JVM and another thread asking for it while it is held is an error.
+     */
+    private static final ConcurrentHashMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer map; // only ever used with absolute gets and puts
+    private final int capacity;
+    private final int mask;
+    private final Object jvmLock;
+    private final MOOSLocalBus bus = new MOOSLocalBus(this);
+
+    private final Thread reader;
+    private volatile boolean running = true;
+    private volatile long maxParkNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    private final Object readLock = new Object(); // held by whoever is reading, usually the reader thread
+    private long readPosition; // guarded by readLock
+    private ByteBuffer record = Utils.allocate(64 * 1024); // guarded by readLock, what is being read out of the ring
+    private final MOOSMsgCursor cursor = new MOOSMsgCursor(); // guarded by readLock
+    private final HashMap<String, Delivered> delivered = new HashMap<>(); // guarded by readLock, by source
+    private volatile Set<String> members = Collections.emptySet(); // as of the reader's last look at the header
+    private volatile long membersRead; // nanoTime() of that look, 0 to look again
+    private ByteBuffer writeView; // guarded by jvmLock
+    private final HashMap<String, FileLock> memberLocks = new HashMap<>(); // guarded by jvmLock, the slots of the clients attached through this ring
+    private ByteBuffer readView; // guarded by readLock
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+
+    /**
+     * Map a ring file, creating it if it doesn't exist yet.
+     *
+     * @param file where the ring is, ideally on a RAM backed file system
+     * such as /dev/shm
+     * @param capacity the size of the ring in bytes, rounded up to a power of
+     * two. An existing ring keeps the size it was created with.
+     * @throws IOException if the file can't be mapped or isn't a ring
+     */
+    public MOOSSharedRing(File file, int capacity) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        this.jvmLock = JVM_LOCKS.computeIfAbsent(file.getCanonicalPath(), k -> new Object());
+        int size;
+        try {
+            synchronized (jvmLock) {
+                FileLock lock = channel.lock(LOCK_OFFSET, 1, false);
+                try {
+                    ByteBuffer header = Utils.allocate(16);
+                    if (channel.size() < HEADER_SIZE || channel.read(header, 0) < 16 || header.getInt(MAGIC_OFFSET) == 0) {
+                        size = Integer.highestOneBit(Math.max(capacity, 4096) - 1) << 1;
+                        header.clear();
+                        header.putInt(MAGIC_OFFSET, MAGIC).putInt(VERSION_OFFSET, VERSION).putLong(CAPACITY_OFFSET, size);
+                        channel.truncate(0);
+                        channel.write(ByteBuffer.allocate(HEADER_SIZE), 0);
+                        channel.write(header, 0);
+                        raf.setLength((long) HEADER_SIZE + size);
+                    } else if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+                        throw new IOException(file + " isn't a MOOS ring");
+                    } else {
+                        size = (int) header.getLong(CAPACITY_OFFSET);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+            this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEADER_SIZE + size);
+            this.map.order(Utils.BYTE_ORDER);
+        } catch (IOException | RuntimeException ex) {
+            raf.close();
+            throw ex;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        acquireFence();
+        this.readPosition = map.getLong(WRITE_POSITION_OFFSET); // only what is written from now on
+        this.reader = new Thread(this::readLoop, "MOOSSharedRing-" + file.getName());
+        this.reader.setDaemon(true);
+        this.reader.start();
+        LOG.debug("Mapped {} byte ring {}", size, file);
+    }
+
+    /**
+     * @return the bus the ring delivers to, which clients in this JVM that
+     * have joined the ring are on
+     */
+    public MOOSLocalBus getBus() {
+        return bus;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the size of the ring in bytes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the largest packet the ring takes. Anything bigger only goes
+     * to the MOOSDB.
+     */
+    public int getMaxPacketSize() {
+        return capacity / 4 - 8;
+    }
+
+    /**
+     * @return how many packets this JVM has written
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * @return how many packets this JVM has read that other JVMs wrote
+     */
+    public long getReadCount() {
+        return read.get();
+    }
+
+    /**
+     * @return how many times the reader fell so far behind that packets were
+     * overwritten before it got to them
+     */
+    public long getOverrunCount() {
+        return overruns.get();
+    }
+
+    /**
+     * @return the longest the reader parks for while the ring is quiet
+     */
+    public long getMaxPark(TimeUnit unit) {
+        return unit.convert(maxParkNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param maxPark the longest the reader parks for while the ring is
+     * quiet, i.e. the most latency it adds after a lull. Shorter costs more
+     * CPU while nothing is happening.
+     */
+    public void setMaxPark(long maxPark, TimeUnit unit) {
+        this.maxParkNanos = Math.max(MIN_PARK, unit.toNanos(maxPark));
+    }
+
+    /**
+     * Write a packet into the ring.
+     *
+     * @param segments the packet, e.g. from MOOSCommPkt.gatherEnd(). Their
+     * positions are left where they were.
+     * @return false if the packet is bigger than getMaxPacketSize()
+     * @throws IOException if the file can't be locked
+     */
+    public boolean write(ByteBuffer... segments) throws IOException {
+        int length = 0;
+        for (ByteBuffer segment : segments) {
+            length += segment.remaining();
+        }
+        if (length > getMaxPacketSize()) {
+            return false;
+        }
+        int recordLength = align(4 + length);
+        synchronized (jvmLock) {
+            FileLock lock = channel.lock(LOCK_OFFSET, 1, false);
+            try {
+                long position = map.getLong(WRITE_POSITION_OFFSET);
+                int offset = (int) (position & mask);
+                if (offset + recordLength > capacity) {
+                    map.putInt(HEADER_SIZE + offset, PAD);
+                    position += capacity - offset;
+                    offset = 0;
+                }
+                if (writeView == null) {
+                    writeView = map.duplicate();
+                }
+                writeView.clear().position(HEADER_SIZE + offset + 4);
+                for (ByteBuffer segment : segments) {
+                    writeView.put(segment.duplicate());
+                }
+                map.putInt(HEADER_SIZE + offset, length);
+                releaseFence(); // the packet is in before anyone can see the new position
+                map.putLong(WRITE_POSITION_OFFSET, position + recordLength);
+            } finally {
+                lock.release();
+            }
+        }
+        written.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Put a client's name in the header, so that other JVMs know its
+     * notifications come through the ring too. The client holds a lock on
+     * the name's slot until it detaches, and the operating system lets go of
+     * it if the process dies, so names left behind by processes that have
+     * died are found and taken out here.
+     */
+    void attach(String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MEMBER_SIZE - 4) {
+            throw new IllegalArgumentException("Name too long for the ring: " + name);
+        }
+        synchronized (jvmLock) {
+            FileLock lock = channel.lock(LOCK_OFFSET, 1, false);
+            try {
+                int free = -1;
+                for (int i = 0; i < MAX_MEMBERS; i++) {
+                    String member = member(i);
+                    if (member != null && !isAlive(i)) {
+                        LOG.debug("Removing {}, left behind in {} by a process that has gone", member, file);
+                        map.putInt(MEMBERS_OFFSET + i * MEMBER_SIZE, 0);
+                        member = null;
+                    }
+                    if (name.equals(member)) {
+                        return; // already there
+                    }
+                    if (member == null && free < 0) {
+                        free = i;
+                    }
+                }
+                FileLock held = free < 0 ? null : channel.tryLock(MEMBERS_OFFSET + free * MEMBER_SIZE, 1, false);
+                if (held == null) {
+                    throw new IOException("No room for " + name + " in " + file);
+                }
+                memberLocks.put(name, held);
+                int at = MEMBERS_OFFSET + free * MEMBER_SIZE;
+                for (int i = 0; i < bytes.length; i++) {
+                    map.put(at + 4 + i, bytes[i]);
+                }
+                releaseFence();
+                map.putInt(at, bytes.length);
+            } finally {
+                lock.release();
+            }
+        }
+        membersRead = 0; // look again
+    }
+
+    /**
+     * Take a client's name out of the header.
+     */
+    void detach(String name) throws IOException {
+        synchronized (jvmLock) {
+            FileLock held = memberLocks.remove(name);
+            if (held == null) {
+                return; // not attached through this ring
+            }
+            FileLock lock = channel.lock(LOCK_OFFSET, 1, false);
+            try {
+                map.putInt((int) held.position(), 0);
+                held.release();
+            } finally {
+                lock.release();
+            }
+        }
+        membersRead = 0;
+    }
+
+    /**
+     * @return whether the client whose name is in slot is still attached,
+     * i.e. something holds the lock on the slot. Only called holding
+     * jvmLock and the header lock.
+     */
+    private boolean isAlive(int slot) {
+        try {
+            FileLock lock = channel.tryLock(MEMBERS_OFFSET + slot * MEMBER_SIZE, 1, false);
+            if (lock == null) {
+                return true; // held by another process
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException ex) {
+            return true; // held in this JVM
+        } catch (IOException ex) {
+            return true; // can't tell, so don't drop it
+        }
+    }
+
+    private String member(int slot) {
+        int at = MEMBERS_OFFSET + slot * MEMBER_SIZE;
+        int length = map.getInt(at);
+        if (length <= 0 || length > MEMBER_SIZE - 4) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = map.get(at + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the names of the clients, in any JVM, that have joined the
+     * ring, as of the last time the reader looked
+     */
+    public Set<String> getMemberNames() {
+        return members;
+    }
+
+    /**
+     * Whether the ring has delivered a notification from another JVM, so
+     * the MOOSDB's copy is to be ignored. Whatever has been written to the
+     * ring is read first: the poster writes to the ring before sending to
+     * the MOOSDB, so by the time the MOOSDB's copy arrives the ring has it,
+     * if it is ever going to.
+     *
+     * @param source the notification's source
+     * @param msgID its message ID
+     * @return whether it came through the ring
+     */
+    boolean isDelivered(String source, int msgID) {
+        synchronized (readLock) {
+            Delivered ids = delivered.get(source);
+            if (ids != null && ids.contains(msgID)) {
+                return true;
+            }
+            while (readNextOrSkip()) {
+                // catching up
+            }
+            ids = delivered.get(source);
+            return ids != null && ids.contains(msgID);
+        }
+    }
+
+    /**
+     * Look at who has joined. Slots are only tried under the header lock, as
+     * in attach(), so a slot being looked at here is never one attach() is
+     * about to take.
+     */
+    private void readMembers() {
+        TreeSet<String> names = new TreeSet<>();
+        try {
+            synchronized (jvmLock) {
+                FileLock lock = channel.lock(LOCK_OFFSET, 1, false);
+                try {
+                    acquireFence();
+                    for (int i = 0; i < MAX_MEMBERS; i++) {
+                        String member = member(i);
+                        if (member != null && isAlive(i)) { // the next attach() takes out any that aren't
+                            names.add(member);
+                        }
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException ex) {
+            LOG.debug("Couldn't look at the members of {}", file, ex);
+            return; // try again next time
+        }
+        if (!names.equals(members)) {
+            members = Collections.unmodifiableSet(names);
+        }
+        membersRead = System.nanoTime();
+    }
+
+    private void readLoop() {
+        long park = MIN_PARK;
+        int idle = 0;
+        while (running) {
+            try {
+                if (System.nanoTime() - membersRead > TimeUnit.MILLISECONDS.toNanos(100) || membersRead == 0) {
+                    readMembers();
+                }
+                if (readNextOrSkip()) {
+                    idle = 0;
+                    park = MIN_PARK;
+                } else if (++idle > SPINS) {
+                    LockSupport.parkNanos(this, park);
+                    park = Math.min(park * 2, maxParkNanos);
+                } else {
+                    Thread.yield();
+                }
+            } catch (RuntimeException ex) {
+                LOG.warn("Reading {}", file, ex);
+            }
+        }
+    }
+
+    /**
+     * readNext(), skipping to the newest packet if the next doesn't make
+     * sense.
+     */
+    private boolean readNextOrSkip() {
+        synchronized (readLock) {
+            try {
+                return readNext();
+            } catch (RuntimeException ex) {
+                LOG.warn("Skipping a bad packet in {}", file, ex);
+                readPosition = map.getLong(WRITE_POSITION_OFFSET);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Read the next packet out of the ring, if there is one, and hand the
+     * notifications in it that other JVMs wrote to the bus.
+     *
+     * @return whether there was one
+     */
+    boolean readNext() {
+        synchronized (readLock) {
+            long writePosition = map.getLong(WRITE_POSITION_OFFSET);
+            acquireFence(); // the packets up to writePosition are in
+            if (writePosition == readPosition) {
+                return false;
+            }
+            if (writePosition - readPosition > maxLag()) {
+                overrun(writePosition);
+                return true;
+            }
+            int offset = (int) (readPosition & mask);
+            int length = map.getInt(HEADER_SIZE + offset);
+            if (length == PAD) {
+                readPosition += capacity - offset;
+                return true;
+            }
+            if (length < MOOSCommPkt.PACKET_HEADER_SIZE || length > getMaxPacketSize()) {
+                throw new IllegalStateException("Packet of " + length + " bytes at " + readPosition);
+            }
+            if (record.capacity() < length) {
+                record = Utils.allocate(Integer.highestOneBit(length) << 1);
+            }
+            if (readView == null) {
+                readView = map.duplicate();
+            }
+            int at = HEADER_SIZE + offset + 4;
+            readView.clear().position(at).limit(at + length);
+            record.clear();
+            record.put(readView).flip();
+            acquireFence();
+            long after = map.getLong(WRITE_POSITION_OFFSET);
+            if (after - readPosition > maxLag()) {
+                overrun(after); // it may have been overwritten while being copied
+                return true;
+            }
+            readPosition += align(4 + length);
+            deliver();
+            return true;
+        }
+    }
+
+    private void overrun(long writePosition) {
+        overruns.incrementAndGet();
+        LOG.debug("Fell {} bytes behind in {}, skipping ahead", writePosition - readPosition, file);
+        readPosition = writePosition;
+    }
+
+    private void deliver() {
+        cursor.reset(record, 0);
+        boolean counted = false;
+        while (cursor.next()) {
+            if (!cursor.isType(MessageType.Notify)) {
+                continue;
+            }
+            String source = cursor.getSource();
+            if (bus.isLocalMember(source)) {
+                continue; // written by this JVM, the bus has had it already
+            }
+            delivered.computeIfAbsent(source, k -> new Delivered()).add(cursor.getMsgID());
+            if (!counted) {
+                read.incrementAndGet();
+                counted = true;
+            }
+            String var = cursor.getKey();
+            if (bus.hasSubscribers(var)) {
+                bus.publish(cursor.toMOOSMsg());
+            }
+        }
+    }
+
+    /**
+     * @return how far the reader can be behind the published write position
+     * without what it is reading being overwritten. A writer part way
+     * through can have written up to two of the biggest records past it:
+     * padding almost one to the end of the ring, then the record itself at
+     * the start.
+     */
+    private long maxLag() {
+        return capacity - 2L * align(4 + getMaxPacketSize());
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * Stop reading and unmap the ring. The file is left for anyone else
+     * using it.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(reader);
+        try {
+            reader.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            raf.close();
+        } catch (IOException ex) {
+            LOG.debug("Closing {}", file, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MOOSSharedRing[" + file + "]";
+    }
+
+    // Java 8 has no fences of its own, so use VarHandle's where there is one
+    // and otherwise sun.misc.Unsafe's, as MOOSDispatcher does for virtual threads
+    private static final MethodHandle RELEASE_FENCE = fence("releaseFence", "storeFence");
+    private static final MethodHandle ACQUIRE_FENCE = fence("acquireFence", "loadFence");
+    private static volatile int fallbackFence;
+
+    private static MethodHandle fence(String varHandleMethod, String unsafeMethod) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType type = MethodType.methodType(void.class);
+        try {
+            return lookup.findStatic(Class.forName("java.lang.invoke.VarHandle"), varHandleMethod, type);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Java 8
+        }
+        try {
+            Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            return lookup.findVirtual(unsafe.getClass(), unsafeMethod, type).bindTo(unsafe);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            LOG.warn("No memory fences, falling back to volatile accesses", ex);
+            return null;
+        }
+    }
+
+    private static void releaseFence() {
+        if (RELEASE_FENCE == null) {
+            fallbackFence = 0;
+            return;
+        }
+        try {
+            RELEASE_FENCE.invokeExact();
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void acquireFence() {
+        if (ACQUIRE_FENCE == null) {
+            int unused = fallbackFence;
+            return;
+        }
+        try {
+            ACQUIRE_FENCE.invokeExact();
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package MOOS;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Gives each variable name a small int id, along with its encoded bytes, so
+ * the primitive double path can publish by id and look up received names
+ * straight from the packet buffer without creating a String.
+ *
+ * Ids are handed out in order from 0 and never reused. Adding a name copies
+ * the table under a lock and is meant to happen up front; looking names up
+ * never takes a lock, so it is safe on the I/O thread while other threads
+ * add names.
+ */
+public class MOOSVariableTable {
+
+    /**
+     * An immutable version of the table, replaced whenever a name is added.
+     */
+    private static final class Table {
+
+        final String[] names;
+        final byte[][] bytes;
+        final boolean[] doubles; // which ids go to the double handler
+        final int[] slots; // open addressing on the name's bytes, id + 1, 0 for empty
+
+        Table(String[] names, byte[][] bytes, boolean[] doubles, int[] slots) {
+            this.names = names;
+            this.bytes = bytes;
+            this.doubles = doubles;
+            this.slots = slots;
+        }
+    }
+
+    private volatile Table table = new Table(new String[0], new byte[0][], new boolean[0], new int[16]);
+
+    /**
+     * @param name a variable name
+     * @return its id, which is added if it isn't there already
+     */
+    public int idOf(String name) {
+        int id = find(name);
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (this) {
+            id = find(name);
+            if (id < 0) {
+                id = add(name);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @param name a variable name
+     * @return its id, or -1 if it hasn't been added
+     */
+    public int find(String name) {
+        byte[] key = name.getBytes(MOOSMsg.CHARSET);
+        return find(ByteBuffer.wrap(key), 0, key.length);
+    }
+
+    /**
+     * Look up a name from its encoded bytes, e.g. in a received packet. The
+     * buffer's position and limit are not changed.
+     *
+     * @param buffer holds the name
+     * @param offset index of the first byte of the name
+     * @param length length of the name in bytes
+     * @return the name's id, or -1 if it hasn't been added
+     */
+    public int find(ByteBuffer buffer, int offset, int length) {
+        Table t = table;
+        int mask = t.slots.length - 1;
+        for (int i = hash(buffer, offset, length) & mask;; i = (i + 1) & mask) {
+            int slot = t.slots[i];
+            if (slot == 0) {
+                return -1;
+            }
+            if (equals(t.bytes[slot - 1], buffer, offset, length)) {
+                return slot - 1;
+            }
+        }
+    }
+
+    private int add(String name) {
+        Table t = table;
+        int id = t.names.length;
+        String[] names = Arrays.copyOf(t.names, id + 1);
+        byte[][] bytes = Arrays.copyOf(t.bytes, id + 1);
+        boolean[] doubles = Arrays.copyOf(t.doubles, id + 1);
+        names[id] = name;
+        bytes[id] = name.getBytes(MOOSMsg.CHARSET);
+        int[] slots = t.slots;
+        if (2 * (id + 1) > slots.length) { // keep it at most half full
+            slots = new int[2 * slots.length];
+            for (int i = 0; i < id; i++) {
+                insert(slots, bytes[i], i);
+            }
+        } else {
+            slots = slots.clone();
+        }
+        insert(slots, bytes[id], id);
+        table = new Table(names, bytes, doubles, slots);
+        return id;
+    }
+
+    private static void insert(int[] slots, byte[] key, int id) {
+        int mask = slots.length - 1;
+        int i = hash(ByteBuffer.wrap(key), 0, key.length) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = id + 1;
+    }
+
+    private static int hash(ByteBuffer buffer, int offset, int length) {
+        int h = 0x811c9dc5; // FNV-1a
+        for (int i = 0; i < length; i++) {
+            h = (h ^ buffer.get(offset + i)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(byte[] key, ByteBuffer buffer, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != buffer.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param id a variable id
+     * @return its name
+     * @throws IndexOutOfBoundsException if there is no such id
+     */
+    public String nameOf(int id) {
+        return table.names[id];
+    }
+
+    /**
+     * @param id a variable id
+     * @return its name encoded as it goes in a packet. Don't change it.
+     * @throws IndexOutOfBoundsException if there is no such id
+     */
+    public byte[] bytesOf(int id) {
+        return table.bytes[id];
+    }
+
+    /**
+     * @return how many names have been added, which is also the next id
+     */
+    public int size() {
+        return table.names.length;
+    }
+
+    /**
+     * Mark a variable's Double notifications as going to the client's
+     * MoosDoubleHandler.
+     *
+     * @param id a variable id
+     */
+    public synchronized void setDouble(int id) {
+        Table t = table;
+        if (!t.doubles[id]) {
+            boolean[] doubles = t.doubles.clone();
+            doubles[id] = true;
+            table = new Table(t.names, t.bytes, doubles, t.slots);
+        }
+    }
+
+    /**
+     * @param id a variable id
+     * @return whether its Double notifications go to the MoosDoubleHandler
+     */
+    public boolean isDouble(int id) {
+        boolean[] doubles = table.doubles;
+        return id >= 0 && id < doubles.length && doubles[id];
+    }
+}
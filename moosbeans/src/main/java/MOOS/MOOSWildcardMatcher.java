@@ -0,0 +1,436 @@
+package MOOS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Matches variable names and sources against many wildcard registrations at
+ * once, the AppPattern and VarPattern pairs of
+ * MOOSCommClient.register(varPattern, appPattern, interval), where * is any
+ * run of characters and ? is any one character.
+ *
+ * Rather than trying each pattern in turn, the variable patterns are built
+ * into one trie, with * and ? as edges of their own, and a name is run
+ * through it as an automaton: one pass over the name finds every pattern it
+ * matches, however many there are, and patterns that share a prefix share
+ * the work. What a name matched is then remembered until the patterns
+ * change, so after the first message for a variable a lookup is a hash map
+ * get. Application patterns are only tried for the variable patterns that
+ * matched, and also remembered per source.
+ *
+ * <pre>
+ * matcher.add("NAV_*", "*", handler);
+ * for (Handler h : matcher.match(msg.getKey(), msg.getSource())) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * Patterns can be added and removed from any thread. Each change throws the
+ * compiled automaton and what was remembered away, and the next lookup
+ * builds it again, so changes are much dearer than lookups.
+ *
+ * @param <T> what is registered with each pair of patterns
+ */
+public class MOOSWildcardMatcher<T> {
+
+    /**
+     * Names remembered per compiled automaton. Past this lookups still
+     * work, they just aren't remembered.
+     */
+    static final int MAX_REMEMBERED = 100000;
+
+    private static final class Entry<T> {
+
+        final String varPattern;
+        final String appPattern;
+        final boolean anyApp;
+        final T value;
+        final long order; // when it was added
+
+        Entry(String varPattern, String appPattern, T value, long order) {
+            this.order = order;
+            this.varPattern = varPattern;
+            this.appPattern = appPattern;
+            this.anyApp = "*".equals(appPattern);
+            this.value = value;
+        }
+    }
+
+    /**
+     * A state of the automaton: a node of the trie.
+     */
+    private static final class Node {
+
+        final int id;
+        final boolean star; // reached by a *, so it can consume any character and stay put
+        char[] keys = new char[0]; // sorted
+        Node[] children = new Node[0];
+        Node any; // the ? edge
+        Node starChild; // the * edge, taken without consuming anything
+        Entry<?>[] entries; // registrations whose pattern ends here, in the order they were added
+
+        Node(int id, boolean star) {
+            this.id = id;
+            this.star = star;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+    }
+
+    /**
+     * What a variable name matched.
+     *
+     * @param <T> what is registered with each pair of patterns
+     */
+    public static final class Matches<T> {
+
+        private final List<T> all;
+        private final List<T> any;
+        private final List<Entry<T>> bySource;
+        private final ConcurrentHashMap<String, List<T>> sources = new ConcurrentHashMap<>();
+
+        Matches(List<T> all, List<T> any, List<Entry<T>> bySource) {
+            this.all = all;
+            this.any = any;
+            this.bySource = bySource;
+        }
+
+        /**
+         * @return everything registered with a variable pattern the name
+         * matched, whatever its application pattern
+         */
+        public List<T> getAll() {
+            return all;
+        }
+
+        /**
+         * @return everything registered for the name from any application
+         */
+        public List<T> getAnySource() {
+            return any;
+        }
+
+        /**
+         * @return whether anything registered for the name depends on the
+         * source, i.e. whether getForSource() can return anything
+         */
+        public boolean dependsOnSource() {
+            return !bySource.isEmpty();
+        }
+
+        /**
+         * @param source the application that posted the message
+         * @return what is registered for the name from source in particular,
+         * not including getAnySource()
+         */
+        public List<T> getForSource(String source) {
+            if (bySource.isEmpty() || source == null) {
+                return Collections.emptyList();
+            }
+            List<T> matched = sources.get(source);
+            if (matched == null) {
+                ArrayList<T> values = new ArrayList<>();
+                for (int i = 0; i < bySource.size(); i++) {
+                    Entry<T> entry = bySource.get(i);
+                    if (matches(entry.appPattern, source)) {
+                        values.add(entry.value);
+                    }
+                }
+                matched = values.isEmpty() ? Collections.<T>emptyList() : Collections.unmodifiableList(values);
+                if (sources.size() < MAX_REMEMBERED) {
+                    sources.put(source, matched);
+                }
+            }
+            return matched;
+        }
+
+        /**
+         * @param source the application that posted the message
+         * @return everything registered for the name from source
+         */
+        public List<T> get(String source) {
+            List<T> forSource = getForSource(source);
+            if (forSource.isEmpty()) {
+                return any;
+            }
+            if (any.isEmpty()) {
+                return forSource;
+            }
+            ArrayList<T> both = new ArrayList<>(any.size() + forSource.size());
+            both.addAll(any);
+            both.addAll(forSource);
+            return both;
+        }
+    }
+
+    /**
+     * The automaton for the patterns as they were when it was built, and the
+     * names it has matched since.
+     */
+    private static final class Compiled<T> {
+
+        final Node root;
+        final int size; // nodes
+        final ConcurrentHashMap<String, Matches<T>> remembered = new ConcurrentHashMap<>();
+
+        Compiled(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+    }
+
+    private final ArrayList<Entry<T>> entries = new ArrayList<>(); // guarded by this
+    private long added; // guarded by this
+    private volatile Compiled<T> compiled; // null when the patterns have changed since it was built
+    private final Matches<T> none = newMatches(Collections.<Entry<T>>emptyList());
+
+    /**
+     * @param varPattern pattern for the variable names
+     * @param appPattern pattern for the sources, "*" for any
+     * @param value what to return for names and sources that match
+     */
+    public synchronized void add(String varPattern, String appPattern, T value) {
+        entries.add(new Entry<>(varPattern, appPattern, value, added++));
+        compiled = null;
+    }
+
+    /**
+     * @return whether value had been added with these patterns. Only the
+     * first one is removed if it was added more than once.
+     */
+    public synchronized boolean remove(String varPattern, String appPattern, T value) {
+        for (int i = 0; i < entries.size(); i++) {
+            Entry<T> entry = entries.get(i);
+            if (entry.varPattern.equals(varPattern) && entry.appPattern.equals(appPattern) && Objects.equals(entry.value, value)) {
+                entries.remove(i);
+                compiled = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param value what to remove
+     * @return how many pairs of patterns value had been added with
+     */
+    public synchronized int removeAll(T value) {
+        int before = entries.size();
+        entries.removeIf(entry -> Objects.equals(entry.value, value));
+        if (entries.size() != before) {
+            compiled = null;
+        }
+        return before - entries.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param var a variable name
+     * @return what var matched
+     */
+    public Matches<T> lookup(String var) {
+        Compiled<T> current = compiled;
+        if (current == null) {
+            current = compile();
+        }
+        if (current.root == null) {
+            return none;
+        }
+        Matches<T> matches = current.remembered.get(var);
+        if (matches == null) {
+            matches = newMatches(run(current, var));
+            if (current.remembered.size() < MAX_REMEMBERED) {
+                current.remembered.put(var, matches);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @param var a variable name
+     * @param source the application that posted it
+     * @return everything registered for var from source
+     */
+    public List<T> match(String var, String source) {
+        return lookup(var).get(source);
+    }
+
+    private synchronized Compiled<T> compile() {
+        Compiled<T> current = compiled;
+        if (current != null) {
+            return current; // another thread got here first
+        }
+        if (entries.isEmpty()) {
+            current = new Compiled<>(null, 0);
+        } else {
+            int[] size = {1};
+            Node root = new Node(0, false);
+            HashMap<Node, Map<Character, Node>> children = new HashMap<>();
+            HashMap<Node, List<Entry<?>>> ends = new HashMap<>();
+            for (Entry<T> entry : entries) {
+                Node node = root;
+                for (int i = 0; i < entry.varPattern.length(); i++) {
+                    char c = entry.varPattern.charAt(i);
+                    if (c == '*') {
+                        if (node.starChild == null) {
+                            node.starChild = new Node(size[0]++, true);
+                        }
+                        node = node.starChild;
+                    } else if (c == '?') {
+                        if (node.any == null) {
+                            node.any = new Node(size[0]++, false);
+                        }
+                        node = node.any;
+                    } else {
+                        node = children.computeIfAbsent(node, k -> new HashMap<>())
+                                .computeIfAbsent(c, k -> new Node(size[0]++, false));
+                    }
+                }
+                ends.computeIfAbsent(node, k -> new ArrayList<>()).add(entry);
+            }
+            for (Map.Entry<Node, Map<Character, Node>> edges : children.entrySet()) {
+                Node node = edges.getKey();
+                int n = edges.getValue().size();
+                node.keys = new char[n];
+                node.children = new Node[n];
+                int i = 0;
+                for (Character c : new TreeSet<>(edges.getValue().keySet())) {
+                    node.keys[i] = c;
+                    node.children[i++] = edges.getValue().get(c);
+                }
+            }
+            for (Map.Entry<Node, List<Entry<?>>> end : ends.entrySet()) {
+                end.getKey().entries = end.getValue().toArray(new Entry<?>[0]);
+            }
+            current = new Compiled<>(root, size[0]);
+        }
+        compiled = current;
+        return current;
+    }
+
+    /**
+     * Run a name through the automaton.
+     *
+     * @return the entries of every pattern it matched, in the order they
+     * were added
+     */
+    @SuppressWarnings("unchecked")
+    private List<Entry<T>> run(Compiled<T> automaton, String var) {
+        int[] seen = new int[automaton.size]; // the step each state was last added in, plus one
+        ArrayList<Node> states = new ArrayList<>();
+        ArrayList<Node> next = new ArrayList<>();
+        enter(states, automaton.root, seen, 1);
+        for (int i = 0; i < var.length() && !states.isEmpty(); i++) {
+            char c = var.charAt(i);
+            int step = i + 2;
+            next.clear();
+            for (Node state : states) {
+                if (state.star) {
+                    enter(next, state, seen, step);
+                }
+                Node child = state.child(c);
+                if (child != null) {
+                    enter(next, child, seen, step);
+                }
+                if (state.any != null) {
+                    enter(next, state.any, seen, step);
+                }
+            }
+            ArrayList<Node> swap = states;
+            states = next;
+            next = swap;
+        }
+        ArrayList<Entry<T>> matched = new ArrayList<>();
+        for (Node state : states) {
+            if (state.entries != null) {
+                for (Entry<?> entry : state.entries) {
+                    matched.add((Entry<T>) entry);
+                }
+            }
+        }
+        if (matched.size() > 1) {
+            matched.sort((a, b) -> Long.compare(a.order, b.order)); // back into the order they were added
+        }
+        return matched;
+    }
+
+    /**
+     * Add a state, and the states its * edges lead to without consuming
+     * anything.
+     */
+    private static void enter(List<Node> states, Node node, int[] seen, int step) {
+        while (node != null && seen[node.id] != step) {
+            seen[node.id] = step;
+            states.add(node);
+            node = node.starChild;
+        }
+    }
+
+    private static <T> Matches<T> newMatches(List<Entry<T>> matched) {
+        if (matched.isEmpty()) {
+            return new Matches<>(Collections.<T>emptyList(), Collections.<T>emptyList(), Collections.<Entry<T>>emptyList());
+        }
+        ArrayList<T> all = new ArrayList<>(matched.size());
+        ArrayList<T> any = new ArrayList<>();
+        ArrayList<Entry<T>> bySource = new ArrayList<>();
+        for (Entry<T> entry : matched) {
+            all.add(entry.value);
+            if (entry.anyApp) {
+                any.add(entry.value);
+            } else {
+                bySource.add(entry);
+            }
+        }
+        return new Matches<>(Collections.unmodifiableList(all), Collections.unmodifiableList(any), bySource);
+    }
+
+    /**
+     * Match one wildcard pattern against some text without a regular
+     * expression.
+     *
+     * @param pattern * for any run of characters and ? for any one
+     * @param text what to match
+     * @return whether the whole of text matches the whole of pattern
+     */
+    public static boolean matches(String pattern, CharSequence text) {
+        int p = 0;
+        int t = 0;
+        int starP = -1; // where to go back to in the pattern after the last *
+        int starT = 0; // and how much of the text that * has taken
+        while (t < text.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == text.charAt(t))) {
+                p++;
+                t++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                starP = p++;
+                starT = t;
+            } else if (starP >= 0) {
+                p = starP + 1; // let the * take one more character
+                t = ++starT;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+}
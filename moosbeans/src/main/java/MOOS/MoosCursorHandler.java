@@ -0,0 +1,21 @@
+package MOOS;
+
+/**
+ * Receives each packet from the MOOSDB as a {@link MOOSMsgCursor} instead of
+ * a list of MOOSMsgs, so nothing is created for messages or fields that the
+ * handler doesn't look at. See MOOSCommClient.setCursorHandler().
+ */
+public interface MoosCursorHandler {
+
+    /**
+     * Called on the client's I/O thread once for every packet received. The
+     * cursor, and anything taken from getBinaryData(), is only valid until
+     * this method returns.
+     *
+     * @param messages cursor positioned before the first message of the
+     * packet
+     * @return whether the messages were handled
+     */
+    public boolean handleMessages(MOOSMsgCursor messages);
+
+}
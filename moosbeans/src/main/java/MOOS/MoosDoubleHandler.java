@@ -0,0 +1,20 @@
+package MOOS;
+
+/**
+ * Receives Double notifications as primitives, so nothing is created for
+ * them. See MOOSCommClient.registerDouble().
+ */
+public interface MoosDoubleHandler {
+
+    /**
+     * Called on the client's I/O thread for every Double notification of a
+     * variable registered with registerDouble(). Keep it short, the next
+     * packet isn't read until it returns.
+     *
+     * @param varId the variable's id in the client's MOOSVariableTable
+     * @param value the value
+     * @param time the time it was posted
+     */
+    public void onDouble(int varId, double value, double time);
+
+}
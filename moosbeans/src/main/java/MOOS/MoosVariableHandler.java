@@ -0,0 +1,11 @@
+package MOOS;
+
+/**
+ * Receives the messages for the variables, wildcard patterns or sources it
+ * was added to a MOOSDispatcher for, one at a time.
+ */
+public interface MoosVariableHandler {
+
+    public void handleMessage(MOOSMsg msg);
+
+}
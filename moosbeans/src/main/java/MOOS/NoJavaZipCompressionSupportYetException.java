@@ -35,9 +35,23 @@
 package MOOS;
 
 /**
+ * Compressed packets are supported now; this is thrown when one can't be
+ * decompressed. The name is kept so existing code that catches it still
+ * compiles.
  *
  * @author Benjamin C. Davis
  */
 public class NoJavaZipCompressionSupportYetException extends Exception {
 
+    public NoJavaZipCompressionSupportYetException() {
+    }
+
+    public NoJavaZipCompressionSupportYetException(String message) {
+        super(message);
+    }
+
+    public NoJavaZipCompressionSupportYetException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
 }
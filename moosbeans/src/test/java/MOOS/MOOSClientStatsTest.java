@@ -0,0 +1,80 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSClientStatsTest {
+
+    @Test
+    public void testCountsAndListeners() {
+        MOOSCommClient client = new MOOSCommClient("pStats", "localhost", 9000);
+        MOOSClientStats stats = client.getStats();
+        final ArrayList<String> heard = new ArrayList<>();
+        stats.addListener(new MOOSMetricsListener() {
+            @Override
+            public void packetReceived(MOOSClientStats s, int messages, int bytes) {
+                heard.add("rx " + messages + " " + bytes);
+            }
+
+            @Override
+            public void connected(MOOSClientStats s, boolean reconnect) {
+                heard.add("connected " + reconnect);
+            }
+        });
+
+        stats.connected();
+        stats.packetSent(3, 300);
+        stats.packetReceived(2, 100);
+        stats.packetReceived(4, 200);
+        stats.iterated(5000);
+        stats.iterated(1000);
+        stats.connected();
+
+        assertEquals(3, stats.getMessagesSent());
+        assertEquals(300, stats.getBytesSent());
+        assertEquals(6, stats.getMessagesReceived());
+        assertEquals(300, stats.getBytesReceived());
+        assertEquals(2, stats.getPacketsReceived());
+        assertEquals(1.0, stats.getPacketsPerIterate(), 0.0);
+        assertEquals(3.0, stats.getIterateTimeMean(), 1e-9);
+        assertEquals(5.0, stats.getIterateTimeMax(), 1e-9);
+        assertEquals(1, stats.getReconnects());
+        assertEquals(0, stats.getInboxSize());
+        assertEquals("[connected false, rx 2 100, rx 4 200, connected true]", heard.toString());
+
+        stats.reset();
+        assertEquals(0, stats.getMessagesSent());
+        assertEquals(0.0, stats.getIterateTimeMax(), 0.0);
+    }
+
+    @Test
+    public void testHandlerTime() {
+        MOOSClientStats stats = new MOOSClientStats(new MOOSCommClient("pStats", "localhost", 9000));
+        MOOSDispatcher dispatcher = new MOOSDispatcher(stats);
+        dispatcher.addHandler("X", msg -> {
+        });
+        assertTrue(dispatcher.dispatch(new MOOSMsg(MessageType.Notify, "X", 1.0, 1.0)));
+        assertFalse(dispatcher.dispatch(new MOOSMsg(MessageType.Notify, "Y", 1.0, 1.0)));
+        dispatcher.execute(MOOSDispatcher.BATCH_KEY, () -> {
+        });
+        assertEquals(2, stats.getHandlerCalls());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        MOOSCommClient client = new MOOSCommClient("pJmx", "localhost", 9000);
+        client.getStats().packetSent(1, 64);
+        ObjectName name = client.registerMBean();
+        assertNotNull(name);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(64L, server.getAttribute(name, "BytesSent"));
+        assertEquals("pJmx", server.getAttribute(name, "ClientName"));
+        client.unregisterMBean();
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,261 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSCommPktTest {
+
+    private static ArrayList<MOOSMsg> someMessages() {
+        ArrayList<MOOSMsg> messages = new ArrayList<>();
+        messages.add(new MOOSMsg(MessageType.Notify, "NAV_X", 12.5, 100.0));
+        messages.add(new MOOSMsg(MessageType.Notify, "DEPLOY", "true", 101.0));
+        messages.add(new MOOSMsg(MessageType.Notify, "IMAGE", new byte[1000], 102.0));
+        return messages;
+    }
+
+    /**
+     * Feed a packet to fill() a few bytes at a time, the way it arrives from
+     * a socket.
+     */
+    private static void fillInChunks(MOOSCommPkt rx, ByteBuffer wire, int chunk) throws Exception {
+        while (rx.fill() > 0) {
+            ByteBuffer into = rx.getBytes();
+            int n = Math.min(Math.min(chunk, into.remaining()), wire.remaining());
+            for (int i = 0; i < n; i++) {
+                into.put(wire.get());
+            }
+            into.flip();
+        }
+    }
+
+    @Test
+    public void testPooledRoundTrip() throws Exception {
+        MOOSBufferPool pool = new MOOSBufferPool();
+        MOOSCommPkt tx = new MOOSCommPkt(pool);
+        MOOSCommPkt rx = new MOOSCommPkt(pool);
+
+        for (int chunk : new int[]{1, 3, 7, 4096}) {
+            tx.serialize(someMessages(), true);
+            ByteBuffer wire = tx.getBytes();
+            fillInChunks(rx, wire, chunk);
+            assertFalse("read past the end of the packet", wire.hasRemaining());
+
+            ArrayList<MOOSMsg> received = new ArrayList<>();
+            rx.serialize(received, false);
+            assertEquals(3, received.size());
+            assertEquals("NAV_X", received.get(0).getKey());
+            assertEquals(12.5, received.get(0).getDoubleData(), 0.0);
+            assertEquals("true", received.get(1).getStringData());
+            assertEquals(1000, received.get(2).getBinaryData().length);
+
+            rx.recycle(); // leaves stale bytes in the pooled buffers for the next time round
+            tx.recycle();
+        }
+    }
+
+    @Test
+    public void testPoolReusesBuffers() {
+        MOOSBufferPool pool = new MOOSBufferPool();
+        ByteBuffer first = pool.acquire(1000);
+        assertEquals(1000, first.limit());
+        assertEquals(1024, first.capacity());
+        pool.release(first);
+        assertSame(first, pool.acquire(600));
+        assertEquals(MOOSBufferPool.SMALLEST_BUFFER, pool.acquire(4).capacity());
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws Exception {
+        MOOSBufferPool pool = new MOOSBufferPool();
+        MOOSCommPkt tx = new MOOSCommPkt(pool);
+        tx.setCompressionThreshold(100);
+        tx.serialize(someMessages(), true);
+        assertTrue(tx.isCompressed());
+        ByteBuffer wire = tx.getBytes();
+        assertEquals(tx.getPacketLengthInBytes(), wire.remaining());
+        assertTrue(wire.remaining() < 1000);
+
+        MOOSCommPkt rx = new MOOSCommPkt(pool);
+        fillInChunks(rx, wire, 5);
+        assertTrue(rx.isCompressed());
+        ArrayList<MOOSMsg> received = new ArrayList<>();
+        rx.serialize(received, false);
+        assertEquals(3, received.size());
+        assertEquals("DEPLOY", received.get(1).getKey());
+        assertEquals(1000, received.get(2).getBinaryData().length);
+
+        tx.recycle();
+        tx.serialize(new ArrayList<>(someMessages().subList(0, 1)), true);
+        assertFalse("packets under the threshold are left alone", tx.isCompressed());
+    }
+
+    @Test
+    public void testDecodeZlibPacket() throws Exception {
+        // header, then the messages as a zlib stream
+        MOOSCommPkt plain = new MOOSCommPkt();
+        plain.serialize(someMessages(), true);
+        ByteBuffer uncompressed = plain.getBytes();
+        byte[] payload = new byte[uncompressed.remaining() - MOOSCommPkt.PACKET_HEADER_SIZE];
+        uncompressed.position(MOOSCommPkt.PACKET_HEADER_SIZE);
+        uncompressed.get(payload);
+        Deflater deflater = new Deflater();
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] compressed = new byte[payload.length];
+        int n = deflater.deflate(compressed);
+        ByteBuffer wire = Utils.allocate(MOOSCommPkt.PACKET_HEADER_SIZE + n);
+        wire.putInt(MOOSCommPkt.PACKET_HEADER_SIZE + n).putInt(3).put((byte) 1).put(compressed, 0, n).flip();
+
+        MOOSCommPkt rx = new MOOSCommPkt();
+        fillInChunks(rx, wire, 64);
+        MOOSMsgCursor cursor = new MOOSMsgCursor().reset(rx);
+        assertTrue(cursor.next());
+        assertTrue(cursor.keyEquals("NAV_X"));
+    }
+
+    @Test(expected = NoJavaZipCompressionSupportYetException.class)
+    public void testCorruptCompressedPacket() throws Exception {
+        ByteBuffer wire = Utils.allocate(MOOSCommPkt.PACKET_HEADER_SIZE + 4);
+        wire.putInt(MOOSCommPkt.PACKET_HEADER_SIZE + 4).putInt(1).put((byte) 1).putInt(0x12345678).flip();
+        fillInChunks(new MOOSCommPkt(), wire, 64);
+    }
+
+    /**
+     * @return a compressed packet of one message that inflates to a little
+     * more than size bytes
+     */
+    private static ByteBuffer compressedPacket(int size) {
+        ArrayList<MOOSMsg> msgs = new ArrayList<>();
+        msgs.add(new MOOSMsg(MessageType.Notify, "BOMB", new byte[size], 1.0));
+        MOOSCommPkt packet = new MOOSCommPkt();
+        packet.setCompressionThreshold(0);
+        ByteBuffer[] segments = packet.gather(msgs);
+        assertTrue(packet.isCompressed());
+        return segments[0];
+    }
+
+    @Test
+    public void testDecompressionBomb() throws Exception {
+        MOOSCommPkt rx = new MOOSCommPkt();
+        rx.setMaxInflatedSize(1 << 20);
+        ByteBuffer wire = compressedPacket(1 << 20); // a few kB on the wire
+        assertTrue(wire.remaining() < 16 * 1024);
+        try {
+            fillInChunks(rx, wire, 1024);
+            fail("Inflated past the limit");
+        } catch (NoJavaZipCompressionSupportYetException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("more than"));
+        }
+
+        rx = new MOOSCommPkt();
+        rx.setMaxInflatedSize(1 << 20);
+        fillInChunks(rx, compressedPacket((1 << 20) - 1024), 1024); // just fits
+        ArrayList<MOOSMsg> received = new ArrayList<>();
+        rx.serialize(received, false);
+        assertEquals((1 << 20) - 1024, received.get(0).getBinaryData().length);
+    }
+
+    @Test
+    public void testGatherMatchesSerialize() throws Exception {
+        ArrayList<MOOSMsg> messages = someMessages(); // ends with a gathered payload
+        messages.add(0, new MOOSMsg(MessageType.Notify, "SONAR", new byte[2000], 99.0));
+        messages.add(new MOOSMsg(MessageType.Notify, "TINY", new byte[]{1, 2, 3}, 103.0));
+        messages.add(new MOOSMsg(MessageType.Notify, "NAME", "caf\u00e9", 104.0));
+
+        MOOSCommPkt contiguous = new MOOSCommPkt();
+        contiguous.serialize(messages, true);
+        ByteBuffer expected = contiguous.getBytes();
+
+        MOOSCommPkt gathered = new MOOSCommPkt(new MOOSBufferPool());
+        ByteBuffer[] segments = gathered.gather(messages);
+        assertEquals(5, segments.length);
+        assertTrue(segments[segments.length - 1].hasRemaining());
+        ByteBuffer wire = Utils.allocate(expected.remaining());
+        for (ByteBuffer segment : segments) {
+            wire.put(segment);
+        }
+        wire.flip();
+        assertEquals(expected, wire);
+        assertEquals(expected.remaining(), gathered.getPacketLengthInBytes());
+
+        MOOSCommPkt rx = new MOOSCommPkt();
+        fillInChunks(rx, wire, 100);
+        ArrayList<MOOSMsg> received = new ArrayList<>();
+        rx.serialize(received, false);
+        assertEquals(6, received.size());
+        assertEquals("caf\u00e9", received.get(5).getStringData()); // UTF-8 whatever the default charset
+    }
+
+    @Test
+    public void testPreEncodedNames() throws Exception {
+        ArrayList<MOOSMsg> plain = someMessages();
+        ArrayList<MOOSMsg> encoded = someMessages();
+        for (MOOSMsg msg : encoded) {
+            msg.keyBytes = msg.getKey().getBytes();
+            msg.setSource("pNav");
+            msg.sourceBytes = "pNav".getBytes();
+        }
+        for (MOOSMsg msg : plain) {
+            msg.setSource("pNav");
+        }
+
+        MOOSCommPkt expected = new MOOSCommPkt();
+        expected.serialize(plain, true);
+        MOOSCommPkt serialized = new MOOSCommPkt();
+        serialized.serialize(encoded, true);
+        assertEquals(expected.getBytes(), serialized.getBytes());
+
+        ByteBuffer[] segments = new MOOSCommPkt().gather(encoded);
+        ByteBuffer wire = Utils.allocate(expected.getPacketLengthInBytes());
+        for (ByteBuffer segment : segments) {
+            wire.put(segment);
+        }
+        wire.flip();
+        assertEquals(expected.getBytes(), wire);
+    }
+
+    @Test
+    public void testGatherDouble() throws Exception {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, "NAV_X", 12.5, 100.0);
+        msg.setMsgID(7);
+        msg.setSource("pNav");
+        ArrayList<MOOSMsg> messages = someMessages();
+        messages.add(msg);
+        MOOSCommPkt expected = new MOOSCommPkt();
+        expected.serialize(messages, true);
+
+        MOOSCommPkt gathered = new MOOSCommPkt(new MOOSBufferPool());
+        gathered.gatherStart(0); // has to grow
+        for (MOOSMsg m : someMessages()) {
+            gathered.gatherAdd(m);
+        }
+        gathered.gatherDouble("NAV_X".getBytes(), "pNav".getBytes(), 7, 12.5, 100.0);
+        ByteBuffer[] segments = gathered.gatherEnd();
+        ByteBuffer wire = Utils.allocate(expected.getPacketLengthInBytes());
+        for (ByteBuffer segment : segments) {
+            wire.put(segment);
+        }
+        wire.flip();
+        assertEquals(expected.getBytes(), wire);
+    }
+
+    @Test
+    public void testGatherCompressed() throws Exception {
+        MOOSCommPkt gathered = new MOOSCommPkt(new MOOSBufferPool());
+        gathered.setCompressionThreshold(100);
+        ByteBuffer[] segments = gathered.gather(someMessages());
+        assertEquals("payloads are copied in to be compressed", 1, segments.length);
+        assertTrue(gathered.isCompressed());
+
+        MOOSCommPkt rx = new MOOSCommPkt();
+        fillInChunks(rx, segments[0], 64);
+        ArrayList<MOOSMsg> received = new ArrayList<>();
+        rx.serialize(received, false);
+        assertEquals(3, received.size());
+        assertEquals(1000, received.get(2).getBinaryData().length);
+    }
+}
@@ -0,0 +1,181 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSDispatcherTest {
+
+    private static MOOSMsg notify(String key, String source) {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, key, 1.0, 0.0);
+        msg.setSource(source);
+        return msg;
+    }
+
+    @Test
+    public void testRouting() {
+        MOOSDispatcher dispatcher = new MOOSDispatcher();
+        assertTrue(dispatcher.isEmpty());
+        ArrayList<String> navX = new ArrayList<>();
+        ArrayList<String> nav = new ArrayList<>();
+        ArrayList<String> fromHelm = new ArrayList<>();
+        ArrayList<String> fromPNav = new ArrayList<>();
+        dispatcher.addHandler("NAV_X", msg -> navX.add(msg.getKey()));
+        dispatcher.addPatternHandler("NAV_*", "*", msg -> nav.add(msg.getKey()));
+        dispatcher.addPatternHandler("*", "p?av", msg -> fromPNav.add(msg.getKey()));
+        dispatcher.addSourceHandler("pHelm", msg -> fromHelm.add(msg.getKey()));
+
+        assertTrue(dispatcher.dispatch(notify("NAV_X", "pNav")));
+        assertTrue(dispatcher.dispatch(notify("NAV_Y", "pHelm")));
+        assertTrue(dispatcher.dispatch(notify("NAV_X", "other")));
+        assertFalse(dispatcher.dispatch(notify("DEPLOY", "other")));
+        assertFalse(dispatcher.dispatch(new MOOSMsg(MessageType.Register, "NAV_X", 0.0, 0.0)));
+
+        assertEquals(2, navX.size());
+        assertEquals(3, nav.size());
+        assertEquals(1, fromPNav.size());
+        assertEquals("NAV_Y", fromHelm.get(0));
+    }
+
+    @Test
+    public void testChangesAfterResolving() {
+        MOOSDispatcher dispatcher = new MOOSDispatcher();
+        ArrayList<MOOSMsg> got = new ArrayList<>();
+        MoosVariableHandler handler = got::add;
+        assertFalse(dispatcher.dispatch(notify("DEPTH", "a")));
+        dispatcher.addPatternHandler("DEP*", "*", handler);
+        assertTrue(dispatcher.dispatch(notify("DEPTH", "a")));
+        assertTrue(dispatcher.removePatternHandler("DEP*", "*", handler));
+        assertFalse(dispatcher.dispatch(notify("DEPTH", "a")));
+        assertEquals(1, got.size());
+    }
+
+    @Test
+    public void testWildcardIsNotARegex() {
+        MOOSDispatcher dispatcher = new MOOSDispatcher();
+        ArrayList<String> got = new ArrayList<>();
+        dispatcher.addPatternHandler("A.B*", "*", msg -> got.add(msg.getKey()));
+        dispatcher.addPatternHandler("?_X", "*", msg -> got.add(msg.getKey()));
+        assertTrue(dispatcher.dispatch(notify("A.BCD", "a")));
+        assertFalse(dispatcher.dispatch(notify("AXBCD", "a"))); // . is only a dot
+        assertTrue(dispatcher.dispatch(notify("N_X", "a")));
+        assertEquals(Arrays.asList("A.BCD", "N_X"), got);
+    }
+
+    @Test
+    public void testSerialPerKey() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            MOOSDispatcher dispatcher = new MOOSDispatcher();
+            dispatcher.setExecutor(pool, true);
+            final int count = 2000;
+            CountDownLatch done = new CountDownLatch(2 * count);
+            List<Double> a = Collections.synchronizedList(new ArrayList<>());
+            List<Double> b = Collections.synchronizedList(new ArrayList<>());
+            dispatcher.addHandler("A", msg -> {
+                a.add(msg.getDoubleData());
+                done.countDown();
+            });
+            dispatcher.addHandler("B", msg -> {
+                b.add(msg.getDoubleData());
+                done.countDown();
+            });
+            for (int i = 0; i < count; i++) {
+                assertTrue(dispatcher.dispatch(new MOOSMsg(MessageType.Notify, "A", i, 0.0)));
+                assertTrue(dispatcher.dispatch(new MOOSMsg(MessageType.Notify, "B", i, 0.0)));
+            }
+            assertFalse(dispatcher.dispatch(new MOOSMsg(MessageType.Notify, "C", 0, 0.0)));
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, a.get(i), 0.0);
+                assertEquals(i, b.get(i), 0.0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdleSerialQueuesGo() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            MOOSDispatcher dispatcher = new MOOSDispatcher();
+            dispatcher.setExecutor(pool, true);
+            CountDownLatch done = new CountDownLatch(1000);
+            dispatcher.addPatternHandler("*", "*", msg -> done.countDown());
+            for (int i = 0; i < 1000; i++) {
+                dispatcher.dispatch(new MOOSMsg(MessageType.Notify, "VAR_" + i, i, 0.0));
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            MOOSTestClients.await(() -> dispatcher.serialQueues.isEmpty() && dispatcher.getPendingCount() == 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxPending() throws Exception {
+        ConcurrentLinkedQueue<Runnable> queued = new ConcurrentLinkedQueue<>();
+        MOOSDispatcher dispatcher = new MOOSDispatcher();
+        dispatcher.setExecutor(queued::add, true); // runs nothing until the test does
+        dispatcher.setMaxPending(5);
+        List<Double> handled = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.addHandler("A", msg -> handled.add(msg.getDoubleData()));
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 20; i++) {
+                dispatcher.dispatch(new MOOSMsg(MessageType.Notify, "A", i, 0.0));
+            }
+        });
+        reader.start();
+        MOOSTestClients.await(() -> reader.getState() == Thread.State.WAITING);
+        assertEquals(5, dispatcher.getPendingCount());
+        assertEquals(1, queued.size()); // the serial queue for A, holding 5
+
+        MOOSTestClients.await(() -> {
+            for (Runnable task; (task = queued.poll()) != null;) {
+                task.run();
+            }
+            return handled.size() == 20;
+        });
+        reader.join();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, handled.get(i), 0.0);
+        }
+    }
+
+    @Test
+    public void testRejectedRunsInline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+        try {
+            pool.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                }
+            });
+            pool.execute(() -> {
+            }); // now full
+            MOOSDispatcher dispatcher = new MOOSDispatcher();
+            dispatcher.setExecutor(pool, false);
+            ArrayList<Thread> ranOn = new ArrayList<>();
+            dispatcher.addHandler("A", msg -> ranOn.add(Thread.currentThread()));
+            dispatcher.dispatch(new MOOSMsg(MessageType.Notify, "A", 1, 0.0));
+            assertEquals(Thread.currentThread(), ranOn.get(0));
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+}
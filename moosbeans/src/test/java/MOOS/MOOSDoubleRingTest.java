@@ -0,0 +1,61 @@
+package MOOS;
+
+import java.util.ArrayList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSDoubleRingTest {
+
+    @Test
+    public void testFullRingDropsNewest() {
+        MOOSDoubleRing ring = new MOOSDoubleRing(3);
+        assertEquals(4, ring.getCapacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i, 10 * i, 100 + i));
+        }
+        assertFalse(ring.offer(4, 40, 104));
+        assertEquals(1, ring.getDroppedCount());
+
+        ArrayList<double[]> drained = new ArrayList<>();
+        assertEquals(4, ring.drainTo((varId, value, time) -> drained.add(new double[]{varId, value, time})));
+        assertTrue(ring.isEmpty());
+        assertArrayEquals(new double[]{3, 30, 103}, drained.get(3), 0.0);
+
+        assertTrue("drained slots are free again", ring.offer(5, 50, 105));
+        assertEquals(1, ring.drainTo((varId, value, time) -> assertEquals(5, varId)));
+    }
+
+    @Test
+    public void testConcurrentPublishers() throws Exception {
+        final int threads = 4;
+        final int each = 50000;
+        final MOOSDoubleRing ring = new MOOSDoubleRing(1024);
+        Thread[] publishers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int varId = t;
+            publishers[t] = new Thread(() -> {
+                for (int i = 0; i < each; i++) {
+                    while (!ring.offer(varId, i, i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            publishers[t].start();
+        }
+
+        // each publisher's values come out in order, none lost or repeated
+        final int[] next = new int[threads];
+        MoosDoubleHandler check = (varId, value, time) -> {
+            assertEquals(next[varId]++, (int) value);
+        };
+        for (Thread publisher : publishers) {
+            while (publisher.isAlive()) {
+                ring.drainTo(check);
+            }
+        }
+        ring.drainTo(check);
+        for (int t = 0; t < threads; t++) {
+            assertEquals(each, next[t]);
+        }
+    }
+}
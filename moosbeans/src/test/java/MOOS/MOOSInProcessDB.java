@@ -0,0 +1,633 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A MOOSDB that runs inside the JVM, for tests that need a real server to
+ * talk to without one being installed. It speaks the same protocol as
+ * MOOSDB, through MOOSServerConnection: the handshake and Welcome, Register
+ * and Unregister, wildcard registrations, Notify fan out to every subscriber including the
+ * sender, ServerRequest and the DB_TIME, DB_UPTIME, DB_CLIENTS,
+ * DB_VARSUMMARY, DB_CONNECT and DB_DISCONNECT variables.
+ *
+ * <pre>
+ * try (MOOSInProcessDB db = new MOOSInProcessDB().start()) {
+ *     MOOSCommClient client = new MOOSCommClient("localhost", db.getPort());
+ *     ...
+ * }
+ * </pre>
+ *
+ * Everything happens on one thread with a Selector, and it listens on the
+ * loopback address, on an ephemeral port unless it is given one. It is not
+ * meant to stand in for a MOOSDB on a vehicle: there is no timing or
+ * skew correction, and no limit on how much is queued for a slow client.
+ */
+public class MOOSInProcessDB implements Runnable, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSInProcessDB.class);
+
+    public static final String DEFAULT_COMMUNITY = "#1";
+
+    /**
+     * A wildcard registration: AppPattern, VarPattern and Interval.
+     */
+    private static final class Wildcard {
+
+        final Connection conn;
+        final String varPattern;
+        final String appPattern;
+        final double interval;
+
+        Wildcard(Connection conn, String varPattern, String appPattern, double interval) {
+            this.conn = conn;
+            this.varPattern = varPattern;
+            this.appPattern = appPattern;
+            this.interval = interval;
+        }
+
+        boolean matches(String key, String source) {
+            return MOOSWildcardMatcher.matches(varPattern, key)
+                    && ("*".equals(appPattern) || MOOSWildcardMatcher.matches(appPattern, source));
+        }
+    }
+
+    /**
+     * One connected client. Only touched on the server's thread.
+     */
+    private final class Connection extends MOOSServerConnection {
+
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ConcurrentHashMap<String, Double> intervals = new ConcurrentHashMap<>(); // exact registrations
+        final HashMap<String, Double> lastSent = new HashMap<>(); // for registrations with an interval
+        final CopyOnWriteArrayList<Wildcard> wildcards = new CopyOnWriteArrayList<>(); // also in the DB's matcher
+        final ArrayList<MOOSMsg> outgoing = new ArrayList<>(); // sent as one packet at the end of the pass
+        final ArrayDeque<ByteBuffer> writes = new ArrayDeque<>(); // what the socket wouldn't take yet
+        boolean closing; // poisoned, close once the writes have gone
+
+        Connection(SocketChannel channel) throws ClosedChannelException {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        @Override
+        public String toString() {
+            return getName() == null ? String.valueOf(channel.socket().getRemoteSocketAddress()) : getName();
+        }
+
+        @Override
+        protected boolean welcome(String client) {
+            return MOOSInProcessDB.this.welcome(this, client);
+        }
+
+        @Override
+        protected void poison(String reason) {
+            MOOSInProcessDB.this.poison(this, reason);
+        }
+
+        @Override
+        protected void notified(MOOSMsg msg) {
+            if (msg.community == null || msg.community.isEmpty()) {
+                msg.setCommunity(community);
+            }
+            notifyCount.incrementAndGet();
+            MOOSInProcessDB.this.notify(msg);
+        }
+
+        @Override
+        protected void registered(String var, double interval) {
+            register(this, var, interval);
+        }
+
+        @Override
+        protected void unregistered(String var) {
+            unregister(this, var);
+        }
+
+        @Override
+        protected void registeredWildcard(String varPattern, String appPattern, double interval) {
+            registerWildcard(this, varPattern, appPattern, interval);
+        }
+
+        @Override
+        protected void unregisteredWildcard(String varPattern, String appPattern) {
+            unregisterWildcard(this, varPattern, appPattern);
+        }
+
+        @Override
+        protected void serverRequest() {
+            outgoing.addAll(variables.values());
+            pending.add(this);
+        }
+
+        @Override
+        protected void terminated() {
+            closeConnection(this);
+        }
+
+        @Override
+        protected boolean isClosed() {
+            return closing;
+        }
+    }
+
+    private final String community;
+    private final String name; // the source of the DB_ variables
+    private final int requestedPort;
+
+    private ServerSocketChannel server;
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+
+    private final ArrayList<Connection> connections = new ArrayList<>();
+    private final HashMap<String, Set<Connection>> subscribers = new HashMap<>();
+    private final MOOSWildcardMatcher<Wildcard> wildcards = new MOOSWildcardMatcher<>();
+    private final LinkedHashSet<Connection> pending = new LinkedHashSet<>(); // have something in outgoing
+    private final MOOSCommPkt txPkt = new MOOSCommPkt();
+
+    private final ConcurrentHashMap<String, MOOSMsg> variables = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Connection> welcomed = new ConcurrentHashMap<>();
+    private final AtomicLong notifyCount = new AtomicLong();
+
+    private volatile long summaryPeriod = 1000; // milliseconds
+    private long nextSummary;
+    private double startTime;
+
+    /**
+     * A MOOSDB for the default community on an ephemeral port.
+     */
+    public MOOSInProcessDB() {
+        this(DEFAULT_COMMUNITY, 0);
+    }
+
+    /**
+     * @param community the community name, stamped on every notification
+     * @param port the port to listen on, or 0 for any free one
+     */
+    public MOOSInProcessDB(String community, int port) {
+        this.community = community;
+        this.name = "MOOSDB_" + community;
+        this.requestedPort = port;
+    }
+
+    /**
+     * Start listening, and start the server's thread.
+     *
+     * @return this, for chaining
+     * @throws IOException if the port can't be listened on
+     */
+    public synchronized MOOSInProcessDB start() throws IOException {
+        if (running) {
+            return this;
+        }
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        startTime = Utils.currentTime();
+        nextSummary = System.currentTimeMillis();
+        running = true;
+        thread = new Thread(this, name + ":" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info("{} listening on port {}", name, getPort());
+        return this;
+    }
+
+    /**
+     * Disconnect every client and stop listening.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        if (thread != Thread.currentThread()) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the port being listened on, which is only known once started
+     */
+    public int getPort() {
+        return server == null ? -1 : server.socket().getLocalPort();
+    }
+
+    public String getCommunity() {
+        return community;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the names of the clients that have been welcomed
+     */
+    public Set<String> getClientNames() {
+        return Collections.unmodifiableSet(welcomed.keySet());
+    }
+
+    /**
+     * @param client a client's name
+     * @param var a variable name
+     * @return whether the client has registered for var, either exactly or
+     * with a wildcard whose VarPattern matches it, and the registration has
+     * been handled, so anything posted from now on goes to the client
+     */
+    public boolean isRegistered(String client, String var) {
+        Connection conn = welcomed.get(client);
+        if (conn == null) {
+            return false;
+        }
+        if (conn.intervals.containsKey(var)) {
+            return true;
+        }
+        for (Wildcard wildcard : conn.wildcards) {
+            if (MOOSWildcardMatcher.matches(wildcard.varPattern, var)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param var a variable name
+     * @return the last notification of var, or null if it has never been
+     * posted
+     */
+    public MOOSMsg getValue(String var) {
+        return variables.get(var);
+    }
+
+    /**
+     * @return how many notifications clients have posted so far
+     */
+    public long getNotifyCount() {
+        return notifyCount.get();
+    }
+
+    /**
+     * @param period how often to publish DB_TIME, DB_UPTIME, DB_CLIENTS and
+     * DB_VARSUMMARY in milliseconds, 0 or less for never
+     */
+    public void setSummaryPeriod(long period) {
+        this.summaryPeriod = period;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                long period = summaryPeriod;
+                long timeout = period > 0 ? Math.max(1, nextSummary - System.currentTimeMillis()) : 0;
+                selector.select(timeout);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection conn = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        write(conn);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(conn);
+                    }
+                }
+                period = summaryPeriod;
+                if (period > 0 && System.currentTimeMillis() >= nextSummary) {
+                    nextSummary = System.currentTimeMillis() + period;
+                    publishSummary();
+                }
+                sendPending();
+            }
+        } catch (IOException e) {
+            LOG.error("{} stopped", name, e);
+        } finally {
+            running = false;
+            for (Connection conn : new ArrayList<>(connections)) {
+                closeConnection(conn);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                LOG.debug("Closing {}", name, e);
+            }
+            welcomed.clear();
+            LOG.info("{} on port {} stopped", name, server.socket().getLocalPort());
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        connections.add(new Connection(channel));
+        LOG.debug("{} accepted {}", name, channel.socket().getRemoteSocketAddress());
+    }
+
+    private void read(Connection conn) {
+        try {
+            conn.read(conn.channel);
+        } catch (IOException e) {
+            LOG.debug("{} lost {}", name, conn, e);
+            closeConnection(conn);
+        }
+    }
+
+    /**
+     * The first message from a client says who it is.
+     */
+    private boolean welcome(Connection conn, String client) {
+        if (welcomed.putIfAbsent(client, conn) != null) {
+            return false;
+        }
+        queue(conn, new MOOSMsg(MessageType.Welcome, "", 0.0, Utils.currentTime()));
+        LOG.debug("{} welcomed {}", name, client);
+        publish("DB_CONNECT", client);
+        publish("DB_CLIENTS", clientList());
+        return true;
+    }
+
+    private void poison(Connection conn, String reason) {
+        LOG.warn("{} poisoning {}: {}", name, conn, reason);
+        conn.outgoing.clear();
+        queue(conn, new MOOSMsg(MessageType.Poision, "", reason));
+        sendPacket(conn);
+        conn.closing = true;
+        if (conn.writes.isEmpty()) {
+            closeConnection(conn);
+        }
+    }
+
+    private void register(Connection conn, String var, double interval) {
+        conn.intervals.put(var, interval);
+        conn.lastSent.remove(var);
+        subscribers.computeIfAbsent(var, k -> new LinkedHashSet<>()).add(conn);
+        MOOSMsg current = variables.get(var);
+        if (current != null) {
+            deliver(conn, current, interval);
+        }
+    }
+
+    private void unregister(Connection conn, String var) {
+        conn.intervals.remove(var);
+        conn.lastSent.remove(var);
+        Set<Connection> subscribed = subscribers.get(var);
+        if (subscribed != null) {
+            subscribed.remove(conn);
+            if (subscribed.isEmpty()) {
+                subscribers.remove(var);
+            }
+        }
+    }
+
+    private void registerWildcard(Connection conn, String varPattern, String appPattern, double interval) {
+        unregisterWildcard(conn, varPattern, appPattern);
+        Wildcard wildcard = new Wildcard(conn, varPattern, appPattern, interval);
+        conn.wildcards.add(wildcard);
+        wildcards.add(varPattern, appPattern, wildcard);
+        for (MOOSMsg current : variables.values()) {
+            if (!conn.intervals.containsKey(current.getKey()) && wildcard.matches(current.getKey(), current.getSource())) {
+                deliver(conn, current, interval);
+            }
+        }
+    }
+
+    private void unregisterWildcard(Connection conn, String varPattern, String appPattern) {
+        for (Wildcard wildcard : conn.wildcards) {
+            if (wildcard.varPattern.equals(varPattern) && wildcard.appPattern.equals(appPattern)) {
+                conn.wildcards.remove(wildcard);
+                wildcards.remove(varPattern, appPattern, wildcard);
+            }
+        }
+    }
+
+    /**
+     * Store a notification and send it to everyone who has registered for it.
+     */
+    private void notify(MOOSMsg msg) {
+        String key = msg.getKey();
+        variables.put(key, msg);
+        Set<Connection> subscribed = subscribers.get(key);
+        if (subscribed != null) {
+            for (Connection conn : subscribed) {
+                deliver(conn, msg, conn.intervals.get(key));
+            }
+        }
+        List<Wildcard> matched = wildcards.match(key, msg.getSource());
+        Set<Connection> delivered = matched.size() > 1 ? new HashSet<>() : null;
+        for (Wildcard wildcard : matched) {
+            Connection conn = wildcard.conn;
+            if (conn.intervals.containsKey(key) || (delivered != null && !delivered.add(conn))) {
+                continue; // registered for it exactly, or by an earlier pattern
+            }
+            deliver(conn, msg, wildcard.interval);
+        }
+    }
+
+    private void deliver(Connection conn, MOOSMsg msg, double interval) {
+        if (interval > 0) {
+            double now = Utils.currentTime();
+            Double last = conn.lastSent.get(msg.getKey());
+            if (last != null && now - last < interval) {
+                return;
+            }
+            conn.lastSent.put(msg.getKey(), now);
+        }
+        queue(conn, msg);
+    }
+
+    private void queue(Connection conn, MOOSMsg msg) {
+        if (!conn.closing) {
+            conn.outgoing.add(msg);
+            pending.add(conn);
+        }
+    }
+
+    /**
+     * Post a notification from the DB itself.
+     */
+    private void publish(String var, String value) {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, value);
+        msg.setSource(name);
+        msg.setCommunity(community);
+        notify(msg);
+    }
+
+    private void publish(String var, double value) {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, value);
+        msg.setSource(name);
+        msg.setCommunity(community);
+        notify(msg);
+    }
+
+    private String clientList() {
+        StringBuilder list = new StringBuilder();
+        for (Connection conn : connections) {
+            if (conn.getName() != null) {
+                list.append(conn.getName()).append(',');
+            }
+        }
+        return list.toString();
+    }
+
+    private void publishSummary() {
+        double now = Utils.currentTime();
+        publish("DB_TIME", now);
+        publish("DB_UPTIME", now - startTime);
+        publish("DB_CLIENTS", clientList());
+        StringBuilder summary = new StringBuilder();
+        for (String var : new TreeSet<>(variables.keySet())) {
+            if (summary.length() > 0) {
+                summary.append(',');
+            }
+            summary.append(var);
+        }
+        publish("DB_VARSUMMARY", summary.toString());
+    }
+
+    /**
+     * Send each client everything queued for it in this pass as one packet.
+     */
+    private void sendPending() {
+        while (!pending.isEmpty()) { // closing a connection can queue DB_DISCONNECT for others
+            Connection[] batch = pending.toArray(new Connection[pending.size()]);
+            pending.clear();
+            for (Connection conn : batch) {
+                sendPacket(conn);
+            }
+        }
+    }
+
+    private void sendPacket(Connection conn) {
+        if (conn.outgoing.isEmpty() || !conn.channel.isOpen()) {
+            conn.outgoing.clear();
+            return;
+        }
+        txPkt.serialize(conn.outgoing, true);
+        conn.outgoing.clear();
+        ByteBuffer bytes = txPkt.getBytes();
+        try {
+            if (conn.writes.isEmpty()) {
+                conn.channel.write(bytes);
+            }
+            if (bytes.hasRemaining()) {
+                ByteBuffer rest = ByteBuffer.allocate(bytes.remaining());
+                rest.put(bytes).flip();
+                conn.writes.add(rest);
+                conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            LOG.debug("{} lost {}", name, conn, e);
+            closeConnection(conn);
+        } finally {
+            txPkt.recycle();
+        }
+    }
+
+    private void write(Connection conn) {
+        try {
+            while (!conn.writes.isEmpty()) {
+                ByteBuffer bytes = conn.writes.peek();
+                conn.channel.write(bytes);
+                if (bytes.hasRemaining()) {
+                    return;
+                }
+                conn.writes.poll();
+            }
+            conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (conn.closing) {
+                closeConnection(conn);
+            }
+        } catch (IOException e) {
+            LOG.debug("{} lost {}", name, conn, e);
+            closeConnection(conn);
+        }
+    }
+
+    private void closeConnection(Connection conn) {
+        if (!connections.remove(conn)) {
+            return;
+        }
+        conn.closing = true;
+        conn.key.cancel();
+        try {
+            conn.channel.close();
+        } catch (IOException e) {
+            LOG.debug("Closing {}", conn, e);
+        }
+        conn.release();
+        conn.outgoing.clear();
+        conn.writes.clear();
+        pending.remove(conn);
+        for (String var : new ArrayList<>(conn.intervals.keySet())) {
+            unregister(conn, var);
+        }
+        for (Wildcard wildcard : conn.wildcards) {
+            wildcards.remove(wildcard.varPattern, wildcard.appPattern, wildcard);
+        }
+        if (conn.getName() != null) {
+            welcomed.remove(conn.getName(), conn);
+            LOG.debug("{} said goodbye to {}", name, conn.getName());
+            if (running) {
+                publish("DB_DISCONNECT", conn.getName());
+                publish("DB_CLIENTS", clientList());
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package MOOS;
+
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static MOOS.MOOSTestClients.await;
+import static org.junit.Assert.*;
+
+/**
+ * Real clients talking to a MOOSInProcessDB over loopback.
+ */
+public class MOOSInProcessDBTest {
+
+    private MOOSInProcessDB db;
+    private final MOOSTestClients clients = new MOOSTestClients();
+
+    @Before
+    public void setUp() throws Exception {
+        db = new MOOSInProcessDB().start();
+        db.setSummaryPeriod(100);
+    }
+
+    @After
+    public void tearDown() {
+        clients.close();
+        db.close();
+    }
+
+    private MOOSCommClient connect(String name) throws Exception {
+        return clients.connect(name, db.getPort());
+    }
+
+    @Test
+    public void testWelcome() throws Exception {
+        assertTrue(db.getPort() > 0);
+        connect("alpha");
+        connect("beta");
+        await(() -> db.getClientNames().size() == 2);
+        assertTrue(db.getClientNames().contains("alpha"));
+        assertTrue(db.getClientNames().contains("beta"));
+    }
+
+    @Test
+    public void testNotifyFanOut() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        MOOSCommClient receiver = connect("receiver");
+        CopyOnWriteArrayList<MOOSMsg> own = new CopyOnWriteArrayList<>();
+        CopyOnWriteArrayList<MOOSMsg> received = new CopyOnWriteArrayList<>();
+        sender.register("NAV_X", 0, own::add);
+        receiver.register("NAV_X", 0, received::add);
+        await(() -> db.isRegistered("sender", "NAV_X") && db.isRegistered("receiver", "NAV_X"));
+
+        sender.notify("NAV_X", 12.5, -1);
+        sender.notify("NAV_X", "not a number", -1);
+        await(() -> received.size() == 2 && own.size() >= 2); // the sender gets its own too
+        assertEquals(12.5, received.get(0).getDoubleData(), 0);
+        assertEquals("sender", received.get(0).getSource());
+        assertEquals("not a number", received.get(1).getStringData());
+        assertEquals(2, db.getNotifyCount());
+        assertEquals("not a number", db.getValue("NAV_X").getStringData());
+    }
+
+    @Test
+    public void testThrowingHandlerInGroup() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        MOOSCommClientGroup group = new MOOSCommClientGroup("group");
+        MOOSCommClient bad = clients.create("bad", db.getPort());
+        MOOSCommClient good = clients.create("good", db.getPort());
+        bad.setClientGroup(group);
+        good.setClientGroup(group);
+        clients.connect(bad);
+        clients.connect(good);
+        CopyOnWriteArrayList<MOOSMsg> received = new CopyOnWriteArrayList<>();
+        bad.register("NAV_X", 0, msg -> {
+            throw new IllegalStateException("handler bug");
+        });
+        good.register("NAV_X", 0, received::add);
+        await(() -> db.isRegistered("bad", "NAV_X") && db.isRegistered("good", "NAV_X"));
+
+        for (int i = 0; i < 3; i++) {
+            sender.notify("NAV_X", i, -1);
+            int count = i + 1;
+            await(() -> received.size() >= count); // the group's thread carries on
+        }
+        await(() -> bad.getStats().getConnections() > 1); // only bad lost its connection
+        assertEquals(1, good.getStats().getConnections());
+    }
+
+    @Test
+    public void testPublisher() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        MOOSCommClient receiver = connect("receiver");
+        CopyOnWriteArrayList<MOOSMsg> received = new CopyOnWriteArrayList<>();
+        receiver.register("NAV_X", 0, received::add);
+        await(() -> db.isRegistered("receiver", "NAV_X"));
+
+        MOOSPublisher navX = sender.publisher("NAV_X");
+        assertSame(navX, sender.publisher("NAV_X"));
+        assertEquals(1, sender.publishingList.size());
+        assertTrue(navX.publish(12.5, -1)); // by the double ring, so not ordered with the String
+        assertTrue(navX.publish("not a number", -1));
+        await(() -> received.size() == 2);
+        MOOSMsg number = received.get(0).isDouble() ? received.get(0) : received.get(1);
+        MOOSMsg string = received.get(0).isDouble() ? received.get(1) : received.get(0);
+        assertEquals(12.5, number.getDoubleData(), 0);
+        assertEquals("sender", number.getSource());
+        assertEquals("not a number", string.getStringData());
+    }
+
+    @Test
+    public void testBlockWaitsForHandlers() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        MOOSCommClient receiver = clients.create("receiver", db.getPort());
+        receiver.setMAX_INBOX_MESSAGES(10);
+        receiver.getInbox().setOverflowPolicy(MOOSInbox.OverflowPolicy.BLOCK);
+        ConcurrentLinkedQueue<Runnable> queued = new ConcurrentLinkedQueue<>();
+        receiver.setHandlerExecutor(queued::add, false); // handlers that don't run until the test runs them
+        CopyOnWriteArrayList<MOOSMsg> received = new CopyOnWriteArrayList<>();
+        receiver.register("NAV_X", 0, received::add);
+        clients.connect(receiver);
+        await(() -> db.isRegistered("receiver", "NAV_X"));
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sender.notify("NAV_X", i, -1));
+        }
+        await(() -> receiver.getInbox().isBlocked());
+        Thread.sleep(200); // for it to have read more if it were going to
+        assertEquals(10, queued.size()); // only as many as the inbox holds are waiting for a handler
+        assertEquals(0, receiver.selectionKey.interestOps() & SelectionKey.OP_READ); // TCP holds the rest up
+
+        await(() -> {
+            for (Runnable task; (task = queued.poll()) != null;) {
+                task.run();
+            }
+            return received.size() == 100;
+        });
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, received.get(i).getDoubleData(), 0);
+        }
+        assertEquals(0, receiver.getInbox().getDroppedCount());
+    }
+
+    @Test
+    public void testRegisterGetsCurrentValue() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        sender.notify("DEPTH", 42.0, -1);
+        await(() -> db.getValue("DEPTH") != null);
+
+        MOOSCommClient late = connect("late");
+        CopyOnWriteArrayList<MOOSMsg> received = new CopyOnWriteArrayList<>();
+        late.register("DEPTH", 0, received::add);
+        await(() -> !received.isEmpty());
+        assertEquals(42.0, received.get(0).getDoubleData(), 0);
+    }
+
+    @Test
+    public void testWildcard() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        MOOSCommClient receiver = connect("receiver");
+        CopyOnWriteArrayList<String> keys = new CopyOnWriteArrayList<>();
+        receiver.setMessageHandler(messages -> {
+            for (MOOSMsg msg : messages) {
+                if (!msg.getKey().startsWith("DB_")) {
+                    keys.add(msg.getKey());
+                }
+            }
+            return true;
+        });
+        receiver.register("NODE_*", "sen*", 0);
+        clients.watchMarker(receiver, db::isRegistered);
+        await(() -> db.isRegistered("receiver", "NODE_REPORT"));
+
+        sender.notify("NODE_REPORT", "x", -1);
+        sender.notify("OTHER", "y", -1);
+        sender.notify("NODE_MODE", "z", -1);
+        await(() -> keys.size() == 2);
+        clients.awaitMarker(sender, receiver); // OTHER would have arrived by now
+        assertEquals(2, keys.size());
+        assertTrue(keys.contains("NODE_REPORT"));
+        assertTrue(keys.contains("NODE_MODE"));
+    }
+
+    @Test
+    public void testSummary() throws Exception {
+        MOOSCommClient client = connect("watcher");
+        CopyOnWriteArrayList<MOOSMsg> received = new CopyOnWriteArrayList<>();
+        client.register("DB_CLIENTS", 0, received::add);
+        await(() -> !received.isEmpty() && received.get(received.size() - 1).getStringData().contains("watcher"));
+        assertEquals("MOOSDB_" + MOOSInProcessDB.DEFAULT_COMMUNITY, received.get(0).getSource());
+
+        CopyOnWriteArrayList<MOOSMsg> uptime = new CopyOnWriteArrayList<>();
+        client.register("DB_UPTIME", 0, uptime::add);
+        await(() -> uptime.size() >= 2);
+    }
+
+    @Test
+    public void testDuplicateName() throws Exception {
+        connect("twin");
+        MOOSCommClient other = new MOOSCommClient("twin", "localhost", db.getPort());
+        other.setUseSelector(true);
+        other.setAutoReconnect(false);
+        clients.add(other);
+        other.setEnable(true);
+        Thread.sleep(500);
+        assertFalse(other.isConnected());
+        assertEquals(1, db.getClientNames().size());
+    }
+}
@@ -0,0 +1,104 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.util.ArrayList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSInboxTest {
+
+    private static MOOSMsg msg(String key, double value) {
+        return new MOOSMsg(MessageType.Notify, key, value, 0.0);
+    }
+
+    private static void addNumbered(MOOSInbox inbox, int from, int to) {
+        for (int i = from; i < to; i++) {
+            inbox.add(msg("X", i));
+        }
+    }
+
+    @Test
+    public void testDropOldest() {
+        MOOSInbox inbox = new MOOSInbox(3);
+        addNumbered(inbox, 0, 5);
+        assertEquals(2, inbox.getDroppedCount());
+        ArrayList<MOOSMsg> messages = inbox.drain();
+        assertEquals(3, messages.size());
+        assertEquals(4.0, messages.get(0).getDoubleData(), 0.0); // newest first
+        assertEquals(2.0, messages.get(2).getDoubleData(), 0.0);
+        assertTrue(inbox.isEmpty());
+    }
+
+    @Test
+    public void testDropNewest() {
+        MOOSInbox inbox = new MOOSInbox(3);
+        inbox.setOverflowPolicy(MOOSInbox.OverflowPolicy.DROP_NEWEST);
+        addNumbered(inbox, 0, 5);
+        assertEquals(2, inbox.getDroppedCount());
+        assertEquals(2.0, inbox.drain().get(0).getDoubleData(), 0.0);
+    }
+
+    @Test
+    public void testConflatePerKey() {
+        MOOSInbox inbox = new MOOSInbox(2);
+        inbox.setOverflowPolicy(MOOSInbox.OverflowPolicy.CONFLATE_PER_KEY);
+        inbox.add(msg("X", 1));
+        inbox.add(msg("Y", 1));
+        inbox.add(msg("X", 2));
+        inbox.add(msg("Z", 1)); // full, pushes out the X
+        inbox.add(msg("Z", 2));
+        assertEquals(2, inbox.getConflatedCount());
+        assertEquals(1, inbox.getDroppedCount());
+        ArrayList<MOOSMsg> messages = inbox.drain();
+        assertEquals(2, messages.size());
+        assertEquals("Z", messages.get(0).getKey());
+        assertEquals(2.0, messages.get(0).getDoubleData(), 0.0);
+        assertEquals("Y", messages.get(1).getKey());
+    }
+
+    @Test
+    public void testBlock() {
+        MOOSInbox inbox = new MOOSInbox(3);
+        inbox.setOverflowPolicy(MOOSInbox.OverflowPolicy.BLOCK);
+        addNumbered(inbox, 0, 2);
+        assertFalse(inbox.isBlocked());
+        addNumbered(inbox, 2, 5); // the rest of a packet that didn't fit
+        assertTrue(inbox.isBlocked());
+        assertEquals(0, inbox.getDroppedCount());
+        ArrayList<MOOSMsg> messages = inbox.drain();
+        assertEquals(5, messages.size());
+        assertEquals(4.0, messages.get(0).getDoubleData(), 0.0);
+        assertFalse(inbox.isBlocked());
+    }
+
+    @Test
+    public void testDrainSome() {
+        MOOSInbox inbox = new MOOSInbox(3);
+        inbox.setOverflowPolicy(MOOSInbox.OverflowPolicy.BLOCK);
+        addNumbered(inbox, 0, 5);
+        ArrayList<MOOSMsg> messages = inbox.drain(2);
+        assertEquals(2, messages.size());
+        assertEquals(1.0, messages.get(0).getDoubleData(), 0.0); // the oldest, newest first
+        assertEquals(0.0, messages.get(1).getDoubleData(), 0.0);
+        assertTrue(inbox.isBlocked()); // 3 and 4 have moved into the room made
+        assertTrue(inbox.drain(0).isEmpty());
+        messages = inbox.drain(10);
+        assertEquals(3, messages.size());
+        assertEquals(4.0, messages.get(0).getDoubleData(), 0.0);
+        assertTrue(inbox.isEmpty());
+    }
+
+    @Test
+    public void testRemoveAndResize() {
+        MOOSInbox inbox = new MOOSInbox(4);
+        addNumbered(inbox, 0, 6); // wraps round the ring
+        MOOSMsg third = inbox.peek().get(1);
+        assertTrue(inbox.remove(third));
+        assertEquals(3, inbox.size());
+        inbox.setCapacity(2);
+        ArrayList<MOOSMsg> messages = inbox.drain();
+        assertEquals(2, messages.size());
+        assertEquals(5.0, messages.get(0).getDoubleData(), 0.0);
+        assertEquals(3.0, messages.get(1).getDoubleData(), 0.0);
+    }
+}
@@ -0,0 +1,66 @@
+package MOOS;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSLatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        long previousHighest = -1;
+        for (int bucket = 0; bucket < 900; bucket++) {
+            long highest = MOOSLatencyHistogram.highestInBucket(bucket);
+            assertEquals(bucket, MOOSLatencyHistogram.bucket(previousHighest + 1));
+            assertEquals(bucket, MOOSLatencyHistogram.bucket(highest));
+            assertTrue(highest - previousHighest <= Math.max(1, highest / 16 + 1));
+            previousHighest = highest;
+        }
+        MOOSLatencyHistogram.bucket(Long.MAX_VALUE); // mustn't be out of range
+    }
+
+    @Test
+    public void testPercentiles() {
+        MOOSLatencyHistogram histogram = new MOOSLatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros);
+        }
+        histogram.record(-5);
+        assertEquals(10001, histogram.getCount());
+        assertEquals(1, histogram.getNegativeCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000, histogram.getPercentile(50), 5000 / 16);
+        assertEquals(9900, histogram.getPercentile(99), 9900 / 16);
+        assertEquals(10000, histogram.getPercentile(100));
+        assertEquals(5000.0, histogram.getMean(), 1.0);
+
+        MOOSLatencyHistogram total = new MOOSLatencyHistogram();
+        total.add(histogram);
+        total.add(histogram);
+        assertEquals(20002, total.getCount());
+        assertEquals(histogram.getPercentile(90), total.getPercentile(90));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testMonitorCorrectsForWarp() {
+        double warp = Utils.getMoosTimeWarp();
+        try {
+            Utils.setMoosTimeWarp(10);
+            MOOSLatencyMonitor monitor = new MOOSLatencyMonitor();
+            double arrived = 1.7e9;
+            monitor.record("NAV_X", (arrived - 0.002) * 10, arrived); // sent 2ms ago in real time
+            monitor.record("NAV_Y", (arrived + 0.001) * 10, arrived); // sender's clock is ahead
+            assertEquals(2000, monitor.getHistogram("NAV_X").getMax(), 1);
+            assertEquals(1, monitor.getHistogram("NAV_Y").getNegativeCount());
+            assertEquals(2, monitor.getTotal().getCount());
+            assertTrue(monitor.report().startsWith("NAV_X count=1"));
+        } finally {
+            Utils.setMoosTimeWarp(warp);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSLatestValuesTest {
+
+    @Test
+    public void testKeepsNewest() {
+        MOOSLatestValues latest = new MOOSLatestValues();
+        assertEquals(-1.0, latest.getDoubleData("NAV_SPEED", -1.0), 0.0);
+        assertTrue(Double.isNaN(latest.getTime("NAV_SPEED")));
+
+        MOOSMsg first = new MOOSMsg(MessageType.Notify, "NAV_SPEED", 1.5, 10.0);
+        first.setSource("pNav");
+        latest.update(first);
+        latest.update(new MOOSMsg(MessageType.Notify, "NAV_SPEED", 0.5, 9.0)); // older, ignored
+        latest.update(new MOOSMsg(MessageType.Register, "NAV_SPEED", 0.0, 11.0)); // not a Notify
+        latest.update(new MOOSMsg(MessageType.Notify, "MODE", "SURVEY", 12.0));
+
+        assertSame(first, latest.get("NAV_SPEED"));
+        assertEquals(1.5, latest.getDoubleData("NAV_SPEED", -1.0), 0.0);
+        assertEquals(10.0, latest.getTime("NAV_SPEED"), 0.0);
+        assertEquals("pNav", latest.getSource("NAV_SPEED"));
+        assertEquals("SURVEY", latest.getStringData("MODE", null));
+        assertEquals(2, latest.getVariables().size());
+
+        latest.update(new MOOSMsg(MessageType.Notify, "NAV_SPEED", 2.0, 13.0));
+        assertEquals(2.0, latest.getDoubleData("NAV_SPEED", -1.0), 0.0);
+    }
+}
@@ -0,0 +1,160 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static MOOS.MOOSTestClients.await;
+import static org.junit.Assert.*;
+
+/**
+ * Clients on a local bus and one that isn't, all connected to a
+ * MOOSInProcessDB.
+ */
+public class MOOSLocalBusTest {
+
+    private MOOSInProcessDB db;
+    private MOOSLocalBus bus;
+    private final MOOSTestClients clients = new MOOSTestClients();
+
+    @Before
+    public void setUp() throws Exception {
+        db = new MOOSInProcessDB().start();
+        bus = new MOOSLocalBus();
+    }
+
+    @After
+    public void tearDown() {
+        clients.close();
+        db.close();
+    }
+
+    private MOOSCommClient connect(String name, boolean local) throws Exception {
+        MOOSCommClient client = clients.create(name, db.getPort());
+        if (local) {
+            client.setLocalBus(bus);
+        }
+        return clients.connect(client);
+    }
+
+    @Test
+    public void testSharedByReference() throws Exception {
+        MOOSCommClient sender = connect("sender", true);
+        MOOSCommClient local = connect("local", true);
+        MOOSCommClient remote = connect("remote", false);
+        CopyOnWriteArrayList<MOOSMsg> localGot = new CopyOnWriteArrayList<>();
+        CopyOnWriteArrayList<MOOSMsg> remoteGot = new CopyOnWriteArrayList<>();
+        local.register("NAV_X", 0, localGot::add);
+        remote.register("NAV_X", 0, remoteGot::add);
+        clients.watchMarker(local, db::isRegistered);
+        await(() -> db.isRegistered("local", "NAV_X") && db.isRegistered("remote", "NAV_X"));
+
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, "NAV_X", 12.5, -1);
+        assertTrue(sender.notify(msg));
+        await(() -> !localGot.isEmpty() && !remoteGot.isEmpty());
+        assertSame(msg, localGot.get(0)); // not serialised
+        assertNotSame(msg, remoteGot.get(0)); // through the MOOSDB
+        assertEquals(12.5, remoteGot.get(0).getDoubleData(), 0);
+        clients.awaitMarker(remote, local); // after the MOOSDB's copy
+        assertEquals(1, localGot.size()); // which was ignored
+        assertEquals(1, bus.getDeliveredCount());
+        assertSame(msg, bus.getLatest("NAV_X"));
+    }
+
+    @Test
+    public void testRemoteStillArrives() throws Exception {
+        MOOSCommClient local = connect("local", true);
+        MOOSCommClient remote = connect("remote", false);
+        CopyOnWriteArrayList<String> got = new CopyOnWriteArrayList<>();
+        local.register("DEPTH", 0, m -> got.add(m.getSource()));
+        await(() -> db.isRegistered("local", "DEPTH"));
+        remote.notify("DEPTH", 3.0, -1);
+        await(() -> got.contains("remote"));
+        assertEquals(0, bus.getDeliveredCount());
+    }
+
+    @Test
+    public void testWildcardAndCurrentValue() throws Exception {
+        MOOSCommClient sender = connect("sender", true);
+        sender.notify("NODE_A", "a", -1);
+        MOOSCommClient late = connect("late", true);
+        MOOSCommClient remote = connect("remote", false);
+        clients.watchMarker(late, db::isRegistered);
+        CopyOnWriteArrayList<String> keys = new CopyOnWriteArrayList<>();
+        late.setMessageHandler(messages -> {
+            for (MOOSMsg m : messages) {
+                if (m.getKey().startsWith("NODE_")) {
+                    keys.add(m.getKey());
+                }
+            }
+            return true;
+        });
+        late.register("NODE_*", "send*", 0);
+        await(() -> keys.contains("NODE_A")); // what was posted before
+        sender.notify("NODE_B", "b", -1);
+        sender.notify("OTHER", "c", -1);
+        await(() -> keys.contains("NODE_B") && db.getValue("OTHER") != null);
+        clients.awaitMarker(remote, late); // after the MOOSDB's copies
+        assertEquals(2, keys.size());
+    }
+
+    @Test
+    public void testWildcardBeforeJoining() throws Exception {
+        MOOSCommClient sender = connect("sender", true);
+        MOOSCommClient late = connect("late", false);
+        MOOSCommClient remote = connect("remote", false);
+        CopyOnWriteArrayList<MOOSMsg> got = new CopyOnWriteArrayList<>();
+        late.setMessageHandler(messages -> {
+            for (MOOSMsg m : messages) {
+                if (m.getKey().startsWith("NODE_")) {
+                    got.add(m);
+                }
+            }
+            return true;
+        });
+        late.register("NODE_*", "*", 0);
+        clients.watchMarker(late, db::isRegistered);
+        await(() -> db.isRegistered("late", "NODE_A"));
+        late.setLocalBus(bus); // the wildcard goes on the bus too
+
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, "NODE_A", "a", -1);
+        sender.notify(msg);
+        await(() -> !got.isEmpty());
+        clients.awaitMarker(remote, late); // after the MOOSDB's copy
+        assertEquals(1, got.size());
+        assertSame(msg, got.get(0)); // from the bus
+    }
+
+    @Test
+    public void testInterval() throws Exception {
+        MOOSCommClient sender = connect("sender", true);
+        MOOSCommClient limited = connect("limited", true);
+        CopyOnWriteArrayList<MOOSMsg> got = new CopyOnWriteArrayList<>();
+        MOOSCommClient remote = connect("remote", false);
+        limited.register("RATE", 10, got::add);
+        clients.watchMarker(limited, db::isRegistered);
+        await(() -> db.isRegistered("limited", "RATE"));
+        for (int i = 0; i < 20; i++) {
+            sender.notify("RATE", i, -1);
+        }
+        await(() -> !got.isEmpty() && db.getValue("RATE") != null && db.getValue("RATE").getDoubleData() == 19);
+        clients.awaitMarker(remote, limited); // after the MOOSDB's copies
+        assertEquals(1, got.size());
+    }
+
+    @Test
+    public void testMembers() throws Exception {
+        MOOSCommClient one = new MOOSCommClient("twin", "localhost", db.getPort());
+        one.setLocalBus(bus);
+        try {
+            new MOOSCommClient("twin", "localhost", db.getPort()).setLocalBus(bus);
+            fail("Two clients with the same name");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(1, bus.getMemberNames().size());
+        one.setLocalBus(null);
+        assertTrue(bus.getMemberNames().isEmpty());
+        assertNull(one.getLocalBus());
+    }
+}
@@ -0,0 +1,163 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static MOOS.MOOSTestClients.await;
+import static org.junit.Assert.*;
+
+/**
+ * A MOOSLogger on a client of a MOOSInProcessDB, and fed packets directly.
+ */
+public class MOOSLoggerTest {
+
+    private File file;
+    private MOOSLogger logger;
+    private MOOSInProcessDB db;
+    private final MOOSTestClients clients = new MOOSTestClients();
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("moos", ".alog");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        clients.close();
+        if (logger != null) {
+            logger.close();
+        }
+        if (db != null) {
+            db.close();
+        }
+        file.delete();
+    }
+
+    private List<String> lines() throws Exception {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static MOOSMsgCursor packet(MOOSMsg... msgs) {
+        List<MOOSMsg> list = new ArrayList<>();
+        for (MOOSMsg msg : msgs) {
+            list.add(msg);
+        }
+        ByteBuffer[] segments = new MOOSCommPkt().gather(list);
+        int length = 0;
+        for (ByteBuffer segment : segments) {
+            length += segment.remaining();
+        }
+        ByteBuffer whole = Utils.allocate(length);
+        for (ByteBuffer segment : segments) {
+            whole.put(segment.duplicate());
+        }
+        return new MOOSMsgCursor().reset(whole, 0);
+    }
+
+    @Test
+    public void testLogsCommunity() throws Exception {
+        db = new MOOSInProcessDB().start();
+        logger = new MOOSLogger(file);
+        MOOSCommClient logging = clients.create("logging", db.getPort());
+        logger.attach(logging, "*", "send*");
+        clients.connect(logging);
+        MOOSCommClient sender = clients.connect("sender", db.getPort());
+        await(() -> db.isRegistered("logging", "NAV_X")); // the logger's wildcard
+
+        sender.notify("NAV_X", 12.5, -1);
+        sender.notify("NAV_DEPTH", 3, -1);
+        sender.notify("STATUS", "all\nwell", -1);
+        await(() -> logger.getLoggedCount() >= 3);
+        assertTrue(logging.getInbox().isEmpty()); // the logger has them
+        logger.close();
+        assertEquals(0, logger.getDroppedCount());
+
+        List<String> lines = lines();
+        assertTrue(lines.get(0).startsWith("%%%%"));
+        assertTrue(lines.get(1).startsWith("%% LOG FILE:"));
+        assertTrue(lines.get(3).startsWith("%% LOGSTART"));
+        List<String> logged = new ArrayList<>();
+        for (String line : lines.subList(5, lines.size())) {
+            String[] fields = line.trim().split("\\s+", 4);
+            Double.parseDouble(fields[0]);
+            assertEquals("sender", fields[2]);
+            logged.add(fields[1] + "=" + fields[3]);
+        }
+        assertTrue(logged.toString(), logged.contains("NAV_X=12.5"));
+        assertTrue(logged.toString(), logged.contains("NAV_DEPTH=3"));
+        assertTrue(logged.toString(), logged.contains("STATUS=all well"));
+        assertNull(logging.getCursorHandler()); // detached
+    }
+
+    @Test
+    public void testRegistersAgainAfterReconnecting() throws Exception {
+        db = new MOOSInProcessDB().start();
+        int port = db.getPort();
+        logger = new MOOSLogger(file);
+        MOOSCommClient logging = clients.create("logging", port);
+        logger.attach(logging, "NAV_*", "*");
+        clients.connect(logging);
+        await(() -> db.isRegistered("logging", "NAV_X"));
+
+        db.close();
+        db = new MOOSInProcessDB(MOOSInProcessDB.DEFAULT_COMMUNITY, port).start(); // knows nothing of the wildcard
+        await(() -> logging.getStats().getConnections() > 1);
+        await(() -> db.isRegistered("logging", "NAV_X")); // the client sent it again
+        MOOSCommClient sender = clients.connect("sender", port);
+        sender.notify("NAV_X", 1.0, -1);
+        await(() -> logger.getLoggedCount() >= 1);
+    }
+
+    @Test
+    public void testLeavesOtherHandlers() throws Exception {
+        logger = new MOOSLogger(file);
+        MOOSCommClient client = clients.create("handled", 9000);
+        MoosCursorHandler other = messages -> true;
+        client.setCursorHandler(other);
+        try {
+            logger.attach(client);
+            fail("Replaced the client's cursor handler");
+        } catch (IllegalStateException expected) {
+        }
+        assertSame(other, client.getCursorHandler());
+
+        client.setCursorHandler(null);
+        logger.attach(client);
+        logger.attach(client, "NAV_*", "*"); // again, with other patterns
+        client.setCursorHandler(other); // in place of the logger
+        logger.detach(client);
+        assertSame(other, client.getCursorHandler());
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        logger = new MOOSLogger(file);
+        double start = logger.getLogStart();
+        MOOSMsg position = new MOOSMsg(MessageType.Notify, "NAV_X", -0.25, start + 1.5);
+        position.setSource("nav");
+        MOOSMsg clock = new MOOSMsg(MessageType.Notify, "DB_TIME", 1792276460.319, start + 1.75);
+        clock.setSource("MOOSDB");
+        MOOSMsg binary = new MOOSMsg(MessageType.Notify, "IMAGE", new byte[100], start + 2);
+        binary.setSource("camera");
+        MOOSMsg register = new MOOSMsg(MessageType.Register, "NAV_X", 0.0, start);
+        assertTrue(logger.handleMessages(packet(position, register, clock, binary)));
+        logger.close();
+
+        List<String> lines = lines();
+        assertEquals(8, lines.size());
+        assertEquals("1.500      NAV_X                nav              -0.25", lines.get(5));
+        assertEquals("1.750      DB_TIME              MOOSDB           1792276460.319", lines.get(6));
+        assertEquals("2.000      IMAGE                camera           <binary 100 bytes>", lines.get(7));
+        assertEquals(3, logger.getLoggedCount());
+
+        assertTrue(logger.handleMessages(packet(position)));
+        assertEquals(1, logger.getDroppedCount()); // closed
+    }
+}
@@ -0,0 +1,83 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSMsgCursorTest {
+
+    private static MOOSCommPkt receivedPacket(ArrayList<MOOSMsg> messages) throws Exception {
+        MOOSCommPkt tx = new MOOSCommPkt();
+        tx.serialize(messages, true);
+        MOOSCommPkt rx = new MOOSCommPkt();
+        rx.setBytes(tx.getBytes());
+        assertEquals(0, rx.fill());
+        return rx;
+    }
+
+    @Test
+    public void testWalkPacket() throws Exception {
+        ArrayList<MOOSMsg> messages = new ArrayList<>();
+        MOOSMsg d = new MOOSMsg(MessageType.Notify, "NAV_X", 12.5, 100.0);
+        d.setSource("pNav");
+        d.setMsgID(7);
+        messages.add(d);
+        messages.add(new MOOSMsg()); // Null messages are skipped
+        MOOSMsg s = new MOOSMsg(MessageType.Notify, "DEPLOY", "true", 101.0);
+        s.setSourceAuxInfo("aux");
+        messages.add(s);
+        messages.add(new MOOSMsg(MessageType.Notify, "IMAGE", new byte[]{1, 2, 3, 4}, 102.0));
+
+        MOOSMsgCursor cursor = new MOOSMsgCursor().reset(receivedPacket(messages));
+
+        assertTrue(cursor.next());
+        assertTrue(cursor.isType(MessageType.Notify));
+        assertTrue(cursor.isDouble());
+        assertTrue(cursor.keyEquals("NAV_X"));
+        assertFalse(cursor.keyEquals("NAV_Y"));
+        assertFalse(cursor.keyEquals("NAV_XX"));
+        assertTrue(cursor.sourceEquals("pNav"));
+        assertEquals(7, cursor.getMsgID());
+        assertEquals(12.5, cursor.getDoubleData(), 0.0);
+        assertEquals(100.0, cursor.getTime(), 0.0);
+
+        assertTrue(cursor.next());
+        assertTrue(cursor.isString());
+        assertEquals("DEPLOY", cursor.getKey());
+        assertEquals("true", cursor.getStringData());
+        assertEquals("aux", cursor.getSourceAux());
+
+        assertTrue(cursor.next());
+        assertTrue(cursor.isBinary());
+        ByteBuffer binary = cursor.getBinaryData();
+        assertEquals(4, binary.remaining());
+        assertEquals(3, binary.get(2));
+        assertEquals(4, cursor.getBinaryLength());
+
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testToMOOSMsg() throws Exception {
+        ArrayList<MOOSMsg> messages = new ArrayList<>();
+        messages.add(new MOOSMsg(MessageType.Notify, "A", 1.0, 10.0));
+        messages.add(new MOOSMsg(MessageType.Notify, "B", "two", 20.0));
+
+        ArrayList<MOOSMsg> decoded = new ArrayList<>();
+        MOOSCommPkt rx = receivedPacket(messages);
+        rx.serialize(decoded, false);
+
+        MOOSMsgCursor cursor = new MOOSMsgCursor().reset(rx);
+        for (MOOSMsg expected : decoded) {
+            assertTrue(cursor.next());
+            MOOSMsg msg = cursor.toMOOSMsg();
+            assertEquals(expected.getKey(), msg.getKey());
+            assertEquals(expected.getStringData(), msg.getStringData());
+            assertEquals(expected.getDoubleData(), msg.getDoubleData(), 0.0);
+            assertEquals(expected.getTime(), msg.getTime(), 0.0);
+        }
+        assertFalse(cursor.next());
+    }
+}
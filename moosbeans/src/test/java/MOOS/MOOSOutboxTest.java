@@ -0,0 +1,114 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSOutboxTest {
+
+    private static MOOSMsg msg(int id) {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, "X", id, 0.0);
+        msg.setMsgID(id);
+        return msg;
+    }
+
+    @Test
+    public void testOverflowPolicies() {
+        MOOSOutbox outbox = new MOOSOutbox(2);
+        assertTrue(outbox.offer(msg(0)));
+        assertTrue(outbox.offer(msg(1)));
+        assertFalse(outbox.offer(msg(2)));
+        assertEquals(1, outbox.getDroppedCount());
+
+        outbox.setOverflowPolicy(MOOSOutbox.OverflowPolicy.DROP_OLDEST);
+        assertTrue(outbox.offer(msg(3)));
+        assertEquals(2, outbox.getDroppedCount());
+
+        ArrayList<MOOSMsg> drained = new ArrayList<>();
+        assertEquals(2, outbox.drainTo(drained));
+        assertEquals(1, drained.get(0).getMsgID());
+        assertEquals(3, drained.get(1).getMsgID());
+        assertTrue(outbox.isEmpty());
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void testConcurrentPosters() throws Exception {
+        final int threads = 4;
+        final int each = 20000;
+        final MOOSOutbox outbox = new MOOSOutbox(threads * each);
+        Thread[] posters = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            posters[t] = new Thread(() -> {
+                for (int i = 0; i < each; i++) {
+                    outbox.offer(msg(i));
+                }
+            });
+            posters[t].start();
+        }
+
+        // drain while they are still posting, nothing may be lost
+        ArrayList<MOOSMsg> drained = new ArrayList<>();
+        for (Thread poster : posters) {
+            while (poster.isAlive()) {
+                outbox.drainTo(drained);
+            }
+        }
+        outbox.drainTo(drained);
+        assertEquals(threads * each, drained.size());
+        assertEquals(0, outbox.getDroppedCount());
+    }
+
+    @Test
+    public void testConflation() {
+        MOOSOutbox outbox = new MOOSOutbox(10);
+        outbox.setConflating(true);
+        outbox.setConflating("ALL", false);
+        for (int i = 0; i < 5; i++) {
+            outbox.offer(new MOOSMsg(MessageType.Notify, "HEADING", i, 0.0));
+            outbox.offer(new MOOSMsg(MessageType.Notify, "ALL", i, 0.0));
+        }
+        outbox.offer(new MOOSMsg(MessageType.Register, "HEADING", 0.0, 0.0));
+        assertEquals(4, outbox.getConflatedCount());
+        assertEquals(7, outbox.size());
+
+        ArrayList<MOOSMsg> drained = new ArrayList<>();
+        assertEquals(7, outbox.drainTo(drained));
+        assertEquals("HEADING", drained.get(0).getKey()); // where the first one was posted
+        assertEquals(4.0, drained.get(0).getDoubleData(), 0.0);
+        assertEquals("ALL", drained.get(1).getKey());
+        assertTrue(drained.get(6).isType(MessageType.Register));
+
+        outbox.offer(new MOOSMsg(MessageType.Notify, "HEADING", 5, 0.0));
+        drained.clear();
+        outbox.drainTo(drained);
+        assertEquals(5.0, drained.get(0).getDoubleData(), 0.0); // conflated again after each drain
+    }
+
+    @Test
+    public void testBatches() {
+        MOOSOutbox outbox = new MOOSOutbox(4);
+        assertTrue(outbox.offer(msg(0)));
+        assertTrue(outbox.offerAll(Arrays.asList(msg(1), msg(2), msg(3))));
+        assertEquals(4, outbox.size());
+        assertFalse("no room for the whole batch", outbox.offerAll(Arrays.asList(msg(4), msg(5))));
+        assertEquals(2, outbox.getDroppedCount());
+
+        outbox.setOverflowPolicy(MOOSOutbox.OverflowPolicy.DROP_OLDEST);
+        assertTrue(outbox.offer(msg(6))); // pushes out msg 0
+        assertTrue(outbox.offer(msg(7))); // pushes out the whole batch
+        assertEquals(6, outbox.getDroppedCount());
+
+        ArrayList<MOOSMsg> drained = new ArrayList<>();
+        assertEquals(2, outbox.drainTo(drained));
+        assertEquals(6, drained.get(0).getMsgID());
+        assertEquals(0, outbox.size());
+
+        assertTrue(outbox.offerAll(Arrays.asList(msg(8), msg(9))));
+        drained.clear();
+        assertEquals(2, outbox.drainTo(drained));
+        assertEquals(9, drained.get(1).getMsgID());
+    }
+}
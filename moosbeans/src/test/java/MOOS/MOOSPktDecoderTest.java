@@ -0,0 +1,163 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSPktDecoderTest {
+
+    /**
+     * Hands out a stream a few bytes per read, like a socket with TCP
+     * segments trickling in.
+     */
+    private static class Trickle implements ReadableByteChannel {
+
+        final ByteBuffer stream;
+        final int chunk;
+
+        Trickle(ByteBuffer stream, int chunk) {
+            this.stream = stream;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!stream.hasRemaining()) {
+                return 0;
+            }
+            int n = Math.min(Math.min(chunk, dst.remaining()), stream.remaining());
+            for (int i = 0; i < n; i++) {
+                dst.put(stream.get());
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static ByteBuffer packet(MOOSCommPkt pkt, MOOSMsg... messages) {
+        ArrayList<MOOSMsg> list = new ArrayList<>();
+        for (MOOSMsg msg : messages) {
+            list.add(msg);
+        }
+        pkt.serialize(list, true);
+        return pkt.getBytes();
+    }
+
+    private static ByteBuffer stream(ByteBuffer... packets) {
+        int size = 0;
+        for (ByteBuffer packet : packets) {
+            size += packet.remaining();
+        }
+        ByteBuffer stream = Utils.allocate(size);
+        for (ByteBuffer packet : packets) {
+            stream.put(packet);
+        }
+        stream.flip();
+        return stream;
+    }
+
+    private static ArrayList<MOOSMsg> decodeAll(MOOSPktDecoder decoder, ReadableByteChannel channel) throws Exception {
+        ArrayList<MOOSMsg> received = new ArrayList<>();
+        MOOSCommPkt pkt = new MOOSCommPkt();
+        do {
+            while (decoder.next(pkt)) {
+                pkt.serialize(received, false);
+                pkt.recycle();
+            }
+        } while (decoder.read(channel) > 0);
+        return received;
+    }
+
+    @Test
+    public void testSplitAndCoalescedPackets() throws Exception {
+        ByteBuffer stream = stream(
+                packet(new MOOSCommPkt(), new MOOSMsg(MessageType.Notify, "A", 1.0, 1.0)),
+                packet(new MOOSCommPkt(), new MOOSMsg(MessageType.Notify, "B", "two", 2.0),
+                        new MOOSMsg(MessageType.Notify, "C", 3.0, 3.0)),
+                packet(new MOOSCommPkt(), new MOOSMsg(MessageType.Notify, "D", new byte[3000], 4.0)));
+
+        for (int chunk : new int[]{1, 5, 13, 100000}) { // split up, and all in one read
+            stream.rewind();
+            ArrayList<MOOSMsg> received = decodeAll(new MOOSPktDecoder(new MOOSBufferPool()), new Trickle(stream, chunk));
+            assertEquals(4, received.size());
+            assertEquals("A", received.get(0).getKey());
+            assertEquals("two", received.get(1).getStringData());
+            assertEquals(3.0, received.get(2).getDoubleData(), 0.0);
+            assertEquals(3000, received.get(3).getBinaryData().length);
+        }
+    }
+
+    @Test
+    public void testPartialPacketWaits() throws Exception {
+        ByteBuffer whole = packet(new MOOSCommPkt(), new MOOSMsg(MessageType.Notify, "A", 1.0, 1.0));
+        ByteBuffer stream = stream(whole);
+        MOOSPktDecoder decoder = new MOOSPktDecoder();
+        Trickle channel = new Trickle(stream, stream.remaining() - 1);
+        MOOSCommPkt pkt = new MOOSCommPkt();
+        decoder.read(channel);
+        assertFalse(decoder.next(pkt));
+        assertEquals(stream.limit() - 1, decoder.getPending());
+        assertEquals(1, decoder.read(channel));
+        assertTrue(decoder.next(pkt));
+        assertFalse(decoder.next(pkt));
+        assertEquals(0, decoder.getPending());
+    }
+
+    @Test
+    public void testPacketBiggerThanBuffer() throws Exception {
+        byte[] big = new byte[3 * MOOSPktDecoder.INITIAL_BUFFER_SIZE];
+        big[big.length - 1] = 42;
+        ByteBuffer stream = stream(
+                packet(new MOOSCommPkt(), new MOOSMsg(MessageType.Notify, "A", 1.0, 1.0)),
+                packet(new MOOSCommPkt(), new MOOSMsg(MessageType.Notify, "BIG", big, 2.0)));
+        ArrayList<MOOSMsg> received = decodeAll(new MOOSPktDecoder(new MOOSBufferPool()), new Trickle(stream, 10000));
+        assertEquals(2, received.size());
+        assertEquals(42, received.get(1).getBinaryData()[big.length - 1]);
+    }
+
+    @Test
+    public void testCorruptCompressedPacketIsSkipped() throws Exception {
+        ByteBuffer corrupt = Utils.allocate(MOOSCommPkt.PACKET_HEADER_SIZE + 4);
+        corrupt.putInt(MOOSCommPkt.PACKET_HEADER_SIZE + 4).putInt(1).put((byte) 1).putInt(0x12345678).flip();
+        MOOSCommPkt compressed = new MOOSCommPkt();
+        compressed.setCompressionThreshold(0);
+        ByteBuffer stream = stream(corrupt,
+                packet(compressed, new MOOSMsg(MessageType.Notify, "Z", new byte[500], 1.0)));
+
+        MOOSPktDecoder decoder = new MOOSPktDecoder();
+        decoder.read(new Trickle(stream, 100000));
+        MOOSCommPkt pkt = new MOOSCommPkt();
+        try {
+            decoder.next(pkt);
+            fail("corrupt packet decoded");
+        } catch (NoJavaZipCompressionSupportYetException expected) {
+        }
+        assertTrue(decoder.next(pkt));
+        assertTrue(pkt.isCompressed());
+        ArrayList<MOOSMsg> received = new ArrayList<>();
+        pkt.serialize(received, false);
+        assertEquals("Z", received.get(0).getKey());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testEndOfStream() throws Exception {
+        new MOOSPktDecoder().read(new Trickle(ByteBuffer.allocate(0), 1) {
+            @Override
+            public int read(ByteBuffer dst) {
+                return -1;
+            }
+        });
+    }
+}
@@ -0,0 +1,216 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static MOOS.MOOSTestClients.await;
+import static org.junit.Assert.*;
+
+/**
+ * A client's I/O loop talking to a MOOSDB played by the test, which can
+ * stop reading to leave a packet half written, and can see how long posts
+ * take to go out and which packet they go in.
+ */
+public class MOOSSelectorLoopTest {
+
+    private ServerSocketChannel server;
+    private SocketChannel accepted;
+    private final MOOSPktDecoder decoder = new MOOSPktDecoder();
+    private final MOOSCommPkt pkt = new MOOSCommPkt();
+    private final MOOSTestClients clients = new MOOSTestClients();
+
+    @Before
+    public void setUp() throws Exception {
+        server = ServerSocketChannel.open();
+        server.socket().setReceiveBufferSize(4096);
+        server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        clients.close();
+        if (accepted != null) {
+            accepted.close();
+        }
+        server.close();
+        decoder.release();
+    }
+
+    /**
+     * Accept the client's connection, read its handshake and name, and
+     * welcome it.
+     */
+    private MOOSCommClient connect(String name) throws Exception {
+        return connect(clients.create(name, server.socket().getLocalPort()));
+    }
+
+    private MOOSCommClient connect(MOOSCommClient client) throws Exception {
+        String name = client.getName();
+        long connections = client.getStats().getConnections();
+        client.setEnable(true);
+        if (accepted != null) {
+            accepted.close();
+        }
+        accepted = server.accept();
+        decoder.reset();
+        ByteBuffer handshake = ByteBuffer.allocate(MOOSServerConnection.HANDSHAKE_SIZE);
+        while (handshake.hasRemaining()) {
+            accepted.read(handshake);
+        }
+        List<MOOSMsg> hello = read(1);
+        assertEquals(name, hello.get(0).getStringData());
+        ArrayList<MOOSMsg> reply = new ArrayList<>();
+        reply.add(new MOOSMsg(MessageType.Welcome, "", 0.0, Utils.currentTime()));
+        MOOSCommPkt welcome = new MOOSCommPkt();
+        welcome.serialize(reply, true);
+        accepted.write(welcome.getBytes());
+        await(() -> client.getStats().getConnections() > connections);
+        return client;
+    }
+
+    /**
+     * @return the next count messages the client has sent, leaving out keep
+     * alives and registrations
+     */
+    private List<MOOSMsg> read(int count) throws IOException, NoJavaZipCompressionSupportYetException {
+        List<MOOSMsg> msgs = new ArrayList<>();
+        while (msgs.size() < count) {
+            msgs.addAll(readPacket());
+        }
+        assertEquals(count, msgs.size());
+        return msgs;
+    }
+
+    /**
+     * @return the messages in the next packet that has any besides keep
+     * alives and registrations
+     */
+    private List<MOOSMsg> readPacket() throws IOException, NoJavaZipCompressionSupportYetException {
+        ArrayList<MOOSMsg> received = new ArrayList<>();
+        while (true) {
+            while (decoder.next(pkt)) {
+                pkt.serialize(received, false);
+                pkt.recycle();
+                received.removeIf(msg -> !msg.isType(MessageType.Data) && !msg.isType(MessageType.Notify));
+                if (!received.isEmpty()) {
+                    return received;
+                }
+            }
+            decoder.read(accepted);
+        }
+    }
+
+    /**
+     * Post a notification once the client has had time to settle into its
+     * loop, and check it went out long before the next iteration was due.
+     */
+    private void assertSentStraightAway(MOOSCommClient client) throws Exception {
+        Thread.sleep(100);
+        long posted = System.nanoTime();
+        assertTrue(client.notify("NAV_X", 1.0, -1));
+        MOOSMsg msg = readPacket().get(0);
+        long millis = (System.nanoTime() - posted) / 1000000;
+        assertEquals("NAV_X", msg.getKey());
+        assertTrue("Took " + millis + " ms", millis < 1000);
+    }
+
+    private static List<MOOSMsg> bulk(int from, int count) {
+        List<MOOSMsg> msgs = new ArrayList<>();
+        char[] padding = new char[16 * 1024];
+        Arrays.fill(padding, 'x');
+        for (int i = from; i < from + count; i++) {
+            msgs.add(new MOOSMsg(MessageType.Notify, "BULK", i + ":" + new String(padding), Utils.currentTime()));
+        }
+        return msgs;
+    }
+
+    private static boolean isWriting(MOOSCommClient client) {
+        synchronized (client) {
+            return client.pendingTx != null;
+        }
+    }
+
+    @Test
+    public void testSendMessagesWhileWriting() throws Exception {
+        MOOSCommClient client = connect("sender");
+        int sent = 0;
+        while (!isWriting(client)) { // until the socket is full
+            assertTrue("The socket never filled up", sent < 10000);
+            client.sendMessages(bulk(sent, 4));
+            sent += 4;
+        }
+        for (int i = 0; i < 3; i++) { // they have to wait for the half written packet
+            client.sendMessages(bulk(sent, 4));
+            sent += 4;
+        }
+
+        List<MOOSMsg> msgs = read(sent);
+        for (int i = 0; i < sent; i++) {
+            String value = msgs.get(i).getStringData();
+            assertEquals(i, Integer.parseInt(value.substring(0, value.indexOf(':'))));
+            assertEquals(value.indexOf(':') + 1 + 16 * 1024, value.length());
+        }
+        await(() -> !isWriting(client));
+    }
+
+    @Test
+    public void testGroup() throws Exception {
+        connect("plain"); // handshakes with the same protocol string buffer
+        MOOSCommClientGroup group = new MOOSCommClientGroup("group");
+        MOOSCommClient client = clients.create("grouped", server.socket().getLocalPort());
+        client.setClientGroup(group);
+        connect(client);
+        client.setEnable(false);
+        await(() -> !group.selector.isOpen()); // once its last client has gone
+        connect(client); // with a new one
+    }
+
+    @Test
+    public void testLowLatencySelector() throws Exception {
+        MOOSCommClient client = clients.create("fast", server.socket().getLocalPort());
+        client.setFundamentalFrequency(0.5); // posts would wait up to 2 s otherwise
+        assertSentStraightAway(connect(client));
+    }
+
+    @Test
+    public void testLowLatencyPolling() throws Exception {
+        MOOSCommClient client = clients.create("fast", server.socket().getLocalPort());
+        client.setUseSelector(false);
+        client.setFundamentalFrequency(0.5);
+        assertSentStraightAway(connect(client)); // unparked
+    }
+
+    @Test
+    public void testLowLatencyGroup() throws Exception {
+        MOOSCommClientGroup group = new MOOSCommClientGroup("fast");
+        MOOSCommClient client = clients.create("fast", server.socket().getLocalPort());
+        client.setClientGroup(group);
+        client.setFundamentalFrequency(0.5);
+        assertSentStraightAway(connect(client)); // the group's Selector was woken
+    }
+
+    @Test
+    public void testLowLatencyWindow() throws Exception {
+        MOOSCommClient client = clients.create("burst", server.socket().getLocalPort());
+        client.setFundamentalFrequency(0.5);
+        client.setLowLatencyWindow(100000); // 100 ms, plenty to post the rest
+        connect(client);
+        Thread.sleep(100);
+        for (int i = 0; i < 3; i++) {
+            client.notify("BURST", i, -1);
+        }
+        List<MOOSMsg> msgs = readPacket();
+        assertEquals(3, msgs.size()); // waited for the others before sending the first
+        assertEquals(2, msgs.get(2).getDoubleData(), 0);
+    }
+}
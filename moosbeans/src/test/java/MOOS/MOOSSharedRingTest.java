@@ -0,0 +1,287 @@
+package MOOS;
+
+import MOOS.comms.MessageType;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static MOOS.MOOSTestClients.await;
+import static org.junit.Assert.*;
+
+/**
+ * Two rings on the same file stand in for two JVMs on the same host.
+ */
+public class MOOSSharedRingTest {
+
+    private File file;
+    private final List<MOOSSharedRing> rings = new ArrayList<>();
+    private final MOOSTestClients clients = new MOOSTestClients();
+    private MOOSInProcessDB db;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("moos", ".ring");
+        file.delete(); // the ring makes it
+    }
+
+    @After
+    public void tearDown() {
+        clients.close();
+        for (MOOSSharedRing ring : rings) {
+            ring.close();
+        }
+        if (db != null) {
+            db.close();
+        }
+        file.delete();
+    }
+
+    private MOOSSharedRing open(int capacity) throws IOException {
+        MOOSSharedRing ring = new MOOSSharedRing(file, capacity);
+        rings.add(ring);
+        return ring;
+    }
+
+    private MOOSCommClient connect(String name, MOOSSharedRing ring) throws Exception {
+        MOOSCommClient client = clients.create(name, db.getPort());
+        if (ring != null) {
+            client.setSharedRing(ring);
+        }
+        return clients.connect(client);
+    }
+
+    private static ByteBuffer[] packet(String var, double value) {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, value, 0.0);
+        msg.setSource("writer");
+        return new MOOSCommPkt().gather(Collections.singletonList(msg));
+    }
+
+    @Test
+    public void testWraps() throws Exception {
+        MOOSSharedRing writer = open(4096);
+        MOOSSharedRing reader = open(1 << 20);
+        assertEquals(4096, reader.getCapacity()); // the one it was made with
+        MOOSCommClient client = new MOOSCommClient("reader", "localhost", 0); // never connected
+        client.setSharedRing(reader);
+        client.register("WRAP", 0);
+        for (int i = 0; i < 200; i++) { // about ten times round
+            assertTrue(writer.write(packet("WRAP", i)));
+            int expected = i;
+            await(() -> !client.getInbox().isEmpty());
+            MOOSMsg msg = client.getNewMsgs().get(0);
+            assertEquals(expected, msg.getDoubleData(), 0);
+            assertEquals("writer", msg.getSource());
+        }
+        assertEquals(200, writer.getWrittenCount());
+        assertEquals(200, reader.getReadCount());
+        assertEquals(0, reader.getOverrunCount());
+        assertFalse(writer.write(ByteBuffer.allocate(writer.getMaxPacketSize() + 1)));
+    }
+
+    /**
+     * @return a packet of one binary notification, every byte of which is
+     * value, that takes up recordLength bytes of the ring
+     */
+    private static ByteBuffer[] sized(int recordLength, int value) {
+        int empty = 0;
+        for (ByteBuffer segment : binary(0, value)) {
+            empty += segment.remaining();
+        }
+        return binary(recordLength - 8 - empty, value); // the length and padding make up the rest
+    }
+
+    private static ByteBuffer[] binary(int size, int value) {
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, (byte) value);
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, "BIG", payload, 0.0);
+        msg.setDoubleData(value);
+        msg.setSource("writer");
+        return new MOOSCommPkt().gather(Collections.singletonList(msg));
+    }
+
+    @Test
+    public void testLaggingReaderSkipsHalfWrittenPacket() throws Exception {
+        MOOSSharedRing reader = open(4096);
+        reader.close(); // the mapping stays, and only the test reads it now
+        MOOSSharedRing writer = open(4096);
+        int biggest = 1024; // the biggest record a 4096 byte ring takes
+        assertTrue(writer.write(sized(512, 0)));
+        assertTrue(reader.readNext()); // leaving it at 512
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(writer.write(sized(biggest, i))); // up to 3584, so it is 3072 behind
+        }
+
+        // the next biggest packet doesn't fit before the end, so a writer pads
+        // and starts writing it at 0, over the packet at 512 the reader is on
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer pad = ByteBuffer.allocate(4).order(Utils.BYTE_ORDER).putInt(0, -1);
+            channel.write(pad, MOOSSharedRing.HEADER_SIZE + 3584);
+            ByteBuffer half = ByteBuffer.allocate(biggest).order(Utils.BYTE_ORDER);
+            Arrays.fill(half.array(), (byte) 0x55);
+            half.putInt(0, biggest - 8);
+            channel.write(half, MOOSSharedRing.HEADER_SIZE);
+        }
+        assertTrue(reader.readNext());
+        assertEquals(1, reader.getOverrunCount()); // rather than reading what is there now
+        assertFalse(reader.readNext()); // and has caught up
+    }
+
+    @Test
+    public void testWrapsWithBigPackets() throws Exception {
+        MOOSSharedRing writer = open(4096);
+        MOOSSharedRing reader = open(4096);
+        MOOSCommClient client = new MOOSCommClient("reader", "localhost", 0); // never connected
+        client.setMAX_INBOX_MESSAGES(10000);
+        client.setSharedRing(reader);
+        client.register("BIG", 0);
+        for (int i = 0; i < 2000; i++) { // about 500 times round, faster than it reads some of the time
+            assertTrue(writer.write(sized(i % 2 == 0 ? 1024 : 600, i)));
+            if (i % 16 == 0) {
+                Thread.sleep(1); // and giving it time to catch up the rest
+            }
+        }
+        client.register("DONE", 0);
+        ArrayList<MOOSMsg> got = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + MOOSTestClients.TIMEOUT;
+        while (got.stream().noneMatch(msg -> msg.getKey().equals("DONE"))) { // it gets one once it has caught up
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            writer.write(sized(600, 255)); // so it has one BIG even if it was overrun every time before
+            writer.write(packet("DONE", 0));
+            Thread.sleep(10);
+            got.addAll(client.getNewMsgs());
+        }
+        assertTrue("No BIG", got.stream().anyMatch(msg -> msg.getKey().equals("BIG")));
+        for (MOOSMsg msg : got) {
+            if (msg.getKey().equals("BIG")) {
+                byte expected = (byte) msg.getDoubleData();
+                for (byte b : msg.getBinaryData()) {
+                    assertEquals("Packet " + msg.getDoubleData() + " was overwritten while it was read", expected, b);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBetweenJVMs() throws Exception {
+        db = new MOOSInProcessDB().start();
+        MOOSSharedRing first = open(1 << 16);
+        MOOSSharedRing second = open(1 << 16);
+        MOOSCommClient sender = connect("sender", first);
+        MOOSCommClient receiver = connect("receiver", second);
+        MOOSCommClient remote = connect("remote", null);
+        await(() -> second.getMemberNames().contains("sender") && first.getMemberNames().contains("receiver"));
+
+        CopyOnWriteArrayList<MOOSMsg> got = new CopyOnWriteArrayList<>();
+        CopyOnWriteArrayList<MOOSMsg> remoteGot = new CopyOnWriteArrayList<>();
+        receiver.register("NAV_X", 0, got::add);
+        receiver.register("IMU", 0, got::add);
+        remote.register("NAV_X", 0, remoteGot::add);
+        remote.register("IMU", 0, remoteGot::add);
+        clients.watchMarker(receiver, db::isRegistered);
+        clients.watchMarker(remote, db::isRegistered);
+        await(() -> db.isRegistered("receiver", "NAV_X") && db.isRegistered("receiver", "IMU")
+                && db.isRegistered("remote", "NAV_X") && db.isRegistered("remote", "IMU"));
+
+        sender.notify("NAV_X", 1.5, -1);
+        await(() -> !got.isEmpty() && !remoteGot.isEmpty());
+        clients.awaitMarker(remote, receiver); // after the MOOSDB's copy
+        assertEquals(1, got.size()); // through the ring, the MOOSDB's copy was ignored
+        assertEquals(1, remoteGot.size());
+
+        sender.setSharedRingOnly("IMU", true);
+        sender.notify("IMU", 9.8, -1);
+        await(() -> got.size() == 2);
+        clients.awaitMarker(sender, remote); // sent after IMU, had it gone to the MOOSDB
+        assertEquals("IMU", got.get(1).getKey());
+        assertEquals(1, remoteGot.size()); // never went to the MOOSDB
+        assertNull(db.getValue("IMU"));
+        assertTrue(first.getWrittenCount() >= 2);
+
+        sender.setSharedRing(null);
+        await(() -> !second.getMemberNames().contains("sender"));
+    }
+
+    @Test
+    public void testTooBigForTheRing() throws Exception {
+        db = new MOOSInProcessDB().start();
+        MOOSSharedRing first = open(4096);
+        MOOSSharedRing second = open(4096);
+        MOOSCommClient sender = connect("sender", first);
+        MOOSCommClient receiver = connect("receiver", second);
+        MOOSCommClient remote = connect("remote", null);
+        await(() -> second.getMemberNames().contains("sender"));
+        CopyOnWriteArrayList<MOOSMsg> got = new CopyOnWriteArrayList<>();
+        receiver.register("BIG", 0, got::add);
+        receiver.register("SMALL", 0, got::add);
+        clients.watchMarker(receiver, db::isRegistered);
+        await(() -> db.isRegistered("receiver", "BIG") && db.isRegistered("receiver", "SMALL"));
+
+        sender.notify("BIG", new byte[first.getMaxPacketSize()], -1);
+        sender.notify("SMALL", 1.0, -1);
+        await(() -> got.size() >= 2);
+        clients.awaitMarker(remote, receiver); // after the MOOSDB's copies
+        assertEquals(2, got.size()); // BIG from the MOOSDB, SMALL from the ring
+        assertEquals(first.getMaxPacketSize(), got.get(0).getBinaryData().length);
+    }
+
+    @Test
+    public void testLeavesRing() throws Exception {
+        db = new MOOSInProcessDB().start();
+        MOOSSharedRing first = open(1 << 16);
+        MOOSSharedRing second = open(1 << 16);
+        MOOSCommClient sender = connect("sender", first);
+        MOOSCommClient receiver = connect("receiver", second);
+        MOOSCommClient remote = connect("remote", null);
+        await(() -> second.getMemberNames().contains("sender"));
+        CopyOnWriteArrayList<MOOSMsg> got = new CopyOnWriteArrayList<>();
+        receiver.register("NAV_X", 0, got::add);
+        clients.watchMarker(receiver, db::isRegistered);
+        await(() -> db.isRegistered("receiver", "NAV_X"));
+
+        sender.setSharedRing(null);
+        sender.notify("NAV_X", 1.0, -1); // before the reader has seen it go
+        await(() -> !got.isEmpty());
+        clients.awaitMarker(remote, receiver);
+        assertEquals(1, got.size());
+    }
+
+    @Test
+    public void testStaleMember() throws Exception {
+        MOOSSharedRing ring = open(1 << 16);
+        byte[] name = "crashed".getBytes(MOOSMsg.CHARSET);
+        ByteBuffer member = ByteBuffer.allocate(4 + name.length).order(Utils.BYTE_ORDER);
+        member.putInt(name.length).put(name).flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(member, MOOSSharedRing.MEMBERS_OFFSET); // as if its process had died without detaching
+        }
+
+        ring.attach("sender");
+        await(() -> ring.getMemberNames().contains("sender"));
+        assertFalse(ring.getMemberNames().contains("crashed"));
+        ByteBuffer slot = ByteBuffer.allocate(4).order(Utils.BYTE_ORDER);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.read(slot, MOOSSharedRing.MEMBERS_OFFSET);
+        }
+        assertEquals("sender".length(), slot.getInt(0)); // its slot was taken back
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotARing() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[16384]);
+            out.getChannel().position(0);
+            out.write("not a ring".getBytes());
+        }
+        open(4096);
+    }
+}
@@ -0,0 +1,136 @@
+package MOOS;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Clients for tests against a MOOSDB on this host, and ways to wait for what
+ * they do to get where it is going rather than sleeping for long enough.
+ * Close it in an @After to disable every client it made.
+ *
+ * <pre>
+ * MOOSCommClient receiver = clients.connect("receiver", db.getPort());
+ * receiver.register("NAV_X", 0, got::add);
+ * MOOSTestClients.await(() -&gt; db.isRegistered("receiver", "NAV_X"));
+ * </pre>
+ */
+public class MOOSTestClients implements Closeable {
+
+    /**
+     * How long await() waits before failing the test, in milliseconds.
+     */
+    public static final long TIMEOUT = 10000;
+
+    /**
+     * The variable awaitMarker() posts.
+     */
+    public static final String MARKER = "TEST_MARKER";
+
+    private final List<MOOSCommClient> clients = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<MOOSCommClient, AtomicLong> markers = new ConcurrentHashMap<>();
+    private final AtomicLong lastMarker = new AtomicLong();
+
+    /**
+     * @return a client using a Selector in low latency mode, not enabled yet
+     */
+    public MOOSCommClient create(String name, int port) {
+        MOOSCommClient client = new MOOSCommClient(name, "localhost", port);
+        client.setUseSelector(true);
+        client.setLowLatency(true);
+        return add(client);
+    }
+
+    /**
+     * @return a client from create(), once the MOOSDB has welcomed it
+     */
+    public MOOSCommClient connect(String name, int port) throws InterruptedException {
+        return connect(create(name, port));
+    }
+
+    /**
+     * Enable client and wait for the MOOSDB to welcome it.
+     *
+     * @return client
+     */
+    public MOOSCommClient connect(MOOSCommClient client) throws InterruptedException {
+        add(client).setEnable(true);
+        await(() -> client.getStats().getConnections() > 0);
+        return client;
+    }
+
+    /**
+     * Disable client in close() as well.
+     *
+     * @return client
+     */
+    public MOOSCommClient add(MOOSCommClient client) {
+        if (!clients.contains(client)) {
+            clients.add(client);
+        }
+        return client;
+    }
+
+    /**
+     * Register receiver for MARKER, so awaitMarker() can tell when it has
+     * caught up.
+     *
+     * @param registered whether the MOOSDB has a client's registration for a
+     * variable, e.g. db::isRegistered
+     */
+    public void watchMarker(MOOSCommClient receiver, BiPredicate<String, String> registered) throws InterruptedException {
+        AtomicLong seen = new AtomicLong();
+        markers.put(receiver, seen);
+        receiver.register(MARKER, 0, msg -> seen.set((long) msg.getDoubleData()));
+        await(() -> registered.test(receiver.getName(), MARKER));
+    }
+
+    /**
+     * Wait until receiver has handled everything the MOOSDB sent it before it
+     * handled a notification poster posts now. The MOOSDB sends each client
+     * what it has for it in order, so once receiver has the marker it has had
+     * anything sent to it earlier. The marker goes twice, so that by the time
+     * the second arrives the batch the first came in has been finished with.
+     *
+     * @param poster posts the marker. It mustn't share a local bus or shared
+     * ring with receiver, or the marker would get there by that instead.
+     * @param receiver a client given to watchMarker()
+     */
+    public void awaitMarker(MOOSCommClient poster, MOOSCommClient receiver) throws InterruptedException {
+        AtomicLong seen = markers.get(receiver);
+        for (int i = 0; i < 2; i++) {
+            long marker = lastMarker.incrementAndGet();
+            poster.notify(MARKER, (double) marker, -1);
+            await(() -> seen.get() >= marker);
+        }
+    }
+
+    /**
+     * Wait for condition to hold, failing the test if it hasn't within
+     * TIMEOUT.
+     */
+    public static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Disable every client.
+     */
+    @Override
+    public void close() {
+        for (MOOSCommClient client : clients) {
+            client.setEnable(false);
+        }
+        clients.clear();
+        markers.clear();
+    }
+}
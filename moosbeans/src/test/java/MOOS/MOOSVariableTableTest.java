@@ -0,0 +1,45 @@
+package MOOS;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSVariableTableTest {
+
+    @Test
+    public void testIds() {
+        MOOSVariableTable variables = new MOOSVariableTable();
+        for (int i = 0; i < 100; i++) { // enough to grow the table a few times
+            assertEquals(i, variables.idOf("VAR_" + i));
+        }
+        assertEquals(42, variables.idOf("VAR_42"));
+        assertEquals(100, variables.size());
+        assertEquals("VAR_7", variables.nameOf(7));
+        assertArrayEquals("VAR_7".getBytes(), variables.bytesOf(7));
+        assertEquals(-1, variables.find("NAV_X"));
+    }
+
+    @Test
+    public void testFindInBuffer() {
+        MOOSVariableTable variables = new MOOSVariableTable();
+        int navX = variables.idOf("NAV_X");
+        int navY = variables.idOf("NAV_Y");
+        ByteBuffer buffer = ByteBuffer.wrap("..NAV_Y..NAV_X.NAV_XY".getBytes());
+        assertEquals(navY, variables.find(buffer, 2, 5));
+        assertEquals(navX, variables.find(buffer, 9, 5));
+        assertEquals(-1, variables.find(buffer, 15, 6));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testDoubleFlags() {
+        MOOSVariableTable variables = new MOOSVariableTable();
+        int a = variables.idOf("A");
+        int b = variables.idOf("B");
+        variables.setDouble(b);
+        assertFalse(variables.isDouble(a));
+        assertTrue(variables.isDouble(b));
+        assertFalse(variables.isDouble(-1));
+        assertTrue("flags survive the table growing", variables.isDouble(variables.idOf("C") - 1));
+    }
+}
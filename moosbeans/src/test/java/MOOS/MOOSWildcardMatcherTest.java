@@ -0,0 +1,117 @@
+package MOOS;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MOOSWildcardMatcherTest {
+
+    @Test
+    public void testGlob() {
+        assertTrue(MOOSWildcardMatcher.matches("*", ""));
+        assertTrue(MOOSWildcardMatcher.matches("NAV_*", "NAV_"));
+        assertTrue(MOOSWildcardMatcher.matches("NAV_*", "NAV_X"));
+        assertFalse(MOOSWildcardMatcher.matches("NAV_*", "NAV"));
+        assertTrue(MOOSWildcardMatcher.matches("?_X", "N_X"));
+        assertFalse(MOOSWildcardMatcher.matches("?_X", "_X"));
+        assertTrue(MOOSWildcardMatcher.matches("*_*_Z", "A_B_C_Z"));
+        assertTrue(MOOSWildcardMatcher.matches("A**B", "AB"));
+        assertFalse(MOOSWildcardMatcher.matches("A*B", "ABC"));
+        assertTrue(MOOSWildcardMatcher.matches("A.B*", "A.BCD"));
+        assertFalse(MOOSWildcardMatcher.matches("A.B*", "AXBCD"));
+    }
+
+    @Test
+    public void testMatch() {
+        MOOSWildcardMatcher<String> matcher = new MOOSWildcardMatcher<>();
+        assertTrue(matcher.match("NAV_X", "pNav").isEmpty());
+        matcher.add("*", "*", "everything");
+        matcher.add("NAV_*", "*", "nav");
+        matcher.add("NAV_?", "p*", "one letter from p");
+        matcher.add("NAV_X", "pHelm", "x from helm");
+        matcher.add("*_SPEED", "*", "speeds");
+        assertEquals(5, matcher.size());
+
+        assertEquals(Arrays.asList("everything", "nav", "one letter from p"), matcher.match("NAV_X", "pNav"));
+        assertEquals(Arrays.asList("everything", "nav", "one letter from p", "x from helm"), matcher.match("NAV_X", "pHelm"));
+        assertEquals(Arrays.asList("everything", "nav"), matcher.match("NAV_X", "uSim"));
+        assertEquals(Arrays.asList("everything", "nav", "speeds"), matcher.match("NAV_SPEED", "pNav"));
+        assertEquals(Collections.singletonList("everything"), matcher.match("DEPLOY", "pNav"));
+
+        MOOSWildcardMatcher.Matches<String> matches = matcher.lookup("NAV_Y");
+        assertEquals(Arrays.asList("everything", "nav", "one letter from p"), matches.getAll());
+        assertEquals(Arrays.asList("everything", "nav"), matches.getAnySource());
+        assertTrue(matches.dependsOnSource());
+        assertEquals(Collections.singletonList("one letter from p"), matches.getForSource("pNav"));
+        assertTrue(matches.getForSource(null).isEmpty());
+        assertSame(matches, matcher.lookup("NAV_Y")); // remembered
+
+        assertTrue(matcher.remove("NAV_*", "*", "nav"));
+        assertFalse(matcher.remove("NAV_*", "*", "nav"));
+        assertNotSame(matches, matcher.lookup("NAV_Y"));
+        assertEquals(Collections.singletonList("everything"), matcher.match("NAV_Y", "uSim"));
+        assertEquals(1, matcher.removeAll("everything"));
+        assertTrue(matcher.match("NAV_Y", "uSim").isEmpty());
+    }
+
+    @Test
+    public void testAgreesWithRegex() {
+        Random random = new Random(42);
+        String alphabet = "AB_*?";
+        MOOSWildcardMatcher<String> matcher = new MOOSWildcardMatcher<>();
+        String[] patterns = new String[300];
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = randomString(random, alphabet, 6) + i % 3; // some share a pattern
+            matcher.add(patterns[i], "*", patterns[i] + "#" + i);
+        }
+        for (int n = 0; n < 2000; n++) {
+            String var = randomString(random, "AB_", 8) + random.nextInt(3);
+            int expected = 0;
+            for (String pattern : patterns) {
+                boolean regex = compileWildcard(pattern).matcher(var).matches();
+                assertEquals(pattern + " " + var, regex, MOOSWildcardMatcher.matches(pattern, var));
+                if (regex) {
+                    expected++;
+                }
+            }
+            assertEquals(var, expected, matcher.lookup(var).getAll().size());
+        }
+    }
+
+    private static String randomString(Random random, String alphabet, int maxLength) {
+        StringBuilder s = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            s.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return s.toString();
+    }
+
+    /**
+     * Turn a MOOS wildcard, where * is any run of characters and ? is any
+     * one character, into a regular expression, to check
+     * MOOSWildcardMatcher against.
+     */
+    private static Pattern compileWildcard(String wildcard) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : wildcard.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
@@ -0,0 +1,609 @@
+package MOOS.db;
+
+import MOOS.MOOSMsg;
+import MOOS.MOOSWildcardMatcher;
+import MOOS.Utils;
+import MOOS.comms.MessageType;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A MOOSDB written in Java, for communities with more clients or more
+ * traffic than one thread can keep up with.
+ *
+ * One thread accepts connections and hands them round a pool of workers,
+ * each with its own Selector. A notification is handled on the worker of the
+ * client that posted it: it is serialised once, and the same bytes are
+ * queued for every subscriber, whichever worker they are on. Each worker
+ * then writes all that has been queued for each of its clients as one
+ * packet. Variables and their subscribers are shared between the workers
+ * without locking on the way through; only registering takes a lock.
+ *
+ * Registrations honour their interval, and wildcard registrations are
+ * resolved into registrations for each matching variable as variables
+ * appear. The DB posts DB_TIME, DB_UPTIME, DB_CLIENTS and DB_RWSUMMARY
+ * every summary period, and DB_CONNECT and DB_DISCONNECT as clients come
+ * and go.
+ *
+ * <pre>
+ * java -jar moosdb.jar [mission.moos] [--moos_port=9000] [--moos_community=shoreside] [--threads=8]
+ * </pre>
+ */
+public class MOOSDB implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSDB.class);
+
+    public static final int DEFAULT_PORT = 9000;
+    public static final String DEFAULT_COMMUNITY = "#1";
+
+    private final String community;
+    private final String name; // the source of the DB_ variables
+    private final int requestedPort;
+    private final int threads;
+    private long maxQueuedBytes = 64L << 20;
+    private long summaryPeriod = 1000; // milliseconds
+
+    private ServerSocketChannel server;
+    private Thread acceptor;
+    private MOOSDBWorker[] workers;
+    private ScheduledExecutorService summary;
+    private volatile boolean running;
+    private double startTime;
+
+    private final ConcurrentHashMap<String, MOOSDBVariable> variables = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MOOSDBClient> clients = new ConcurrentHashMap<>(); // welcomed ones
+    private final Object registry = new Object(); // for creating variables and wildcard registrations
+    private final MOOSWildcardMatcher<MOOSDBWildcard> wildcards = new MOOSWildcardMatcher<>(); // changed under registry
+
+    private final LongAdder notifyCount = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+
+    /**
+     * A MOOSDB for the default community on the default port, with a worker
+     * per processor.
+     */
+    public MOOSDB() {
+        this(DEFAULT_COMMUNITY, DEFAULT_PORT, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param community the community name, stamped on every notification
+     * @param port the port to listen on, 0 for any free one
+     * @param threads how many I/O workers to share the clients between
+     */
+    public MOOSDB(String community, int port, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one worker thread, not " + threads);
+        }
+        this.community = community;
+        this.name = "MOOSDB_" + community;
+        this.requestedPort = port;
+        this.threads = threads;
+    }
+
+    /**
+     * @param bytes the most a client can have waiting to be written to it.
+     * Notifications for it are dropped while it has more than that, rather
+     * than let a client that has stopped reading use up the heap. Call before
+     * start().
+     */
+    public void setMaxQueuedBytes(long bytes) {
+        this.maxQueuedBytes = bytes;
+    }
+
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * @param period how often to post the DB_ summary variables in
+     * milliseconds, 0 for never. Call before start().
+     */
+    public void setSummaryPeriod(long period) {
+        this.summaryPeriod = period;
+    }
+
+    /**
+     * Start listening and start the threads.
+     *
+     * @return this, for chaining
+     * @throws IOException if the port can't be listened on
+     */
+    public synchronized MOOSDB start() throws IOException {
+        if (running) {
+            return this;
+        }
+        server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(requestedPort), 1024);
+            workers = new MOOSDBWorker[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new MOOSDBWorker(this, name + "-io-" + i);
+            }
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        startTime = Utils.currentTime();
+        running = true;
+        for (MOOSDBWorker worker : workers) {
+            worker.start();
+        }
+        acceptor = new Thread(this::accept, name + "-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        if (summaryPeriod > 0) {
+            summary = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name + "-summary");
+                thread.setDaemon(true);
+                return thread;
+            });
+            summary.scheduleAtFixedRate(this::publishSummary, 0, summaryPeriod, TimeUnit.MILLISECONDS);
+        }
+        LOG.info("{} listening on port {} with {} workers", name, getPort(), threads);
+        return this;
+    }
+
+    /**
+     * Disconnect every client and stop.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        if (summary != null) {
+            summary.shutdownNow();
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            LOG.debug("Closing {}", name, e);
+        }
+        try {
+            acceptor.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (MOOSDBWorker worker : workers) {
+            worker.close();
+        }
+        LOG.info("{} stopped", name);
+    }
+
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.socket().setTcpNoDelay(true);
+                workers[next].adopt(channel);
+                next = (next + 1) % workers.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                LOG.warn("{} failed to accept a connection", name, e);
+            }
+        }
+    }
+
+    /**
+     * @return the port being listened on, once started
+     */
+    public int getPort() {
+        return server == null ? -1 : server.socket().getLocalPort();
+    }
+
+    public String getCommunity() {
+        return community;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the names of the connected clients
+     */
+    public Set<String> getClientNames() {
+        return Collections.unmodifiableSet(clients.keySet());
+    }
+
+    /**
+     * @param client a client's name
+     * @param var a variable name
+     * @return whether the client has registered for var, either exactly or
+     * with a wildcard whose VarPattern matches it
+     */
+    public boolean isRegistered(String client, String var) {
+        MOOSDBClient registered = clients.get(client);
+        if (registered == null) {
+            return false;
+        }
+        if (registered.subscribed.containsKey(var)) {
+            return true;
+        }
+        for (MOOSDBWildcard wildcard : registered.wildcards) {
+            if (wildcard.matchesVariable(var)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param var a variable name
+     * @return the last notification of var, or null if it has never been
+     * posted
+     */
+    public MOOSMsg getValue(String var) {
+        MOOSDBVariable variable = variables.get(var);
+        MOOSDBVariable.Value value = variable == null ? null : variable.getValue();
+        return value == null ? null : value.msg;
+    }
+
+    /**
+     * @return how many notifications clients have posted
+     */
+    public long getNotifyCount() {
+        return notifyCount.sum();
+    }
+
+    /**
+     * @return how many messages have been written to clients
+     */
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * @return how many messages have been dropped because connected clients
+     * weren't reading them
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (MOOSDBClient client : clients.values()) {
+            dropped += client.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    void sent(int messages, int bytes) {
+        messagesSent.add(messages);
+        packetsSent.increment();
+        bytesSent.add(bytes);
+    }
+
+    static byte[] encode(MOOSMsg msg) {
+        byte[] encoded = new byte[msg.getSizeInBytesWhenSerialised()];
+        msg.serialize(ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN), true);
+        return encoded;
+    }
+
+    /**
+     * A client has posted a notification, on its worker's thread.
+     */
+    void notified(MOOSDBClient client, MOOSMsg msg) {
+        if (msg.getCommunity() == null || msg.getCommunity().isEmpty()) {
+            msg.setCommunity(community);
+        }
+        String key = msg.getKey();
+        if (!client.published.contains(key)) {
+            client.published.add(key);
+        }
+        notifyCount.increment();
+        post(msg);
+    }
+
+    /**
+     * Send a client the current value of every variable.
+     */
+    void sendAll(MOOSDBClient client) {
+        for (MOOSDBVariable variable : variables.values()) {
+            MOOSDBVariable.Value value = variable.getValue();
+            if (value != null) {
+                client.send(value.encoded);
+            }
+        }
+    }
+
+    /**
+     * A client has said who it is.
+     *
+     * @return false if there is already a client called that
+     */
+    boolean welcome(MOOSDBClient client, String clientName) {
+        if (clients.putIfAbsent(clientName, client) != null) {
+            return false;
+        }
+        client.send(encode(new MOOSMsg(MessageType.Welcome, "", 0.0, Utils.currentTime())));
+        LOG.info("{} welcomed {}", name, clientName);
+        publish("DB_CONNECT", clientName);
+        publish("DB_CLIENTS", clientList());
+        return true;
+    }
+
+    /**
+     * Tell a client why it isn't welcome, and drop it.
+     */
+    void poison(MOOSDBClient client, String reason) {
+        LOG.warn("{} poisoning {}: {}", name, client, reason);
+        client.send(encode(new MOOSMsg(MessageType.Poision, "", reason)));
+        try {
+            client.flush(ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN));
+        } catch (IOException e) {
+            LOG.debug("Poisoning {}", client, e);
+        }
+        client.close();
+    }
+
+    /**
+     * Called once a client's connection has been closed.
+     */
+    void disconnected(MOOSDBClient client) {
+        synchronized (registry) {
+            for (MOOSDBWildcard wildcard : client.wildcards) {
+                wildcards.remove(wildcard.varPattern, wildcard.appPattern, wildcard);
+            }
+        }
+        for (MOOSDBVariable variable : client.subscribed.values()) {
+            variable.unsubscribe(client);
+        }
+        String clientName = client.getName();
+        if (clientName != null && clients.remove(clientName, client)) {
+            LOG.info("{} said goodbye to {}", name, clientName);
+            if (running) {
+                publish("DB_DISCONNECT", clientName);
+                publish("DB_CLIENTS", clientList());
+            }
+        }
+    }
+
+    /**
+     * @return the variable called name, creating it, along with the
+     * registrations any wildcards make for it, if it doesn't exist yet
+     */
+    private MOOSDBVariable variable(String var) {
+        MOOSDBVariable variable = variables.get(var);
+        if (variable != null) {
+            return variable;
+        }
+        synchronized (registry) {
+            variable = variables.get(var);
+            if (variable == null) {
+                variable = new MOOSDBVariable(var);
+                for (MOOSDBWildcard wildcard : wildcards.lookup(var).getAll()) {
+                    if (variable.subscribe(wildcard) != null) {
+                        wildcard.client.subscribed.put(var, variable);
+                    }
+                }
+                variables.put(var, variable);
+            }
+        }
+        return variable;
+    }
+
+    /**
+     * Store a notification and send it to its subscribers.
+     */
+    private void post(MOOSMsg msg) {
+        variable(msg.getKey()).notify(msg, encode(msg), System.nanoTime());
+    }
+
+    void register(MOOSDBClient client, String var, double interval) {
+        MOOSDBVariable variable = variable(var);
+        MOOSDBSubscription subscription = new MOOSDBSubscription(client, interval, null);
+        variable.subscribe(subscription);
+        client.subscribed.put(var, variable);
+        variable.sendCurrent(subscription);
+    }
+
+    void unregister(MOOSDBClient client, String var) {
+        MOOSDBVariable variable = client.subscribed.remove(var);
+        if (variable != null) {
+            variable.unsubscribe(client);
+        }
+    }
+
+    void registerWildcard(MOOSDBClient client, String varPattern, String appPattern, double interval) {
+        unregisterWildcard(client, varPattern, appPattern);
+        MOOSDBWildcard wildcard = new MOOSDBWildcard(client, varPattern, appPattern, interval);
+        synchronized (registry) {
+            wildcards.add(varPattern, appPattern, wildcard);
+            client.wildcards.add(wildcard);
+            for (MOOSDBVariable variable : variables.values()) {
+                if (wildcard.matchesVariable(variable.name)) {
+                    MOOSDBSubscription subscription = variable.subscribe(wildcard);
+                    if (subscription != null) {
+                        client.subscribed.put(variable.name, variable);
+                        variable.sendCurrent(subscription);
+                    }
+                }
+            }
+        }
+    }
+
+    void unregisterWildcard(MOOSDBClient client, String varPattern, String appPattern) {
+        synchronized (registry) {
+            for (MOOSDBWildcard wildcard : client.wildcards) {
+                if (wildcard.sameAs(varPattern, appPattern)) {
+                    wildcards.remove(varPattern, appPattern, wildcard);
+                    client.wildcards.remove(wildcard);
+                    for (MOOSDBVariable variable : client.subscribed.values()) {
+                        if (variable.unsubscribe(wildcard) && !subscribeAgain(client, variable)) {
+                            client.subscribed.remove(variable.name, variable);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Once one of a client's wildcards has stopped registering it for a
+     * variable, let another of its wildcards that matches take over.
+     *
+     * @return whether the client is still registered for the variable
+     */
+    private static boolean subscribeAgain(MOOSDBClient client, MOOSDBVariable variable) {
+        for (MOOSDBWildcard other : client.wildcards) {
+            if (other.matchesVariable(variable.name) && variable.subscribe(other) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Post a notification from the DB itself.
+     */
+    private void publish(String var, String value) {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, value);
+        msg.setSource(name);
+        msg.setCommunity(community);
+        post(msg);
+    }
+
+    private void publish(String var, double value) {
+        MOOSMsg msg = new MOOSMsg(MessageType.Notify, var, value);
+        msg.setSource(name);
+        msg.setCommunity(community);
+        post(msg);
+    }
+
+    private String clientList() {
+        StringBuilder list = new StringBuilder();
+        for (String client : new TreeSet<>(clients.keySet())) {
+            list.append(client).append(',');
+        }
+        return list.toString();
+    }
+
+    /**
+     * @return who subscribes to and publishes what, in the same form as
+     * MOOSDB: name=S:VAR:VAR&amp;P:VAR:VAR,name=...
+     */
+    String rwSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (MOOSDBClient client : new TreeMap<>(clients).values()) {
+            if (summary.length() > 0) {
+                summary.append(',');
+            }
+            summary.append(client.getName()).append("=S");
+            for (String var : new TreeSet<>(client.subscribed.keySet())) {
+                summary.append(':').append(var);
+            }
+            summary.append("&P");
+            for (String var : new TreeSet<>(client.published)) {
+                summary.append(':').append(var);
+            }
+        }
+        return summary.toString();
+    }
+
+    private void publishSummary() {
+        try {
+            double now = Utils.currentTime();
+            publish("DB_TIME", now);
+            publish("DB_UPTIME", now - startTime);
+            publish("DB_CLIENTS", clientList());
+            publish("DB_RWSUMMARY", rwSummary());
+        } catch (RuntimeException e) {
+            LOG.error("{} failed to post its summary", name, e); // and carry on next time
+        }
+    }
+
+    /**
+     * Read ServerPort and Community from the global section of a mission
+     * file.
+     */
+    private static String[] readMission(String file) throws IOException {
+        String port = null;
+        String community = null;
+        int depth = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf("//");
+                line = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (line.startsWith("{")) {
+                    depth++;
+                } else if (line.startsWith("}")) {
+                    depth--;
+                } else if (depth == 0 && line.indexOf('=') > 0) {
+                    String key = line.substring(0, line.indexOf('=')).trim();
+                    String value = line.substring(line.indexOf('=') + 1).trim();
+                    if (key.equalsIgnoreCase("ServerPort")) {
+                        port = value;
+                    } else if (key.equalsIgnoreCase("Community")) {
+                        community = value;
+                    }
+                }
+            }
+        }
+        return new String[]{port, community};
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = DEFAULT_PORT;
+        String community = DEFAULT_COMMUNITY;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            if (arg.startsWith("--moos_port=")) {
+                port = Integer.parseInt(arg.substring("--moos_port=".length()));
+            } else if (arg.startsWith("--moos_community=")) {
+                community = arg.substring("--moos_community=".length());
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.endsWith(".moos")) {
+                String[] mission = readMission(arg);
+                port = mission[0] == null ? port : Integer.parseInt(mission[0]);
+                community = mission[1] == null ? community : mission[1];
+            } else {
+                System.err.println("Usage: MOOSDB [mission.moos] [--moos_port=N] [--moos_community=NAME] [--threads=N]");
+                System.exit(1);
+            }
+        }
+        MOOSDB db = new MOOSDB(community, port, threads).start();
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            db.close();
+            stopped.countDown();
+        }));
+        stopped.await();
+    }
+}
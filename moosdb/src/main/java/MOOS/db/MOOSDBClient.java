@@ -0,0 +1,242 @@
+package MOOS.db;
+
+import MOOS.MOOSCommPkt;
+import MOOS.MOOSMsg;
+import MOOS.MOOSServerConnection;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connection to one client. Reading, and writing to the socket, only
+ * happen on the worker the connection belongs to; send() can be called from
+ * any worker, which is how notifications read on one thread reach
+ * subscribers on the others. What the client sends is handed to the DB.
+ */
+final class MOOSDBClient extends MOOSServerConnection {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSDBClient.class);
+
+    private final MOOSDB db;
+    final MOOSDBWorker worker;
+    final SocketChannel channel;
+    private SelectionKey key;
+    private final String address;
+
+    // worker thread only
+    private ByteBuffer pendingWrite; // the rest of a packet the socket wouldn't take
+
+    private volatile boolean closed;
+
+    // for the registry, and DB_RWSUMMARY
+    final ConcurrentHashMap<String, MOOSDBVariable> subscribed = new ConcurrentHashMap<>();
+    final Set<String> published = ConcurrentHashMap.newKeySet();
+    final CopyOnWriteArrayList<MOOSDBWildcard> wildcards = new CopyOnWriteArrayList<>();
+
+    // from any thread
+    private final ConcurrentLinkedQueue<byte[]> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    final AtomicBoolean scheduled = new AtomicBoolean(); // in the worker's ready queue
+    private final LongAdder dropped = new LongAdder();
+
+    MOOSDBClient(MOOSDB db, MOOSDBWorker worker, SocketChannel channel) {
+        this.db = db;
+        this.worker = worker;
+        this.channel = channel;
+        this.address = String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    protected boolean isClosed() {
+        return closed;
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String toString() {
+        String name = getName();
+        return name == null ? address : name;
+    }
+
+    /**
+     * Queue a serialised message for the client. It goes out in the next
+     * packet its worker writes, together with anything else queued by then.
+     *
+     * @param encoded the message
+     * @return false if the client has gone, or has so much queued already
+     * that the message was dropped
+     */
+    boolean send(byte[] encoded) {
+        if (closed) {
+            return false;
+        }
+        if (queuedBytes.get() > db.getMaxQueuedBytes()) {
+            dropped.increment();
+            if (dropped.sum() % 10000 == 1) {
+                LOG.warn("{} isn't keeping up, {} messages dropped so far", this, dropped.sum());
+            }
+            return false;
+        }
+        queuedBytes.addAndGet(encoded.length);
+        outgoing.offer(encoded);
+        if (scheduled.compareAndSet(false, true)) {
+            worker.schedule(this);
+        }
+        return true;
+    }
+
+    /**
+     * Read whatever has arrived and handle every complete packet.
+     */
+    void read() throws IOException {
+        read(channel);
+    }
+
+    @Override
+    protected boolean welcome(String client) {
+        return db.welcome(this, client);
+    }
+
+    @Override
+    protected void poison(String reason) {
+        db.poison(this, reason);
+    }
+
+    @Override
+    protected void notified(MOOSMsg msg) {
+        db.notified(this, msg);
+    }
+
+    @Override
+    protected void registered(String var, double interval) {
+        db.register(this, var, interval);
+    }
+
+    @Override
+    protected void unregistered(String var) {
+        db.unregister(this, var);
+    }
+
+    @Override
+    protected void registeredWildcard(String varPattern, String appPattern, double interval) {
+        db.registerWildcard(this, varPattern, appPattern, interval);
+    }
+
+    @Override
+    protected void unregisteredWildcard(String varPattern, String appPattern) {
+        db.unregisterWildcard(this, varPattern, appPattern);
+    }
+
+    @Override
+    protected void serverRequest() {
+        db.sendAll(this);
+    }
+
+    @Override
+    protected void terminated() {
+        close();
+    }
+
+    /**
+     * Write everything queued, a packet at a time, until it is all gone or
+     * the socket won't take any more.
+     *
+     * @param scratch the worker's buffer to build packets in
+     * @return scratch, or a bigger one if a message didn't fit
+     */
+    ByteBuffer flush(ByteBuffer scratch) throws IOException {
+        while (pendingWrite == null && !closed && !outgoing.isEmpty()) {
+            scratch.clear();
+            scratch.position(MOOSCommPkt.PACKET_HEADER_SIZE);
+            int count = 0;
+            byte[] msg;
+            while ((msg = outgoing.peek()) != null) {
+                if (scratch.remaining() < msg.length) {
+                    if (count > 0) {
+                        break; // in the next packet
+                    }
+                    scratch = grow(scratch, MOOSCommPkt.PACKET_HEADER_SIZE + msg.length);
+                }
+                outgoing.poll();
+                scratch.put(msg);
+                queuedBytes.addAndGet(-msg.length);
+                count++;
+            }
+            scratch.flip();
+            scratch.putInt(0, scratch.limit());
+            scratch.putInt(MOOSMsg.INT_SIZE_IN_BYTES, count);
+            scratch.put(2 * MOOSMsg.INT_SIZE_IN_BYTES, (byte) 0); // not compressed
+            channel.write(scratch);
+            db.sent(count, scratch.limit());
+            if (scratch.hasRemaining()) {
+                pendingWrite = ByteBuffer.allocate(scratch.remaining());
+                pendingWrite.put(scratch).flip();
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+        return scratch;
+    }
+
+    private static ByteBuffer grow(ByteBuffer scratch, int needed) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(needed, 2 * scratch.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+        bigger.position(MOOSCommPkt.PACKET_HEADER_SIZE);
+        return bigger;
+    }
+
+    /**
+     * The socket has room again: finish the packet that didn't fit, then
+     * carry on with the queue.
+     */
+    ByteBuffer writable(ByteBuffer scratch) throws IOException {
+        if (pendingWrite != null) {
+            channel.write(pendingWrite);
+            if (pendingWrite.hasRemaining()) {
+                return scratch;
+            }
+            pendingWrite = null;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+        return flush(scratch);
+    }
+
+    /**
+     * Drop the connection and everything the client registered for. Only on
+     * the worker's thread, or once the worker has stopped.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.debug("Closing {}", this, e);
+        }
+        release();
+        outgoing.clear();
+        queuedBytes.set(0);
+        db.disconnected(this);
+    }
+}
@@ -0,0 +1,52 @@
+package MOOS.db;
+
+import MOOS.MOOSWildcardMatcher;
+import MOOS.Utils;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One client's registration for one variable, either made directly with
+ * Register or on its behalf by a wildcard registration.
+ */
+final class MOOSDBSubscription {
+
+    final MOOSDBClient client;
+    final double interval; // seconds of MOOS time, 0 for every notification
+    final MOOSDBWildcard wildcard; // null for a direct registration
+    private final String app; // null for any source
+    private final AtomicLong lastSent = new AtomicLong(Long.MIN_VALUE); // nanoTime()
+
+    MOOSDBSubscription(MOOSDBClient client, double interval, MOOSDBWildcard wildcard) {
+        this.client = client;
+        this.interval = interval;
+        this.wildcard = wildcard;
+        this.app = wildcard == null ? null : wildcard.getAppPattern();
+    }
+
+    /**
+     * Send a notification on to the client, unless it was posted by an
+     * application the registration isn't for or it is too soon after the
+     * last one.
+     *
+     * @param encoded the notification, already serialised
+     * @param source who posted it
+     * @param now System.nanoTime()
+     * @return whether it was sent
+     */
+    boolean deliver(byte[] encoded, String source, long now) {
+        if (app != null && (source == null || !MOOSWildcardMatcher.matches(app, source))) {
+            return false;
+        }
+        if (interval > 0) {
+            long last = lastSent.get();
+            long intervalNanos = (long) (interval * 1e9 / Utils.getMoosTimeWarp());
+            if (last != Long.MIN_VALUE && now - last < intervalNanos) {
+                return false;
+            }
+            if (!lastSent.compareAndSet(last, now)) {
+                return false; // another thread has just sent one
+            }
+        }
+        return client.send(encoded);
+    }
+}
@@ -0,0 +1,163 @@
+package MOOS.db;
+
+import MOOS.MOOSMsg;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A variable in the database: its current value and who has registered for
+ * it. Notifications for the same variable can arrive on several I/O threads
+ * at once, so the subscribers are a copy on write array that fan out reads
+ * without locking; registrations, which are rare, copy it under the lock.
+ */
+final class MOOSDBVariable {
+
+    /**
+     * The current value, as posted and as sent.
+     */
+    static final class Value {
+
+        final MOOSMsg msg;
+        final byte[] encoded;
+
+        Value(MOOSMsg msg, byte[] encoded) {
+            this.msg = msg;
+            this.encoded = encoded;
+        }
+    }
+
+    private static final MOOSDBSubscription[] NONE = new MOOSDBSubscription[0];
+
+    final String name;
+    private volatile MOOSDBSubscription[] subscribers = NONE;
+    private volatile Value value; // null until first posted
+    private final LongAdder writes = new LongAdder();
+
+    MOOSDBVariable(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Store a notification and send it to every subscriber.
+     *
+     * @param msg the notification
+     * @param encoded msg serialised, shared by every subscriber
+     * @param now System.nanoTime()
+     * @return how many subscribers it was sent to
+     */
+    int notify(MOOSMsg msg, byte[] encoded, long now) {
+        value = new Value(msg, encoded);
+        writes.increment();
+        String source = msg.getSource();
+        int sent = 0;
+        for (MOOSDBSubscription subscriber : subscribers) {
+            if (subscriber.deliver(encoded, source, now)) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Send the current value, if there is one, to a new subscriber.
+     */
+    void sendCurrent(MOOSDBSubscription subscriber) {
+        Value current = value;
+        if (current != null) {
+            subscriber.deliver(current.encoded, current.msg.getSource(), System.nanoTime());
+        }
+    }
+
+    /**
+     * Add a direct registration, replacing any the client already has.
+     */
+    synchronized void subscribe(MOOSDBSubscription subscription) {
+        MOOSDBSubscription[] current = subscribers;
+        int existing = indexOf(current, subscription.client);
+        if (existing >= 0) {
+            current = current.clone();
+            current[existing] = subscription;
+        } else {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = subscription;
+        }
+        subscribers = current;
+    }
+
+    /**
+     * Add a registration on behalf of a wildcard, unless the client has
+     * already registered for this variable.
+     *
+     * @return the new subscription, or null if there already was one
+     */
+    synchronized MOOSDBSubscription subscribe(MOOSDBWildcard wildcard) {
+        if (indexOf(subscribers, wildcard.client) >= 0) {
+            return null;
+        }
+        MOOSDBSubscription subscription = new MOOSDBSubscription(wildcard.client, wildcard.interval, wildcard);
+        subscribe(subscription);
+        return subscription;
+    }
+
+    /**
+     * Remove whatever registration the client has.
+     *
+     * @return whether it had one
+     */
+    synchronized boolean unsubscribe(MOOSDBClient client) {
+        MOOSDBSubscription[] current = subscribers;
+        int existing = indexOf(current, client);
+        if (existing < 0) {
+            return false;
+        }
+        remove(existing);
+        return true;
+    }
+
+    /**
+     * Remove the registration made by a wildcard, if the wildcard made it.
+     *
+     * @return whether it had
+     */
+    synchronized boolean unsubscribe(MOOSDBWildcard wildcard) {
+        MOOSDBSubscription[] current = subscribers;
+        int existing = indexOf(current, wildcard.client);
+        if (existing >= 0 && current[existing].wildcard == wildcard) {
+            remove(existing);
+            return true;
+        }
+        return false;
+    }
+
+    private void remove(int index) {
+        MOOSDBSubscription[] current = subscribers;
+        MOOSDBSubscription[] fewer = new MOOSDBSubscription[current.length - 1];
+        System.arraycopy(current, 0, fewer, 0, index);
+        System.arraycopy(current, index + 1, fewer, index, fewer.length - index);
+        subscribers = fewer.length == 0 ? NONE : fewer;
+    }
+
+    private static int indexOf(MOOSDBSubscription[] subscriptions, MOOSDBClient client) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].client == client) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the current value, or null if it has never been posted
+     */
+    Value getValue() {
+        return value;
+    }
+
+    int getSubscriberCount() {
+        return subscribers.length;
+    }
+
+    long getWriteCount() {
+        return writes.sum();
+    }
+}
@@ -0,0 +1,38 @@
+package MOOS.db;
+
+import MOOS.MOOSWildcardMatcher;
+
+/**
+ * A wildcard registration, i.e. the string a client sends with
+ * WildcardRegister: "AppPattern=pNav*,VarPattern=NAV_*,Interval=0.5".
+ */
+final class MOOSDBWildcard {
+
+    final MOOSDBClient client;
+    final String varPattern;
+    final String appPattern;
+    final double interval;
+
+    MOOSDBWildcard(MOOSDBClient client, String varPattern, String appPattern, double interval) {
+        this.client = client;
+        this.varPattern = varPattern;
+        this.appPattern = appPattern;
+        this.interval = interval;
+    }
+
+    boolean matchesVariable(String name) {
+        return "*".equals(varPattern) || MOOSWildcardMatcher.matches(varPattern, name);
+    }
+
+    /**
+     * @return null if any application matches, so there is no need to check
+     * the source of each notification
+     */
+    String getAppPattern() {
+        return "*".equals(appPattern) ? null : appPattern;
+    }
+
+    boolean sameAs(String varPattern, String appPattern) {
+        return this.varPattern.equals(varPattern) && this.appPattern.equals(appPattern);
+    }
+}
@@ -0,0 +1,171 @@
+package MOOS.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An I/O thread with its own Selector, looking after a share of the
+ * clients. It reads and handles their packets, which fans notifications out
+ * to subscribers on every worker, and writes whatever other workers have
+ * queued for its clients, a packet per client per pass.
+ */
+final class MOOSDBWorker implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MOOSDBWorker.class);
+
+    /**
+     * Size of the buffer packets are built in. Messages bigger than this get
+     * a bigger one.
+     */
+    static final int PACKET_BUFFER_SIZE = 1 << 20;
+
+    private final MOOSDB db;
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<MOOSDBClient> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean woken = new AtomicBoolean();
+    private ByteBuffer scratch = ByteBuffer.allocateDirect(PACKET_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private volatile boolean running = true;
+
+    MOOSDBWorker(MOOSDB db, String name) throws IOException {
+        this.db = db;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Take on a newly accepted connection.
+     */
+    void adopt(SocketChannel channel) {
+        accepted.offer(channel);
+        wakeup();
+    }
+
+    /**
+     * Have a client's queued messages written in this pass, or the next if
+     * the selector is waiting.
+     */
+    void schedule(MOOSDBClient client) {
+        ready.offer(client);
+        if (Thread.currentThread() != thread) {
+            wakeup();
+        }
+    }
+
+    private void wakeup() {
+        if (woken.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                woken.set(false);
+                register();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    MOOSDBClient client = (MOOSDBClient) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            scratch = client.writable(scratch);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            client.read();
+                        }
+                    } catch (IOException e) {
+                        LOG.debug("Lost {}", client, e);
+                        client.close();
+                    } catch (RuntimeException e) { // e.g. a packet that doesn't hold as many messages as it says
+                        LOG.warn("Dropping {}", client, e);
+                        client.close();
+                    }
+                }
+                flushReady();
+            }
+        } catch (IOException e) {
+            LOG.error("{} stopped", thread.getName(), e);
+        } finally {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                ((MOOSDBClient) key.attachment()).close();
+            }
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                closeQuietly(channel);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.debug("Closing {}", thread.getName(), e);
+            }
+        }
+    }
+
+    private void register() {
+        SocketChannel channel;
+        while ((channel = accepted.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                MOOSDBClient client = new MOOSDBClient(db, this, channel);
+                client.setKey(channel.register(selector, SelectionKey.OP_READ, client));
+            } catch (IOException e) {
+                LOG.warn("Couldn't take on {}", channel, e);
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void flushReady() {
+        MOOSDBClient client;
+        while ((client = ready.poll()) != null) {
+            client.scheduled.set(false);
+            try {
+                scratch = client.flush(scratch);
+            } catch (IOException e) {
+                LOG.debug("Lost {}", client, e);
+                client.close();
+            } catch (RuntimeException e) {
+                LOG.warn("Dropping {}", client, e);
+                client.close();
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.debug("Closing {}", channel, e);
+        }
+    }
+}
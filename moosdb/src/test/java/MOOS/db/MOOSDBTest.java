@@ -0,0 +1,233 @@
+package MOOS.db;
+
+import MOOS.MOOSCommClient;
+import MOOS.MOOSCommPkt;
+import MOOS.MOOSMsg;
+import MOOS.MOOSServerConnection;
+import MOOS.MOOSTestClients;
+import MOOS.comms.MessageType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static MOOS.MOOSTestClients.await;
+import static org.junit.Assert.*;
+
+/**
+ * Real clients talking to a MOOSDB with several workers over loopback.
+ */
+public class MOOSDBTest {
+
+    private MOOSDB db;
+    private final MOOSTestClients clients = new MOOSTestClients();
+
+    @Before
+    public void setUp() throws Exception {
+        db = new MOOSDB(MOOSDB.DEFAULT_COMMUNITY, 0, 4);
+        db.setSummaryPeriod(100);
+        db.start();
+    }
+
+    @After
+    public void tearDown() {
+        clients.close();
+        db.close();
+    }
+
+    private MOOSCommClient connect(String name) throws Exception {
+        return clients.connect(name, db.getPort());
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        AtomicInteger received = new AtomicInteger();
+        int subscribers = 20; // spread over all the workers
+        for (int i = 0; i < subscribers; i++) {
+            connect("sub" + i).register("NAV_X", 0, msg -> received.incrementAndGet());
+        }
+        for (int i = 0; i < subscribers; i++) {
+            String sub = "sub" + i;
+            await(() -> db.isRegistered(sub, "NAV_X"));
+        }
+
+        int posts = 50;
+        for (int i = 0; i < posts; i++) {
+            sender.notify("NAV_X", i, -1);
+        }
+        await(() -> received.get() >= subscribers * posts);
+        assertEquals(posts, db.getNotifyCount());
+        assertEquals(posts - 1, db.getValue("NAV_X").getDoubleData(), 0);
+        assertEquals(MOOSDB.DEFAULT_COMMUNITY, db.getValue("NAV_X").getCommunity());
+    }
+
+    @Test
+    public void testRegisterGetsCurrentValue() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        sender.notify("DEPTH", 42.0, -1);
+        await(() -> db.getValue("DEPTH") != null);
+
+        CopyOnWriteArrayList<MOOSMsg> received = new CopyOnWriteArrayList<>();
+        connect("late").register("DEPTH", 0, received::add);
+        await(() -> !received.isEmpty());
+        assertEquals(42.0, received.get(0).getDoubleData(), 0);
+        assertEquals("sender", received.get(0).getSource());
+    }
+
+    @Test
+    public void testInterval() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        AtomicInteger every = new AtomicInteger();
+        AtomicInteger limited = new AtomicInteger();
+        connect("every").register("RATE", 0, msg -> every.incrementAndGet());
+        MOOSCommClient slow = connect("limited");
+        slow.register("RATE", 10, msg -> limited.incrementAndGet());
+        clients.watchMarker(slow, db::isRegistered);
+        await(() -> db.isRegistered("every", "RATE") && db.isRegistered("limited", "RATE"));
+
+        for (int i = 0; i < 20; i++) {
+            sender.notify("RATE", i, -1);
+        }
+        await(() -> every.get() >= 20);
+        clients.awaitMarker(sender, slow); // after all 20
+        assertEquals(1, limited.get());
+    }
+
+    @Test
+    public void testWildcard() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        MOOSCommClient other = connect("other");
+        sender.notify("NODE_OLD", "before", -1);
+        await(() -> db.getValue("NODE_OLD") != null);
+
+        CopyOnWriteArrayList<String> keys = new CopyOnWriteArrayList<>();
+        MOOSCommClient receiver = connect("receiver");
+        receiver.setMessageHandler(messages -> {
+            for (MOOSMsg msg : messages) {
+                if (!msg.getKey().startsWith("DB_")) {
+                    keys.add(msg.getKey() + "/" + msg.getSource());
+                }
+            }
+            return true;
+        });
+        receiver.register("NODE_*", "sen*", 0);
+        clients.watchMarker(receiver, db::isRegistered);
+        await(() -> keys.contains("NODE_OLD/sender")); // the variable that already existed
+        await(() -> db.isRegistered("receiver", "NODE_NEW"));
+
+        sender.notify("NODE_NEW", "x", -1); // a variable that didn't
+        sender.notify("OTHER", "y", -1);
+        other.notify("NODE_NEW", "z", -1); // wrong application
+        sender.notify("NODE_NEW", "w", -1);
+        await(() -> keys.size() >= 3);
+        clients.awaitMarker(other, receiver); // after other's NODE_NEW
+        clients.awaitMarker(sender, receiver); // and sender's OTHER
+        assertEquals(3, keys.size());
+        assertFalse(keys.contains("NODE_NEW/other"));
+    }
+
+    @Test
+    public void testSummary() throws Exception {
+        MOOSCommClient watcher = connect("watcher");
+        watcher.notify("WATCHED", 1.0, -1);
+        CopyOnWriteArrayList<MOOSMsg> clientLists = new CopyOnWriteArrayList<>();
+        CopyOnWriteArrayList<MOOSMsg> summaries = new CopyOnWriteArrayList<>();
+        watcher.register("DB_CLIENTS", 0, clientLists::add);
+        watcher.register("DB_RWSUMMARY", 0, summaries::add);
+        await(() -> !summaries.isEmpty() && summaries.get(summaries.size() - 1).getStringData().contains("DB_RWSUMMARY"));
+        String summary = summaries.get(summaries.size() - 1).getStringData();
+        assertTrue(summary, summary.startsWith("watcher=S:"));
+        assertTrue(summary, summary.contains(":DB_CLIENTS"));
+        assertTrue(summary, summary.endsWith("&P:WATCHED"));
+        assertEquals("watcher,", clientLists.get(clientLists.size() - 1).getStringData());
+        assertEquals("MOOSDB_" + MOOSDB.DEFAULT_COMMUNITY, clientLists.get(0).getSource());
+    }
+
+    @Test
+    public void testSummaryAfterWildcardUnregister() throws Exception {
+        MOOSCommClient sender = connect("sender");
+        sender.notify("NODE_A", 1.0, -1);
+        sender.notify("NODE_B", 1.0, -1);
+        await(() -> db.getValue("NODE_A") != null && db.getValue("NODE_B") != null);
+        MOOSCommClient receiver = connect("receiver");
+        receiver.register("NODE_*", "*", 0);
+        receiver.register("*_A", "*", 0);
+        await(() -> db.rwSummary().contains("receiver=S:NODE_A:NODE_B&P"));
+
+        receiver.unregister("NODE_*", "*");
+        await(() -> db.rwSummary().contains("receiver=S:NODE_A&P")); // *_A still has it
+        assertTrue(db.isRegistered("receiver", "NODE_A"));
+        receiver.unregister("*_A", "*");
+        await(() -> db.rwSummary().contains("receiver=S&P"));
+        assertFalse(db.isRegistered("receiver", "NODE_A"));
+    }
+
+    @Test
+    public void testDisconnect() throws Exception {
+        connect("stays");
+        MOOSCommClient leaves = connect("leaves");
+        await(() -> db.getClientNames().size() == 2);
+        leaves.setEnable(false);
+        await(() -> db.getClientNames().size() == 1);
+        assertTrue(db.getClientNames().contains("stays"));
+    }
+
+    @Test
+    public void testDuplicateName() throws Exception {
+        connect("twin");
+        MOOSCommClient other = new MOOSCommClient("twin", "localhost", db.getPort());
+        other.setUseSelector(true);
+        other.setAutoReconnect(false);
+        clients.add(other);
+        other.setEnable(true);
+        Thread.sleep(500);
+        assertEquals(0, other.getStats().getConnections());
+        assertEquals(1, db.getClientNames().size());
+    }
+
+    /**
+     * @return a packet of msg, ready to write
+     */
+    private static ByteBuffer packet(MOOSMsg msg) {
+        ArrayList<MOOSMsg> msgs = new ArrayList<>();
+        msgs.add(msg);
+        MOOSCommPkt pkt = new MOOSCommPkt();
+        pkt.serialize(msgs, true);
+        return pkt.getBytes();
+    }
+
+    @Test
+    public void testMalformedPacket() throws Exception {
+        db.close();
+        db = new MOOSDB(MOOSDB.DEFAULT_COMMUNITY, 0, 1); // everyone on the same worker
+        db.start();
+        MOOSCommClient sender = connect("sender");
+        CopyOnWriteArrayList<MOOSMsg> received = new CopyOnWriteArrayList<>();
+        connect("receiver").register("NAV_X", 0, received::add);
+        await(() -> db.isRegistered("receiver", "NAV_X"));
+
+        try (SocketChannel bad = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), db.getPort()))) {
+            ByteBuffer handshake = ByteBuffer.allocate(MOOSServerConnection.HANDSHAKE_SIZE);
+            handshake.put(MOOSServerConnection.PROTOCOL_STRING.getBytes(StandardCharsets.US_ASCII)).clear();
+            bad.write(handshake);
+            bad.write(packet(new MOOSMsg(MessageType.Data, "", "bad")));
+            await(() -> db.getClientNames().contains("bad"));
+            ByteBuffer truncated = packet(new MOOSMsg(MessageType.Notify, "NAV_X", 1.0));
+            truncated.putInt(4, 5); // says it holds five messages
+            bad.write(truncated);
+            await(() -> !db.getClientNames().contains("bad"));
+        }
+
+        sender.notify("NAV_X", 2.0, -1);
+        await(() -> !received.isEmpty());
+        assertEquals(2.0, received.get(0).getDoubleData(), 0);
+        connect("late"); // the worker still takes on new clients
+    }
+}